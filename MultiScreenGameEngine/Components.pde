@@ -42,6 +42,11 @@ public interface INetworkComponent extends IComponent
 {
   public int             serialize(FlatBufferBuilder builder);
   public void            deserialize(com.google.flatbuffers.Table componentTable);
+  
+  // The part of the component that changes at runtime, sent every time it changes. serialize() is only sent when the
+  // GameObject spawns on a client. Components with no runtime state return 0.
+  public int             serializeState(FlatBufferBuilder builder);
+  public void            deserializeState(com.google.flatbuffers.Table componentStateTable);
 }
 
 
@@ -172,6 +177,15 @@ public abstract class NetworkComponent extends Component implements INetworkComp
   {
     super(_gameObject);
   }
+  
+  @Override public int serializeState(FlatBufferBuilder builder)
+  {
+    return 0;
+  }
+  
+  @Override public void deserializeState(com.google.flatbuffers.Table componentStateTable)
+  {
+  }
 }
 
 
@@ -267,12 +281,13 @@ public class RenderComponent extends NetworkComponent
   
   @Override public int serialize(FlatBufferBuilder builder)
   {
-    int[] flatSprites = new int[spriteHandles.size()];
+    int flatSpritesStart = flatOffsets.size();
     for (int i = 0; i < spriteHandles.size(); i++)
     {
-      flatSprites[i] = scene.getSpriteInstance(spriteHandles.get(i)).serialize(builder);
+      flatOffsets.push(scene.getSpriteInstance(spriteHandles.get(i)).serialize(builder));
     }
-    int flatSpritesVector = FlatRenderComponent.createSpritesVector(builder, flatSprites);
+    FlatRenderComponent.startSpritesVector(builder, spriteHandles.size());
+    int flatSpritesVector = flatOffsets.endOffsetVector(builder, flatSpritesStart);
     
     FlatRenderComponent.startSpriteTranslationOffsetsVector(builder, spriteTranslationOffsets.size());
     for (int i = 0; i < spriteTranslationOffsets.size(); i++)
@@ -298,12 +313,13 @@ public class RenderComponent extends NetworkComponent
     }
     int flatSpriteScaleOffsets = builder.endVector();
     
-    int[] flatModels = new int[modelHandles.size()];
+    int flatModelsStart = flatOffsets.size();
     for (int i = 0; i < modelHandles.size(); i++)
     {
-      flatModels[i] = scene.getModelInstance(modelHandles.get(i)).serialize(builder);
+      flatOffsets.push(scene.getModelInstance(modelHandles.get(i)).serialize(builder));
     }
-    int flatModelsVector = FlatRenderComponent.createModelsVector(builder, flatModels);
+    FlatRenderComponent.startModelsVector(builder, modelHandles.size());
+    int flatModelsVector = flatOffsets.endOffsetVector(builder, flatModelsStart);
     
     FlatRenderComponent.startModelTranslationOffsetsVector(builder, modelTranslationOffsets.size());
     for (int i = 0; i < modelTranslationOffsets.size(); i++)
@@ -349,60 +365,134 @@ public class RenderComponent extends NetworkComponent
     return FlatComponentTable.endFlatComponentTable(builder);
   }
   
+  @Override public int serializeState(FlatBufferBuilder builder)
+  {
+    if (spriteHandles.size() == 0)
+    {
+      return 0;
+    }
+    
+    int flatSpritesStart = flatOffsets.size();
+    for (int i = 0; i < spriteHandles.size(); i++)
+    {
+      flatOffsets.push(scene.getSpriteInstance(spriteHandles.get(i)).serializeState(builder));
+    }
+    FlatRenderState.startSpritesVector(builder, spriteHandles.size());
+    int flatSpritesVector = flatOffsets.endOffsetVector(builder, flatSpritesStart);
+    
+    int flatRenderState = FlatRenderState.createFlatRenderState(builder, flatSpritesVector);
+    
+    FlatComponentTable.startFlatComponentTable(builder);
+    FlatComponentTable.addComponentType(builder, FlatComponentUnion.FlatRenderState);
+    FlatComponentTable.addComponent(builder, flatRenderState);
+    return FlatComponentTable.endFlatComponentTable(builder);
+  }
+  
+  @Override public void deserializeState(com.google.flatbuffers.Table componentStateTable)
+  {
+    FlatRenderState flatRenderState = (FlatRenderState)componentStateTable;
+    
+    for (int i = 0; i < flatRenderState.spritesLength() && i < spriteHandles.size(); i++)
+    {
+      scene.getSpriteInstance(spriteHandles.get(i)).deserializeState(flatRenderState.sprites(i));
+    }
+  }
+  
   @Override public void deserialize(com.google.flatbuffers.Table componentTable)
   {
     FlatRenderComponent flatRenderComponent = (FlatRenderComponent)componentTable;
     
+    // A full snapshot reloads components the client already has. As long as they show as many sprites and models, keep
+    // the instances and their scene handles and just load the new values into them.
+    if (flatRenderComponent.spritesLength() != spriteHandles.size() || flatRenderComponent.modelsLength() != modelHandles.size())
+    {
+      destroy();
+    }
+    
     for (int i = 0; i < flatRenderComponent.spritesLength(); i++)
     {
       FlatSprite flatSprite = flatRenderComponent.sprites(i);
-      ISpriteInstance spriteInstance = new SpriteInstance(flatSprite.spriteName());
-      spriteInstance.deserialize(flatSprite);
-      spriteHandles.add(scene.addSpriteInstance(spriteInstance));
+      if (i < spriteHandles.size())
+      {
+        scene.getSpriteInstance(spriteHandles.get(i)).deserialize(flatSprite);
+      }
+      else
+      {
+        ISpriteInstance spriteInstance = new SpriteInstance(sessionStrings.resolveSprite(flatSprite));
+        spriteInstance.deserialize(flatSprite);
+        spriteHandles.add(scene.addSpriteInstance(spriteInstance));
+      }
     }
     
+    FlatVec3 flatOffset = new FlatVec3();
+    
+    resizeOffsets(spriteTranslationOffsets, flatRenderComponent.spriteTranslationOffsetsLength());
     for (int i = 0; i < flatRenderComponent.spriteTranslationOffsetsLength(); i++)
     {
-      FlatVec3 flatSpriteTranslationOffset = flatRenderComponent.spriteTranslationOffsets(i);
-      spriteTranslationOffsets.add(new PVector(flatSpriteTranslationOffset.x(), flatSpriteTranslationOffset.y(), flatSpriteTranslationOffset.z()));
+      flatRenderComponent.spriteTranslationOffsets(flatOffset, i);
+      spriteTranslationOffsets.get(i).set(flatOffset.x(), flatOffset.y(), flatOffset.z());
     }
     
+    resizeOffsets(spriteRotationOffsets, flatRenderComponent.spriteRotationOffsetsLength());
     for (int i = 0; i < flatRenderComponent.spriteRotationOffsetsLength(); i++)
     {
-      FlatVec3 flatSpriteRotationOffset = flatRenderComponent.spriteRotationOffsets(i);
-      spriteRotationOffsets.add(new PVector(flatSpriteRotationOffset.x(), flatSpriteRotationOffset.y(), flatSpriteRotationOffset.z()));
+      flatRenderComponent.spriteRotationOffsets(flatOffset, i);
+      spriteRotationOffsets.get(i).set(flatOffset.x(), flatOffset.y(), flatOffset.z());
     }
     
+    resizeOffsets(spriteScaleOffsets, flatRenderComponent.spriteScaleOffsetsLength());
     for (int i = 0; i < flatRenderComponent.spriteScaleOffsetsLength(); i++)
     {
-      FlatVec3 flatSpriteScaleOffset = flatRenderComponent.spriteScaleOffsets(i);
-      spriteScaleOffsets.add(new PVector(flatSpriteScaleOffset.x(), flatSpriteScaleOffset.y(), flatSpriteScaleOffset.z()));
+      flatRenderComponent.spriteScaleOffsets(flatOffset, i);
+      spriteScaleOffsets.get(i).set(flatOffset.x(), flatOffset.y(), flatOffset.z());
     }
     
     for (int i = 0; i < flatRenderComponent.modelsLength(); i++)
     {
       FlatModel flatModel = flatRenderComponent.models(i);
-      IModelInstance modelInstance = new ModelInstance(flatModel.modelName());
-      modelInstance.deserialize(flatModel);
-      modelHandles.add(scene.addModelInstance(modelInstance));
+      if (i < modelHandles.size())
+      {
+        scene.getModelInstance(modelHandles.get(i)).deserialize(flatModel);
+      }
+      else
+      {
+        IModelInstance modelInstance = new ModelInstance(sessionStrings.resolveModel(flatModel));
+        modelInstance.deserialize(flatModel);
+        modelHandles.add(scene.addModelInstance(modelInstance));
+      }
     }
     
+    resizeOffsets(modelTranslationOffsets, flatRenderComponent.modelTranslationOffsetsLength());
     for (int i = 0; i < flatRenderComponent.modelTranslationOffsetsLength(); i++)
     {
-      FlatVec3 flatModelTranslationOffset = flatRenderComponent.modelTranslationOffsets(i);
-      modelTranslationOffsets.add(new PVector(flatModelTranslationOffset.x(), flatModelTranslationOffset.y(), flatModelTranslationOffset.z()));
+      flatRenderComponent.modelTranslationOffsets(flatOffset, i);
+      modelTranslationOffsets.get(i).set(flatOffset.x(), flatOffset.y(), flatOffset.z());
     }
     
+    resizeOffsets(modelRotationOffsets, flatRenderComponent.modelRotationOffsetsLength());
     for (int i = 0; i < flatRenderComponent.modelRotationOffsetsLength(); i++)
     {
-      FlatVec3 flatModelRotationOffset = flatRenderComponent.modelRotationOffsets(i);
-      modelRotationOffsets.add(new PVector(flatModelRotationOffset.x(), flatModelRotationOffset.y(), flatModelRotationOffset.z()));
+      flatRenderComponent.modelRotationOffsets(flatOffset, i);
+      modelRotationOffsets.get(i).set(flatOffset.x(), flatOffset.y(), flatOffset.z());
     }
     
+    resizeOffsets(modelScaleOffsets, flatRenderComponent.modelScaleOffsetsLength());
     for (int i = 0; i < flatRenderComponent.modelScaleOffsetsLength(); i++)
     {
-      FlatVec3 flatModelScaleOffset = flatRenderComponent.modelScaleOffsets(i);
-      modelScaleOffsets.add(new PVector(flatModelScaleOffset.x(), flatModelScaleOffset.y(), flatModelScaleOffset.z()));
+      flatRenderComponent.modelScaleOffsets(flatOffset, i);
+      modelScaleOffsets.get(i).set(flatOffset.x(), flatOffset.y(), flatOffset.z());
+    }
+  }
+  
+  private void resizeOffsets(ArrayList<PVector> offsets, int size)
+  {
+    while (offsets.size() > size)
+    {
+      offsets.remove(offsets.size() - 1);
+    }
+    while (offsets.size() < size)
+    {
+      offsets.add(new PVector());
     }
   }
   
@@ -419,18 +509,15 @@ public class RenderComponent extends NetworkComponent
       
       PVector translation = gameObject.getTranslation();
       PVector translationOffset = spriteTranslationOffsets.get(i);
-      PVector adjustedTranslation = new PVector(translation.x + translationOffset.x, translation.y + translationOffset.y, translation.z + translationOffset.z);
-      spriteInstance.setTranslation(adjustedTranslation);
+      spriteInstance.getTranslation().set(translation.x + translationOffset.x, translation.y + translationOffset.y, translation.z + translationOffset.z);
       
       PVector rotation = gameObject.getRotation();
       PVector rotationOffset = spriteRotationOffsets.get(i);
-      PVector adjustedRotation = new PVector(rotation.x + rotationOffset.x, rotation.y + rotationOffset.y, rotation.z + rotationOffset.z);
-      spriteInstance.setRotation(adjustedRotation);
+      spriteInstance.getRotation().set(rotation.x + rotationOffset.x, rotation.y + rotationOffset.y, rotation.z + rotationOffset.z);
       
       PVector scale = gameObject.getScale();
       PVector scaleOffset = spriteScaleOffsets.get(i);
-      PVector adjustedScale = new PVector(scale.x * scaleOffset.x, scale.y * scaleOffset.y, scale.z * scaleOffset.z);
-      spriteInstance.setScale(adjustedScale);
+      spriteInstance.getScale().set(scale.x * scaleOffset.x, scale.y * scaleOffset.y, scale.z * scaleOffset.z);
     }
     
     for (int i = 0; i < modelHandles.size(); i++)
@@ -439,18 +526,15 @@ public class RenderComponent extends NetworkComponent
       
       PVector translation = gameObject.getTranslation();
       PVector translationOffset = modelTranslationOffsets.get(i);
-      PVector adjustedTranslation = new PVector(translation.x + translationOffset.x, translation.y + translationOffset.y, translation.z + translationOffset.z);
-      modelInstance.setTranslation(adjustedTranslation);
+      modelInstance.getTranslation().set(translation.x + translationOffset.x, translation.y + translationOffset.y, translation.z + translationOffset.z);
       
       PVector rotation = gameObject.getRotation();
       PVector rotationOffset = modelRotationOffsets.get(i);
-      PVector adjustedRotation = new PVector(rotation.x + rotationOffset.x, rotation.y + rotationOffset.y, rotation.z + rotationOffset.z);
-      modelInstance.setRotation(adjustedRotation);
+      modelInstance.getRotation().set(rotation.x + rotationOffset.x, rotation.y + rotationOffset.y, rotation.z + rotationOffset.z);
       
       PVector scale = gameObject.getScale();
       PVector scaleOffset = modelScaleOffsets.get(i);
-      PVector adjustedScale = new PVector(scale.x * scaleOffset.x, scale.y * scaleOffset.y, scale.z * scaleOffset.z);
-      modelInstance.setScale(adjustedScale);
+      modelInstance.getScale().set(scale.x * scaleOffset.x, scale.y * scaleOffset.y, scale.z * scaleOffset.z);
     }
   }
   
@@ -1016,6 +1100,25 @@ public class TranslateOverTimeComponent extends NetworkComponent
     backwardLimit = flatTranslateOverTimeComponent.backwardLimit();
   } 
   
+  @Override public int serializeState(FlatBufferBuilder builder)
+  {
+    int flatTranslateOverTimeStateOffset = FlatTranslateOverTimeState.createFlatTranslateOverTimeState(builder, movingLeft, movingDown, movingForward);
+    
+    FlatComponentTable.startFlatComponentTable(builder);
+    FlatComponentTable.addComponentType(builder, FlatComponentUnion.FlatTranslateOverTimeState);
+    FlatComponentTable.addComponent(builder, flatTranslateOverTimeStateOffset);
+    return FlatComponentTable.endFlatComponentTable(builder);
+  }
+  
+  @Override public void deserializeState(com.google.flatbuffers.Table componentStateTable)
+  {
+    FlatTranslateOverTimeState flatTranslateOverTimeState = (FlatTranslateOverTimeState)componentStateTable;
+    
+    movingLeft = flatTranslateOverTimeState.movingLeft();
+    movingDown = flatTranslateOverTimeState.movingDown();
+    movingForward = flatTranslateOverTimeState.movingForward();
+  }
+  
   @Override public ComponentType getComponentType()
   {
     return ComponentType.TRANSLATE_OVER_TIME;
@@ -1326,6 +1429,25 @@ public class ScaleOverTimeComponent extends NetworkComponent
     zUpperLimit = flatScaleOverTimeComponent.zUpperLimit();
   }
   
+  @Override public int serializeState(FlatBufferBuilder builder)
+  {
+    int flatScaleOverTimeStateOffset = FlatScaleOverTimeState.createFlatScaleOverTimeState(builder, xScalingUp, yScalingUp, zScalingUp);
+    
+    FlatComponentTable.startFlatComponentTable(builder);
+    FlatComponentTable.addComponentType(builder, FlatComponentUnion.FlatScaleOverTimeState);
+    FlatComponentTable.addComponent(builder, flatScaleOverTimeStateOffset);
+    return FlatComponentTable.endFlatComponentTable(builder);
+  }
+  
+  @Override public void deserializeState(com.google.flatbuffers.Table componentStateTable)
+  {
+    FlatScaleOverTimeState flatScaleOverTimeState = (FlatScaleOverTimeState)componentStateTable;
+    
+    xScalingUp = flatScaleOverTimeState.xScalingUp();
+    yScalingUp = flatScaleOverTimeState.yScalingUp();
+    zScalingUp = flatScaleOverTimeState.zScalingUp();
+  }
+  
   @Override public ComponentType getComponentType()
   {
     return ComponentType.SCALE_OVER_TIME;
@@ -1460,6 +1582,151 @@ public class ScaleOverTimeComponent extends NetworkComponent
 }
 
 
+// Paddle directions, as set by the direction attribute of ServerPaddleController.
+public final int PADDLE_DIRECTION_ALL = 0;
+public final int PADDLE_DIRECTION_VERTICAL = 1;
+public final int PADDLE_DIRECTION_HORIZONTAL = 2;
+
+// Input commands kept for replay while waiting for the server to acknowledge them.
+public final int MAX_PENDING_PADDLE_INPUTS = 64;
+
+// Paddle input as sent over the network: one bit per button.
+public final int PADDLE_BUTTON_UP = 1;
+public final int PADDLE_BUTTON_DOWN = 2;
+public final int PADDLE_BUTTON_LEFT = 4;
+public final int PADDLE_BUTTON_RIGHT = 8;
+public final int PADDLE_BUTTON_W = 16;
+public final int PADDLE_BUTTON_A = 32;
+public final int PADDLE_BUTTON_S = 64;
+public final int PADDLE_BUTTON_D = 128;
+
+// Shared by the server, which applies input, and the client, which predicts it. Returns a unit vector or zero.
+public PVector getPaddleMoveDirection(int direction, int buttonMask)
+{
+  PVector velocity = new PVector(0.0f, 0.0f);
+  
+  switch (direction)
+  {
+    case PADDLE_DIRECTION_ALL:
+      if ((buttonMask & PADDLE_BUTTON_W) != 0)
+      {
+        velocity.y += 1.0f;
+      }
+      if ((buttonMask & PADDLE_BUTTON_A) != 0)
+      {
+        velocity.x -= 1.0f;
+      }
+      if ((buttonMask & PADDLE_BUTTON_S) != 0)
+      {
+        velocity.y -= 1.0f;
+      }
+      if ((buttonMask & PADDLE_BUTTON_D) != 0)
+      {
+        velocity.x += 1.0f;
+      }
+      break;
+      
+    case PADDLE_DIRECTION_VERTICAL:
+      if ((buttonMask & PADDLE_BUTTON_UP) != 0)
+      {
+        velocity.y += 1.0f;
+      }
+      if ((buttonMask & PADDLE_BUTTON_DOWN) != 0)
+      {
+        velocity.y -= 1.0f;
+      }
+      break;
+      
+    case PADDLE_DIRECTION_HORIZONTAL:
+      if ((buttonMask & PADDLE_BUTTON_LEFT) != 0)
+      {
+        velocity.x -= 1.0f;
+      }
+      if ((buttonMask & PADDLE_BUTTON_RIGHT) != 0)
+      {
+        velocity.x += 1.0f;
+      }
+      break;
+  }
+  
+  return velocity.normalize();
+}
+
+public int getPaddleButtonMask(boolean upButtonDown, boolean downButtonDown, boolean leftButtonDown, boolean rightButtonDown,
+  boolean wButtonDown, boolean aButtonDown, boolean sButtonDown, boolean dButtonDown)
+{
+  int buttonMask = 0;
+  
+  if (upButtonDown)
+  {
+    buttonMask |= PADDLE_BUTTON_UP;
+  }
+  if (downButtonDown)
+  {
+    buttonMask |= PADDLE_BUTTON_DOWN;
+  }
+  if (leftButtonDown)
+  {
+    buttonMask |= PADDLE_BUTTON_LEFT;
+  }
+  if (rightButtonDown)
+  {
+    buttonMask |= PADDLE_BUTTON_RIGHT;
+  }
+  if (wButtonDown)
+  {
+    buttonMask |= PADDLE_BUTTON_W;
+  }
+  if (aButtonDown)
+  {
+    buttonMask |= PADDLE_BUTTON_A;
+  }
+  if (sButtonDown)
+  {
+    buttonMask |= PADDLE_BUTTON_S;
+  }
+  if (dButtonDown)
+  {
+    buttonMask |= PADDLE_BUTTON_D;
+  }
+  
+  return buttonMask;
+}
+
+// One input command and how long the client has held it, kept until the server acknowledges a newer one.
+public class PaddleInput
+{
+  public int sequence;
+  public int buttonMask;
+  public int heldTime;
+  
+  // How much of heldTime the server has already applied, according to the newest snapshot.
+  public int appliedTime;
+  
+  public PaddleInput(int _sequence, int _buttonMask)
+  {
+    sequence = _sequence;
+    buttonMask = _buttonMask;
+    heldTime = 0;
+    appliedTime = 0;
+  }
+}
+
+// A shared paddle this client moves, with what it needs to predict that movement.
+public class ControlledPaddle
+{
+  public int UID;
+  public int direction;
+  public float speed;
+  
+  public ControlledPaddle(int _UID, int _direction, float _speed)
+  {
+    UID = _UID;
+    direction = _direction;
+    speed = _speed;
+  }
+}
+
 public class ClientPaddleControllerComponent extends Component
 {
   public int clientID;
@@ -1474,12 +1741,25 @@ public class ClientPaddleControllerComponent extends Component
   public boolean sButtonDown;
   public boolean dButtonDown;
   
+  // Client-side prediction. Each change of input gets the next sequence number and stays pending until a snapshot says
+  // the server has applied it. The controlled paddles are drawn at the newest authoritative position plus the movement
+  // of the pending inputs that the server has not applied yet.
+  private int inputSequence;
+  private int lastButtonMask;
+  private LinkedList<PaddleInput> pendingInputs;
+  private ArrayList<ControlledPaddle> controlledPaddles;
+  
   public ClientPaddleControllerComponent(IGameObject _gameObject)
   {
     super(_gameObject);
     
     clientID = -1;
     
+    inputSequence = 0;
+    lastButtonMask = -1;
+    pendingInputs = new LinkedList<PaddleInput>();
+    controlledPaddles = new ArrayList<ControlledPaddle>();
+    
     leftButtonDown = false;
     rightButtonDown = false;
     upButtonDown = false;
@@ -1593,38 +1873,87 @@ public class ClientPaddleControllerComponent extends Component
       
       if (mainClient != null && mainClient.isConnected())
       {
-        FlatBufferBuilder builder = new FlatBufferBuilder(0);
-        
-        FlatPaddleControllerState.startFlatPaddleControllerState(builder);
-        FlatPaddleControllerState.addLeftButtonDown(builder, leftButtonDown);
-        FlatPaddleControllerState.addRightButtonDown(builder, rightButtonDown);
-        FlatPaddleControllerState.addUpButtonDown(builder, upButtonDown);
-        FlatPaddleControllerState.addDownButtonDown(builder, downButtonDown);
-        FlatPaddleControllerState.addWButtonDown(builder, wButtonDown);
-        FlatPaddleControllerState.addAButtonDown(builder, aButtonDown);
-        FlatPaddleControllerState.addSButtonDown(builder, sButtonDown);
-        FlatPaddleControllerState.addDButtonDown(builder, dButtonDown);
-        int flatPaddleControllerStateOffset = FlatPaddleControllerState.endFlatPaddleControllerState(builder);
-        
-        FlatMessageHeader.startFlatMessageHeader(builder);
-        FlatMessageHeader.addTimeStamp(builder, System.currentTimeMillis());
-        FlatMessageHeader.addClientID(builder, clientID);
-        int flatMessageHeader = FlatMessageHeader.endFlatMessageHeader(builder);
-        
-        FlatMessageBodyTable.startFlatMessageBodyTable(builder);
-        FlatMessageBodyTable.addBodyType(builder, FlatMessageBodyUnion.FlatPaddleControllerState);
-        FlatMessageBodyTable.addBody(builder, flatPaddleControllerStateOffset);
-        int flatMessageBodyTable = FlatMessageBodyTable.endFlatMessageBodyTable(builder);
+        int buttonMask = getPaddleButtonMask(upButtonDown, downButtonDown, leftButtonDown, rightButtonDown,
+          wButtonDown, aButtonDown, sButtonDown, dButtonDown);
         
-        FlatMessage.startFlatMessage(builder);
-        FlatMessage.addHeader(builder, flatMessageHeader);
-        FlatMessage.addBodyTable(builder, flatMessageBodyTable);
-        FlatMessage.finishFlatMessageBuffer(builder, FlatMessage.endFlatMessage(builder));
+        if (buttonMask != lastButtonMask)
+        {
+          inputSequence++;
+          lastButtonMask = buttonMask;
+          mainClient.writeInput(inputSequence, buttonMask);
+          
+          pendingInputs.addLast(new PaddleInput(inputSequence, buttonMask));
+          while (pendingInputs.size() > MAX_PENDING_PADDLE_INPUTS)
+          {
+            pendingInputs.removeFirst();
+          }
+        }
         
-        mainClient.write(builder.dataBuffer());
+        // reconcile() empties the list when the server acknowledges a sequence beyond every pending one.
+        if (!pendingInputs.isEmpty())
+        {
+          pendingInputs.getLast().heldTime += deltaTime;
+        }
+      }
+    }
+  }
+  
+  public void setControlledPaddles(FlatInitializationMessage flatInitializationMessage)
+  {
+    controlledPaddles.clear();
+    
+    for (int i = 0; i < flatInitializationMessage.controlledPaddlesLength(); i++)
+    {
+      FlatControlledPaddle flatControlledPaddle = flatInitializationMessage.controlledPaddles(i);
+      controlledPaddles.add(new ControlledPaddle(flatControlledPaddle.uid(), flatControlledPaddle.direction(), flatControlledPaddle.speed()));
+    }
+  }
+  
+  // Call when a snapshot is applied, with the last input sequence the server had applied when it was taken and for
+  // how many milliseconds it had been applying it.
+  public void reconcile(int acknowledgedSequence, int appliedTime)
+  {
+    while (!pendingInputs.isEmpty() && pendingInputs.getFirst().sequence - acknowledgedSequence < 0)
+    {
+      pendingInputs.removeFirst();
+    }
+    
+    if (!pendingInputs.isEmpty() && pendingInputs.getFirst().sequence == acknowledgedSequence)
+    {
+      pendingInputs.getFirst().appliedTime = appliedTime;
+    }
+  }
+  
+  // Call every frame after the interpolation buffer has placed the shared GameObjects. Replays the pending inputs on
+  // top of the newest authoritative position, which overrides the interpolated one for the controlled paddles.
+  public void applyPrediction(IGameObjectManager sharedGameObjectManager, SnapshotInterpolationBuffer interpolationBuffer, int deltaTime)
+  {
+    for (ControlledPaddle controlledPaddle : controlledPaddles)
+    {
+      IGameObject paddle = sharedGameObjectManager.getGameObjects().get(controlledPaddle.UID);
+      PVector authoritativeTranslation = interpolationBuffer.getLatestTranslation(controlledPaddle.UID);
+      if (paddle == null || authoritativeTranslation == null)
+      {
+        continue;
+      }
+      
+      PVector predictedTranslation = authoritativeTranslation.copy();
+      for (PaddleInput input : pendingInputs)
+      {
+        int unappliedTime = max(input.heldTime - input.appliedTime, 0);
+        PVector moveDirection = getPaddleMoveDirection(controlledPaddle.direction, input.buttonMask);
+        predictedTranslation.add(moveDirection.mult(controlledPaddle.speed * unappliedTime / 1000.0f));
+      }
+      paddle.setTranslation(predictedTranslation);
+      
+      IComponent renderComponent = paddle.getComponent(ComponentType.RENDER);
+      if (renderComponent != null)
+      {
+        renderComponent.update(deltaTime);
       }
     }
   }
+  
 }
 
 
@@ -1634,10 +1963,13 @@ public class ServerPaddleControllerComponent extends Component
   private float speed;
   private int clientID;
   private PVector paddleColor;
+  private PVector moveDirection;
   
   public ServerPaddleControllerComponent(IGameObject _gameObject)
   {
     super(_gameObject);
+    
+    moveDirection = null;
   }
   
   @Override public void fromXML(XML xmlComponent)
@@ -1646,15 +1978,15 @@ public class ServerPaddleControllerComponent extends Component
     switch (strDirection)
     {
       case "all":
-        direction = 0;
+        direction = PADDLE_DIRECTION_ALL;
         break;
       
       case "vertical":
-        direction = 1;
+        direction = PADDLE_DIRECTION_VERTICAL;
         break;
         
       case "horizontal":
-        direction = 2;
+        direction = PADDLE_DIRECTION_HORIZONTAL;
         break;
         
       default:
@@ -1678,58 +2010,18 @@ public class ServerPaddleControllerComponent extends Component
     {
       if (event.getRequiredIntParameter("clientID") == clientID)
       {
-        PVector velocity = new PVector(0.0f, 0.0f);
-      
-        switch (direction)
-        {
-          case 0:
-            if (event.getRequiredBooleanParameter("wButtonDown"))
-            {
-              velocity.y += 1.0f;
-            }
-            if (event.getRequiredBooleanParameter("aButtonDown"))
-            {
-              velocity.x -= 1.0f;
-            }
-            if (event.getRequiredBooleanParameter("sButtonDown"))
-            {
-              velocity.y -= 1.0f;
-            }
-            if (event.getRequiredBooleanParameter("dButtonDown"))
-            {
-              velocity.x += 1.0f;
-            }
-            break;
-            
-          case 1:
-            if (event.getRequiredBooleanParameter("upButtonDown"))
-            {
-              velocity.y += 1.0f;
-            }
-            if (event.getRequiredBooleanParameter("downButtonDown"))
-            {
-              velocity.y -= 1.0f;
-            }
-            break;
-            
-          case 2:
-            if (event.getRequiredBooleanParameter("leftButtonDown"))
-            {
-              velocity.x -= 1.0f;
-            }
-            if (event.getRequiredBooleanParameter("rightButtonDown"))
-            {
-              velocity.x += 1.0f;
-            }
-            break;
-        }
-        
-        IComponent component = gameObject.getComponent(ComponentType.RIGID_BODY);
-        if (component != null)
-        {
-          RigidBodyComponent rigidBodyComponent = (RigidBodyComponent)component;
-          rigidBodyComponent.setLinearVelocity(velocity.normalize().mult(speed));
-        }
+        moveDirection = getPaddleMoveDirection(direction, event.getRequiredIntParameter("buttonMask"));
+      }
+    }
+    
+    // Input only arrives when it changes, so keep pushing the last one in case a collision changed the velocity.
+    if (moveDirection != null)
+    {
+      IComponent component = gameObject.getComponent(ComponentType.RIGID_BODY);
+      if (component != null)
+      {
+        RigidBodyComponent rigidBodyComponent = (RigidBodyComponent)component;
+        rigidBodyComponent.setLinearVelocity(moveDirection.copy().mult(speed));
       }
     }
   }
@@ -1739,6 +2031,16 @@ public class ServerPaddleControllerComponent extends Component
     return clientID;
   }
   
+  public int getDirection()
+  {
+    return direction;
+  }
+  
+  public float getSpeed()
+  {
+    return speed;
+  }
+  
   public PVector getPaddleColor()
   {
     return paddleColor;
@@ -2015,4 +2317,73 @@ public IComponent deserializeComponent(GameObject gameObject, FlatComponentTable
   }
   
   return component;
+}
+
+// Maps a FlatComponentUnion type, of either a component table or a component state, to the component it belongs to.
+public ComponentType flatComponentTypeToComponentType(byte flatComponentType)
+{
+  switch (flatComponentType)
+  {
+    case FlatComponentUnion.FlatRenderComponent:
+    case FlatComponentUnion.FlatRenderState:
+      return ComponentType.RENDER;
+      
+    case FlatComponentUnion.FlatTranslateOverTimeComponent:
+    case FlatComponentUnion.FlatTranslateOverTimeState:
+      return ComponentType.TRANSLATE_OVER_TIME;
+      
+    case FlatComponentUnion.FlatRotateOverTimeComponent:
+      return ComponentType.ROTATE_OVER_TIME;
+      
+    case FlatComponentUnion.FlatScaleOverTimeComponent:
+    case FlatComponentUnion.FlatScaleOverTimeState:
+      return ComponentType.SCALE_OVER_TIME;
+      
+    default:
+      println("Assertion: FlatComponentUnion type not mapped to a ComponentType.");
+      assert(false);
+      return null;
+  }
+}
+
+public com.google.flatbuffers.Table getFlatComponentTable(FlatComponentTable flatComponentTable)
+{
+  switch (flatComponentTable.componentType())
+  {
+    case FlatComponentUnion.FlatRenderComponent:
+      return flatComponentTable.component(new FlatRenderComponent());
+      
+    case FlatComponentUnion.FlatTranslateOverTimeComponent:
+      return flatComponentTable.component(new FlatTranslateOverTimeComponent());
+      
+    case FlatComponentUnion.FlatRotateOverTimeComponent:
+      return flatComponentTable.component(new FlatRotateOverTimeComponent());
+      
+    case FlatComponentUnion.FlatScaleOverTimeComponent:
+      return flatComponentTable.component(new FlatScaleOverTimeComponent());
+      
+    case FlatComponentUnion.FlatRenderState:
+      return flatComponentTable.component(new FlatRenderState());
+      
+    case FlatComponentUnion.FlatTranslateOverTimeState:
+      return flatComponentTable.component(new FlatTranslateOverTimeState());
+      
+    case FlatComponentUnion.FlatScaleOverTimeState:
+      return flatComponentTable.component(new FlatScaleOverTimeState());
+      
+    default:
+      assert(false);
+      return null;
+  }
+}
+
+// Applies one entry of FlatGameObject.componentStates to the matching component, which the GameObject got when it spawned.
+public void deserializeComponentState(GameObject gameObject, FlatComponentTable flatComponentTable)
+{
+  IComponent component = gameObject.getComponent(flatComponentTypeToComponentType(flatComponentTable.componentType()));
+  
+  if (component instanceof INetworkComponent)
+  {
+    ((INetworkComponent)component).deserializeState(getFlatComponentTable(flatComponentTable));
+  }
 }
\ No newline at end of file
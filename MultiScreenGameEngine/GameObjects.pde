@@ -20,6 +20,13 @@ interface IGameObject
   public int serialize(FlatBufferBuilder builder);
   public void deserialize(FlatGameObject flatGameObject);
   
+  // For delta snapshots. Fields flagged in unchangedMask are left out, and deserialize() keeps its current values for them.
+  public int serialize(FlatBufferBuilder builder, int unchangedMask);
+  public int serializeComponents(FlatBufferBuilder builder);
+  
+  // Just the parts of each component that change while the game runs. The rest only travels when the object is spawned.
+  public int serializeComponentStates(FlatBufferBuilder builder);
+  
   // Every instantiated Game Object has a unique ID.
   public int getUID();
   
@@ -67,12 +74,27 @@ interface IGameObjectManager
   public int serialize(FlatBufferBuilder builder);
   public void deserialize(FlatGameWorld flatGameWorld);
   
+  // Delta snapshots. advanceSnapshotTick() records what changed since the last tick and must be called once per sent
+  // snapshot. serialize() with a baseline then only includes what changed after it, or everything when canDeltaFrom()
+  // is false. deserialize() applies either kind.
+  public int advanceSnapshotTick();
+  public int getSnapshotTick();
+  public boolean canDeltaFrom(int baselineTick);
+  public int serialize(FlatBufferBuilder builder, int baselineTick);
+  
+  // As above, but only with the GameObjects a view is interested in. A null interest includes everything.
+  public int serialize(FlatBufferBuilder builder, int baselineTick, ViewInterest interest);
+  
   public void update(int deltaTime);
   
   public IGameObject            addGameObject(String fileName, PVector translation, PVector rotation, PVector scale);
   public IGameObject            getGameObject(int UID);
   public ArrayList<IGameObject> getGameObjectsByTag(String tag);
   public HashMap<Integer, IGameObject> getGameObjects();
+  
+  // The same GameObjects and their UIDs as two lists in matching order, for walking them without an iterator.
+  public ArrayList<IGameObject> getGameObjectList();
+  public ArrayList<Integer>     getUIDList();
   public void                   removeGameObject(int UID);
   public void                   clearGameObjects();
   
@@ -86,6 +108,380 @@ interface IGameObjectManager
 // Increments such that every GameObject has a unique ID.
 int gameObjectNextUID = 0;
 
+// Scratch space shared by every serialize() on the main thread, so that building a snapshot does not allocate.
+IntStack flatOffsets = new IntStack(256);
+SessionStringTable sessionStrings = new SessionStringTable();
+HashMap<String, ByteBuffer> encodedFlatStrings = new HashMap<String, ByteBuffer>();
+
+// Like FlatBufferBuilder.createString(), but keeps the UTF-8 encoding of each string it has seen instead of encoding it
+// into a fresh buffer every time. Only meant for the small set of tags and names that go into snapshots.
+public int createCachedString(FlatBufferBuilder builder, String string)
+{
+  ByteBuffer encodedString = encodedFlatStrings.get(string);
+  if (encodedString == null)
+  {
+    encodedString = ByteBuffer.wrap(string.getBytes(StandardCharsets.UTF_8));
+    encodedFlatStrings.put(string, encodedString);
+  }
+  
+  int stringOffset = builder.createString(encodedString);
+  encodedString.rewind();
+  return stringOffset;
+}
+
+// Bits of FlatGameObject.unchangedMask.
+public final int UNCHANGED_TAG = 1;
+public final int UNCHANGED_TRANSLATION = 2;
+public final int UNCHANGED_ROTATION = 4;
+public final int UNCHANGED_SCALE = 8;
+public final int UNCHANGED_COMPONENT_STATES = 16;
+public final int UNCHANGED_COMPONENT_CONFIG = 32;
+public final int UNCHANGED_ALL = 63;
+
+// How many ticks old a client's acknowledged baseline may be and still be sent a delta.
+public final int SNAPSHOT_HISTORY_LENGTH = 64;
+
+// Starting size of the buffer snapshots are built in. It is kept from tick to tick and only grows if a snapshot does
+// not fit, so this just saves the first few snapshots from growing it.
+public final int SNAPSHOT_BUILDER_INITIAL_SIZE = 16384;
+
+// When true, snapshots carry translations as 16 bit fixed-point over [-QUANTIZED_POSITION_RANGE, QUANTIZED_POSITION_RANGE)
+// pixels, rotations as 16 bit fractions of a turn, and sprite tints as 8 bits per channel. A position is then off by at
+// most QUANTIZED_POSITION_RANGE / 65536 pixels and an angle by PI / 65536 radians; positions outside the range are
+// clamped. Scale stays a float: it goes from below 1 into the hundreds and rarely changes, so deltas leave it out anyway.
+public final boolean USE_QUANTIZED_TRANSFORMS = true;
+public final float QUANTIZED_POSITION_RANGE = 4096;
+
+public short quantizePosition(float position)
+{
+  return (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(position * 32768 / QUANTIZED_POSITION_RANGE)));
+}
+
+public float dequantizePosition(short quantizedPosition)
+{
+  return quantizedPosition * QUANTIZED_POSITION_RANGE / 32768;
+}
+
+// Narrowing to a short wraps any number of turns into [-PI, PI).
+public short quantizeAngle(float angle)
+{
+  return (short)Math.round(angle * 32768 / Math.PI);
+}
+
+public float dequantizeAngle(short quantizedAngle)
+{
+  return (float)(quantizedAngle * Math.PI / 32768);
+}
+
+public int quantizeColorChannel(float channel)
+{
+  return constrain(Math.round(channel), 0, 255);
+}
+
+public int createQuantizedPosition(FlatBufferBuilder builder, PVector position)
+{
+  return FlatQuantizedVec3.createFlatQuantizedVec3(builder, quantizePosition(position.x), quantizePosition(position.y), quantizePosition(position.z));
+}
+
+public int createQuantizedAngles(FlatBufferBuilder builder, PVector angles)
+{
+  return FlatQuantizedVec3.createFlatQuantizedVec3(builder, quantizeAngle(angles.x), quantizeAngle(angles.y), quantizeAngle(angles.z));
+}
+
+// These and the functions below write into the PVector they are given and return it, so that applying a snapshot
+// updates the existing vectors rather than allocating new ones.
+public PVector dequantizePosition(FlatQuantizedVec3 flatPosition, PVector target)
+{
+  return target.set(dequantizePosition(flatPosition.x()), dequantizePosition(flatPosition.y()), dequantizePosition(flatPosition.z()));
+}
+
+public PVector dequantizeAngles(FlatQuantizedVec3 flatAngles, PVector target)
+{
+  return target.set(dequantizeAngle(flatAngles.x()), dequantizeAngle(flatAngles.y()), dequantizeAngle(flatAngles.z()));
+}
+
+// Quantized angles arrive wrapped into a single turn. Shifting each by whole turns to lie within PI of the previous value
+// keeps interpolation from spinning the long way round when an angle crosses PI.
+public PVector unwrapAngles(PVector angles, PVector previousAngles)
+{
+  return angles.set(unwrapAngle(angles.x, previousAngles.x), unwrapAngle(angles.y, previousAngles.y), unwrapAngle(angles.z, previousAngles.z));
+}
+
+public float unwrapAngle(float angle, float previousAngle)
+{
+  return angle + TWO_PI * Math.round((previousAngle - angle) / TWO_PI);
+}
+
+// A FlatGameObject's translation or rotation in whichever encoding it was sent. Only valid if not flagged unchanged.
+public PVector getFlatTranslation(FlatGameObject flatGameObject, PVector target)
+{
+  FlatQuantizedVec3 flatQuantizedTranslation = flatGameObject.quantizedTranslation();
+  if (flatQuantizedTranslation != null)
+  {
+    return dequantizePosition(flatQuantizedTranslation, target);
+  }
+  FlatVec3 flatTranslation = flatGameObject.translation();
+  return target.set(flatTranslation.x(), flatTranslation.y(), flatTranslation.z());
+}
+
+public PVector getFlatRotation(FlatGameObject flatGameObject, PVector target)
+{
+  FlatQuantizedVec3 flatQuantizedRotation = flatGameObject.quantizedRotation();
+  if (flatQuantizedRotation != null)
+  {
+    return dequantizeAngles(flatQuantizedRotation, target);
+  }
+  FlatVec3 flatRotation = flatGameObject.rotation();
+  return target.set(flatRotation.x(), flatRotation.y(), flatRotation.z());
+}
+
+// How far outside a view a GameObject has to move before the view stops receiving it. Keeps objects near a border
+// from being removed and re-sent in full every time they wobble across it.
+public final float INTEREST_HYSTERESIS_MARGIN = 50.0f;
+
+// Clients render shared GameObjects this many milliseconds behind the server, so that there is usually a snapshot on
+// either side of the rendered time to interpolate between. About two server ticks at 20 Hz.
+public final int INTERPOLATION_DELAY = 100;
+
+// When snapshots stop arriving, motion continues along the last known velocity for at most this many milliseconds.
+public final int MAX_EXTRAPOLATION = 100;
+
+public final int MAX_INTERPOLATION_SAMPLES = 32;
+
+// A growable stack of ints, for holding the elements of a FlatBuffers vector until the vector can be started: a vector
+// of tables can only be started once every table in it is finished. serialize() calls nest, so each one pushes on top
+// of whatever its caller has pushed and pops back to where it started once its own vector is built.
+public class IntStack
+{
+  private int[] values;
+  private int size;
+  
+  public IntStack(int initialCapacity)
+  {
+    values = new int[initialCapacity];
+    size = 0;
+  }
+  
+  public int size()
+  {
+    return size;
+  }
+  
+  public void push(int value)
+  {
+    if (size == values.length)
+    {
+      values = Arrays.copyOf(values, size * 2);
+    }
+    values[size++] = value;
+  }
+  
+  // Adds everything pushed since start, as table offsets, to the vector just started with the generated
+  // start...Vector(builder, size() - start), pops it, and ends the vector.
+  public int endOffsetVector(FlatBufferBuilder builder, int start)
+  {
+    for (int i = size - 1; i >= start; i--)
+    {
+      builder.addOffset(values[i]);
+    }
+    size = start;
+    return builder.endVector();
+  }
+  
+  // The same for a vector of ints.
+  public int endIntVector(FlatBufferBuilder builder, int start)
+  {
+    for (int i = size - 1; i >= start; i--)
+    {
+      builder.addInt(values[i]);
+    }
+    size = start;
+    return builder.endVector();
+  }
+}
+
+// Tags and sprite and model names that snapshots refer to by number instead of spelling them out. The server fills it
+// in once its level is loaded and sends it in every initialization message. Every session shares the same snapshots,
+// so it must not change after that; a name missing from it is still sent as a string. The client keeps the sprite or
+// model for each number once it has looked it up, so applying a snapshot indexes an array instead of looking up names.
+public class SessionStringTable
+{
+  // Number n is element n. Element 0 is null and stands for a name that is not in the table.
+  private ArrayList<String> tags;
+  private ArrayList<String> spriteNames;
+  private ArrayList<String> modelNames;
+  
+  private HashMap<String, Integer> tagIDs;
+  private HashMap<String, Integer> spriteIDs;
+  private HashMap<String, Integer> modelIDs;
+  
+  private ISprite[] sprites;
+  private IModel[] models;
+  
+  public SessionStringTable()
+  {
+    tags = new ArrayList<String>();
+    spriteNames = new ArrayList<String>();
+    modelNames = new ArrayList<String>();
+    
+    tagIDs = new HashMap<String, Integer>();
+    spriteIDs = new HashMap<String, Integer>();
+    modelIDs = new HashMap<String, Integer>();
+    
+    clear();
+  }
+  
+  public void clear()
+  {
+    tags.clear();
+    spriteNames.clear();
+    modelNames.clear();
+    tags.add(null);
+    spriteNames.add(null);
+    modelNames.add(null);
+    
+    tagIDs.clear();
+    spriteIDs.clear();
+    modelIDs.clear();
+    
+    sprites = new ISprite[1];
+    models = new IModel[1];
+  }
+  
+  // Server side: every sprite and model the manifests know of, and the tags of the GameObjects in the level.
+  public void fromLevel(IGameObjectManager gameObjectManager)
+  {
+    clear();
+    
+    for (IGameObject gameObject : gameObjectManager.getGameObjects().values())
+    {
+      add(tags, tagIDs, gameObject.getTag());
+    }
+    for (String spriteName : spriteManager.getSpriteNames())
+    {
+      add(spriteNames, spriteIDs, spriteName);
+    }
+    for (String modelName : modelManager.getModelNames())
+    {
+      add(modelNames, modelIDs, modelName);
+    }
+  }
+  
+  public int getTagID(String tag)
+  {
+    return getID(tagIDs, tag);
+  }
+  
+  public int getSpriteID(String spriteName)
+  {
+    return getID(spriteIDs, spriteName);
+  }
+  
+  public int getModelID(String modelName)
+  {
+    return getID(modelIDs, modelName);
+  }
+  
+  public String getTag(int tagID)
+  {
+    return tags.get(tagID);
+  }
+  
+  public ISprite getSprite(int spriteID)
+  {
+    if (sprites[spriteID] == null)
+    {
+      sprites[spriteID] = spriteManager.getSprite(spriteNames.get(spriteID));
+    }
+    return sprites[spriteID];
+  }
+  
+  public IModel getModel(int modelID)
+  {
+    if (models[modelID] == null)
+    {
+      models[modelID] = modelManager.getModel(modelNames.get(modelID));
+    }
+    return models[modelID];
+  }
+  
+  // The sprite or model a snapshot refers to, by number or, failing that, by name.
+  public ISprite resolveSprite(FlatSprite flatSprite)
+  {
+    int spriteID = flatSprite.spriteID();
+    return spriteID != 0 ? getSprite(spriteID) : spriteManager.getSprite(flatSprite.spriteName());
+  }
+  
+  public IModel resolveModel(FlatModel flatModel)
+  {
+    int modelID = flatModel.modelID();
+    return modelID != 0 ? getModel(modelID) : modelManager.getModel(flatModel.modelName());
+  }
+  
+  public int serializeTags(FlatBufferBuilder builder)
+  {
+    return FlatInitializationMessage.createTagsVector(builder, createStrings(builder, tags));
+  }
+  
+  public int serializeSpriteNames(FlatBufferBuilder builder)
+  {
+    return FlatInitializationMessage.createSpriteNamesVector(builder, createStrings(builder, spriteNames));
+  }
+  
+  public int serializeModelNames(FlatBufferBuilder builder)
+  {
+    return FlatInitializationMessage.createModelNamesVector(builder, createStrings(builder, modelNames));
+  }
+  
+  // Client side: replaces the table with the one the server sent.
+  public void deserialize(FlatInitializationMessage flatInitializationMessage)
+  {
+    clear();
+    
+    for (int i = 0; i < flatInitializationMessage.tagsLength(); i++)
+    {
+      add(tags, tagIDs, flatInitializationMessage.tags(i));
+    }
+    for (int i = 0; i < flatInitializationMessage.spriteNamesLength(); i++)
+    {
+      add(spriteNames, spriteIDs, flatInitializationMessage.spriteNames(i));
+    }
+    for (int i = 0; i < flatInitializationMessage.modelNamesLength(); i++)
+    {
+      add(modelNames, modelIDs, flatInitializationMessage.modelNames(i));
+    }
+    
+    sprites = new ISprite[spriteNames.size()];
+    models = new IModel[modelNames.size()];
+  }
+  
+  private void add(ArrayList<String> strings, HashMap<String, Integer> stringIDs, String string)
+  {
+    if (string != null && !stringIDs.containsKey(string))
+    {
+      stringIDs.put(string, strings.size());
+      strings.add(string);
+    }
+  }
+  
+  private int getID(HashMap<String, Integer> stringIDs, String string)
+  {
+    Integer stringID = stringIDs.get(string);
+    return stringID != null ? stringID : 0;
+  }
+  
+  // Leaves out the unused element 0.
+  private int[] createStrings(FlatBufferBuilder builder, ArrayList<String> strings)
+  {
+    int[] flatStrings = new int[strings.size() - 1];
+    for (int i = 1; i < strings.size(); i++)
+    {
+      flatStrings[i - 1] = builder.createString(strings.get(i));
+    }
+    return flatStrings;
+  }
+}
+
 public class GameObject implements IGameObject
 {
   private int UID;
@@ -156,65 +552,206 @@ public class GameObject implements IGameObject
   
   @Override public int serialize(FlatBufferBuilder builder)
   {
-    int tagOffset = builder.createString(tag);
-    
-    ArrayList<Integer> flatComponentsArrayList = new ArrayList<Integer>();
-    
-    for (int i = 0; i < components.size(); i++)
+    return serialize(builder, 0);
+  }
+  
+  @Override public int serialize(FlatBufferBuilder builder, int unchangedMask)
+  {
+    int tagID = 0;
+    int tagOffset = 0;
+    if ((unchangedMask & UNCHANGED_TAG) == 0)
     {
-      if (components.get(i) instanceof INetworkComponent)
+      tagID = sessionStrings.getTagID(tag);
+      if (tagID == 0)
       {
-        flatComponentsArrayList.add(((INetworkComponent)components.get(i)).serialize(builder));
+        tagOffset = createCachedString(builder, tag);
       }
     }
     
-    int[] flatComponents = new int[flatComponentsArrayList.size()];
-    for (int i = 0; i < flatComponentsArrayList.size(); i++)
+    int flatComponentsVector = 0;
+    if ((unchangedMask & UNCHANGED_COMPONENT_CONFIG) == 0)
     {
-      flatComponents[i] = flatComponentsArrayList.get(i);
+      flatComponentsVector = serializeComponents(builder);
     }
     
-    int flatComponentsVector = FlatGameObject.createComponentTablesVector(builder, flatComponents);
+    // A spawn's component tables already hold the current state.
+    boolean sendComponentStates = (unchangedMask & UNCHANGED_COMPONENT_STATES) == 0 && (unchangedMask & UNCHANGED_COMPONENT_CONFIG) != 0;
+    
+    int flatComponentStatesVector = 0;
+    if (sendComponentStates)
+    {
+      flatComponentStatesVector = serializeComponentStates(builder);
+    }
     
     FlatGameObject.startFlatGameObject(builder);
     FlatGameObject.addUid(builder, UID);
-    FlatGameObject.addTag(builder, tagOffset);
-    FlatGameObject.addTranslation(builder, FlatVec3.createFlatVec3(builder, translation.x, translation.y, translation.z));
-    FlatGameObject.addRotation(builder, FlatVec3.createFlatVec3(builder, rotation.x, rotation.y, rotation.z));
-    FlatGameObject.addScale(builder, FlatVec3.createFlatVec3(builder, scale.x, scale.y, scale.z));
-    FlatGameObject.addComponentTables(builder, flatComponentsVector);
+    if (tagID != 0)
+    {
+      FlatGameObject.addTagID(builder, tagID);
+    }
+    else if ((unchangedMask & UNCHANGED_TAG) == 0)
+    {
+      FlatGameObject.addTag(builder, tagOffset);
+    }
+    if ((unchangedMask & UNCHANGED_TRANSLATION) == 0)
+    {
+      if (USE_QUANTIZED_TRANSFORMS)
+      {
+        FlatGameObject.addQuantizedTranslation(builder, createQuantizedPosition(builder, translation));
+      }
+      else
+      {
+        FlatGameObject.addTranslation(builder, FlatVec3.createFlatVec3(builder, translation.x, translation.y, translation.z));
+      }
+    }
+    if ((unchangedMask & UNCHANGED_ROTATION) == 0)
+    {
+      if (USE_QUANTIZED_TRANSFORMS)
+      {
+        FlatGameObject.addQuantizedRotation(builder, createQuantizedAngles(builder, rotation));
+      }
+      else
+      {
+        FlatGameObject.addRotation(builder, FlatVec3.createFlatVec3(builder, rotation.x, rotation.y, rotation.z));
+      }
+    }
+    if ((unchangedMask & UNCHANGED_SCALE) == 0)
+    {
+      FlatGameObject.addScale(builder, FlatVec3.createFlatVec3(builder, scale.x, scale.y, scale.z));
+    }
+    if ((unchangedMask & UNCHANGED_COMPONENT_CONFIG) == 0)
+    {
+      FlatGameObject.addComponentTables(builder, flatComponentsVector);
+    }
+    if (sendComponentStates)
+    {
+      FlatGameObject.addComponentStates(builder, flatComponentStatesVector);
+    }
+    FlatGameObject.addUnchangedMask(builder, unchangedMask);
     
     return FlatGameObject.endFlatGameObject(builder);
   }
   
+  @Override public int serializeComponents(FlatBufferBuilder builder)
+  {
+    int flatComponentsStart = flatOffsets.size();
+    
+    for (int i = 0; i < components.size(); i++)
+    {
+      if (components.get(i) instanceof INetworkComponent)
+      {
+        flatOffsets.push(((INetworkComponent)components.get(i)).serialize(builder));
+      }
+    }
+    
+    FlatGameObject.startComponentTablesVector(builder, flatOffsets.size() - flatComponentsStart);
+    return flatOffsets.endOffsetVector(builder, flatComponentsStart);
+  }
+  
+  @Override public int serializeComponentStates(FlatBufferBuilder builder)
+  {
+    int flatComponentStatesStart = flatOffsets.size();
+    
+    for (int i = 0; i < components.size(); i++)
+    {
+      if (components.get(i) instanceof INetworkComponent)
+      {
+        int flatComponentState = ((INetworkComponent)components.get(i)).serializeState(builder);
+        if (flatComponentState != 0)
+        {
+          flatOffsets.push(flatComponentState);
+        }
+      }
+    }
+    
+    FlatGameObject.startComponentStatesVector(builder, flatOffsets.size() - flatComponentStatesStart);
+    return flatOffsets.endOffsetVector(builder, flatComponentStatesStart);
+  }
+  
   @Override public void deserialize(FlatGameObject flatGameObject)
   {
-    destroy();
+    int unchangedMask = flatGameObject.unchangedMask();
     
     UID = flatGameObject.uid();
-    tag = flatGameObject.tag();
     
-    FlatVec3 flatTranslation = flatGameObject.translation();
-    translation = new PVector(flatTranslation.x(), flatTranslation.y(), flatTranslation.z());
+    if ((unchangedMask & UNCHANGED_TAG) == 0)
+    {
+      int tagID = flatGameObject.tagID();
+      tag = tagID != 0 ? sessionStrings.getTag(tagID) : flatGameObject.tag();
+    }
+    
+    if ((unchangedMask & UNCHANGED_TRANSLATION) == 0)
+    {
+      getFlatTranslation(flatGameObject, translation);
+    }
+    
+    if ((unchangedMask & UNCHANGED_ROTATION) == 0)
+    {
+      getFlatRotation(flatGameObject, rotation);
+    }
     
-    FlatVec3 flatRotation = flatGameObject.rotation();
-    rotation = new PVector(flatRotation.x(), flatRotation.y(), flatRotation.z());
+    if ((unchangedMask & UNCHANGED_SCALE) == 0)
+    {
+      FlatVec3 flatScale = flatGameObject.scale();
+      scale.set(flatScale.x(), flatScale.y(), flatScale.z());
+    }
     
-    FlatVec3 flatScale = flatGameObject.scale();
-    scale = new PVector(flatScale.x(), flatScale.y(), flatScale.z());
+    if ((unchangedMask & UNCHANGED_COMPONENT_CONFIG) == 0)
+    {
+      // A full snapshot resends the configuration of GameObjects the client already has. Load it into the existing
+      // components when they are still the same kinds, and only rebuild them when they are not.
+      if (componentsMatch(flatGameObject))
+      {
+        for (int i = 0; i < flatGameObject.componentTablesLength(); ++i)
+        {
+          ((INetworkComponent)components.get(i)).deserialize(getFlatComponentTable(flatGameObject.componentTables(i)));
+        }
+      }
+      else
+      {
+        destroy();
+        
+        for (int i = 0; i < flatGameObject.componentTablesLength(); ++i)
+        {
+          FlatComponentTable flatComponentTable = flatGameObject.componentTables(i);
+          components.add(deserializeComponent(this, flatComponentTable));
+        }
+      }
+    }
     
-    for (int i = 0; i < flatGameObject.componentTablesLength(); ++i)
+    if ((unchangedMask & UNCHANGED_COMPONENT_STATES) == 0)
     {
-      FlatComponentTable flatComponentTable = flatGameObject.componentTables(i);
-      components.add(deserializeComponent(this, flatComponentTable));
+      for (int i = 0; i < flatGameObject.componentStatesLength(); ++i)
+      {
+        deserializeComponentState(this, flatGameObject.componentStates(i));
+      }
     }
   }
   
-  @Override public int getUID()
+  private boolean componentsMatch(FlatGameObject flatGameObject)
   {
-    return UID;
-  }
-  
+    if (components.size() != flatGameObject.componentTablesLength())
+    {
+      return false;
+    }
+    
+    for (int i = 0; i < components.size(); i++)
+    {
+      if (!(components.get(i) instanceof INetworkComponent)
+        || components.get(i).getComponentType() != flatComponentTypeToComponentType(flatGameObject.componentTables(i).componentType()))
+      {
+        return false;
+      }
+    }
+    
+    return true;
+  }
+  
+  @Override public int getUID()
+  {
+    return UID;
+  }
+  
   @Override public IGameObjectManager getGameObjectManager()
   {
     return owner;
@@ -277,11 +814,12 @@ public class GameObject implements IGameObject
   
   @Override public IComponent getComponent(ComponentType componentType)
   {
-    for (IComponent component : components)
+    // Called for every shared GameObject every frame, so without an iterator.
+    for (int i = 0; i < components.size(); i++)
     {
-      if (component.getComponentType() == componentType)
+      if (components.get(i).getComponentType() == componentType)
       {
-        return component;
+        return components.get(i);
       }
     }
     
@@ -326,17 +864,577 @@ public class GameObject implements IGameObject
   }
 }
 
+// Remembers the last sent state of one GameObject and the tick at which each part of it last changed, so that delta
+// snapshots can leave out whatever a client's baseline already has.
+public class GameObjectChangeRecord
+{
+  public int createdTick;
+  
+  private int tagChangedTick;
+  private int translationChangedTick;
+  private int rotationChangedTick;
+  private int scaleChangedTick;
+  private int componentStatesChangedTick;
+  
+  private String tag;
+  private PVector translation;
+  private PVector rotation;
+  private PVector scale;
+  private long componentStatesChecksum;
+  
+  public GameObjectChangeRecord(IGameObject gameObject, int tick, long _componentStatesChecksum)
+  {
+    createdTick = tick;
+    
+    tagChangedTick = tick;
+    translationChangedTick = tick;
+    rotationChangedTick = tick;
+    scaleChangedTick = tick;
+    componentStatesChangedTick = tick;
+    
+    tag = gameObject.getTag();
+    translation = gameObject.getTranslation().copy();
+    rotation = gameObject.getRotation().copy();
+    scale = gameObject.getScale().copy();
+    componentStatesChecksum = _componentStatesChecksum;
+  }
+  
+  public void update(IGameObject gameObject, int tick, long _componentStatesChecksum)
+  {
+    if (!gameObject.getTag().equals(tag))
+    {
+      tag = gameObject.getTag();
+      tagChangedTick = tick;
+    }
+    
+    if (differs(translation, gameObject.getTranslation()))
+    {
+      translation.set(gameObject.getTranslation());
+      translationChangedTick = tick;
+    }
+    
+    if (differs(rotation, gameObject.getRotation()))
+    {
+      rotation.set(gameObject.getRotation());
+      rotationChangedTick = tick;
+    }
+    
+    if (differs(scale, gameObject.getScale()))
+    {
+      scale.set(gameObject.getScale());
+      scaleChangedTick = tick;
+    }
+    
+    if (componentStatesChecksum != _componentStatesChecksum)
+    {
+      componentStatesChecksum = _componentStatesChecksum;
+      componentStatesChangedTick = tick;
+    }
+  }
+  
+  public int getUnchangedMask(int baselineTick)
+  {
+    // Component configuration never changes after spawning, so only a spawn (mask 0) carries it.
+    int unchangedMask = UNCHANGED_COMPONENT_CONFIG;
+    
+    if (tagChangedTick <= baselineTick)
+    {
+      unchangedMask |= UNCHANGED_TAG;
+    }
+    if (translationChangedTick <= baselineTick)
+    {
+      unchangedMask |= UNCHANGED_TRANSLATION;
+    }
+    if (rotationChangedTick <= baselineTick)
+    {
+      unchangedMask |= UNCHANGED_ROTATION;
+    }
+    if (scaleChangedTick <= baselineTick)
+    {
+      unchangedMask |= UNCHANGED_SCALE;
+    }
+    if (componentStatesChangedTick <= baselineTick)
+    {
+      unchangedMask |= UNCHANGED_COMPONENT_STATES;
+    }
+    
+    return unchangedMask;
+  }
+  
+  private boolean differs(PVector last, PVector current)
+  {
+    return last.x != current.x || last.y != current.y || last.z != current.z;
+  }
+}
+
+// What one ViewInterest knows about one GameObject. Kept while the GameObject is out of view as well, so that crossing
+// a border and back reuses it rather than allocating.
+public class InterestEntry
+{
+  public Integer UID;
+  
+  // Both -1 when not set. leftTick is only the latest time the GameObject left, while the manager can still delta from it.
+  public int enteredTick;
+  public int leftTick;
+  
+  public InterestEntry(Integer _UID)
+  {
+    UID = _UID;
+    enteredTick = -1;
+    leftTick = -1;
+  }
+}
+
+// The set of GameObjects that overlap one client view, and the tick at which each entered or left it. Clients that
+// show the same rectangle share one ViewInterest.
+public class ViewInterest
+{
+  private float left;
+  private float right;
+  private float bottom;
+  private float top;
+  
+  // Every sent GameObject that has been in view, keyed by the UID the manager boxed. leftEntries are the ones with a
+  // leftTick, in no particular order.
+  private HashMap<Integer, InterestEntry> entries;
+  private ArrayList<InterestEntry> leftEntries;
+  
+  public ViewInterest(float _left, float _right, float _bottom, float _top)
+  {
+    left = _left;
+    right = _right;
+    bottom = _bottom;
+    top = _top;
+    
+    entries = new HashMap<Integer, InterestEntry>();
+    leftEntries = new ArrayList<InterestEntry>();
+  }
+  
+  public boolean hasView(float _left, float _right, float _bottom, float _top)
+  {
+    return left == _left && right == _right && bottom == _bottom && top == _top;
+  }
+  
+  // Call once per snapshot tick, after IGameObjectManager.advanceSnapshotTick(). Only allocates the first time a
+  // GameObject comes into view.
+  public void update(IGameObjectManager gameObjectManager, int tick)
+  {
+    HashMap<Integer, IGameObject> gameObjects = gameObjectManager.getGameObjects();
+    ArrayList<IGameObject> gameObjectList = gameObjectManager.getGameObjectList();
+    ArrayList<Integer> UIDList = gameObjectManager.getUIDList();
+    int trackedCount = 0;
+    
+    for (int i = 0; i < gameObjectList.size(); i++)
+    {
+      IGameObject gameObject = gameObjectList.get(i);
+      
+      if (gameObject.getSend())
+      {
+        Integer UID = UIDList.get(i);
+        InterestEntry entry = entries.get(UID);
+        boolean interested = entry != null && entry.enteredTick >= 0;
+        
+        if (!interested && overlaps(gameObject, 0.0f))
+        {
+          if (entry == null)
+          {
+            entry = new InterestEntry(UID);
+            entries.put(UID, entry);
+          }
+          entry.enteredTick = tick;
+        }
+        else if (interested && !overlaps(gameObject, INTEREST_HYSTERESIS_MARGIN))
+        {
+          if (entry.leftTick < 0)
+          {
+            leftEntries.add(entry);
+          }
+          entry.enteredTick = -1;
+          entry.leftTick = tick;
+        }
+        
+        if (entry != null)
+        {
+          trackedCount++;
+        }
+      }
+    }
+    
+    // Removed GameObjects are already covered by the manager's own removal history. Only ones that are gone or no
+    // longer sent can make entries bigger than the count above.
+    if (entries.size() > trackedCount)
+    {
+      Iterator<Integer> trackedUIDs = entries.keySet().iterator();
+      while (trackedUIDs.hasNext())
+      {
+        IGameObject gameObject = gameObjects.get(trackedUIDs.next());
+        if (gameObject == null || !gameObject.getSend())
+        {
+          trackedUIDs.remove();
+        }
+      }
+    }
+    
+    for (int i = leftEntries.size() - 1; i >= 0; i--)
+    {
+      InterestEntry entry = leftEntries.get(i);
+      if (!gameObjectManager.canDeltaFrom(entry.leftTick))
+      {
+        entry.leftTick = -1;
+        leftEntries.set(i, leftEntries.get(leftEntries.size() - 1));
+        leftEntries.remove(leftEntries.size() - 1);
+      }
+    }
+  }
+  
+  // Both take the UID already boxed, as the GameObjects map holds it, so a lookup for every GameObject in every
+  // snapshot does not box it again.
+  public boolean contains(Integer UID)
+  {
+    return getEnteredTick(UID) >= 0;
+  }
+  
+  // Returns -1 if the GameObject is not in this view.
+  public int getEnteredTick(Integer UID)
+  {
+    InterestEntry entry = entries.get(UID);
+    if (entry == null)
+    {
+      return -1;
+    }
+    return entry.enteredTick;
+  }
+  
+  public void addLeftSince(int baselineTick, IntStack UIDs)
+  {
+    for (int i = 0; i < leftEntries.size(); i++)
+    {
+      if (leftEntries.get(i).leftTick > baselineTick)
+      {
+        UIDs.push(leftEntries.get(i).UID);
+      }
+    }
+  }
+  
+  // GameObjects have no explicit bounds, so the scale is taken as the size of the box around the translation.
+  private boolean overlaps(IGameObject gameObject, float margin)
+  {
+    PVector translation = gameObject.getTranslation();
+    PVector scale = gameObject.getScale();
+    float halfWidth = abs(scale.x) / 2.0f;
+    float halfHeight = abs(scale.y) / 2.0f;
+    
+    return translation.x + halfWidth >= left - margin
+      && translation.x - halfWidth <= right + margin
+      && translation.y + halfHeight >= bottom - margin
+      && translation.y - halfHeight <= top + margin;
+  }
+}
+
+// The authoritative transforms of every shared GameObject as of one server timestamp. Samples are recycled, so each
+// owns its PVectors and they are written over in place.
+public class InterpolationSample
+{
+  public long serverTime;
+  public HashMap<Integer, PVector> translations;
+  public HashMap<Integer, PVector> rotations;
+  
+  public InterpolationSample()
+  {
+    serverTime = 0;
+    translations = new HashMap<Integer, PVector>();
+    rotations = new HashMap<Integer, PVector>();
+  }
+  
+  // The sample's own PVectors for a GameObject, added the first time it is seen.
+  public PVector getTranslation(Integer UID)
+  {
+    return getTransform(translations, UID);
+  }
+  
+  public PVector getRotation(Integer UID)
+  {
+    return getTransform(rotations, UID);
+  }
+  
+  private PVector getTransform(HashMap<Integer, PVector> transforms, Integer UID)
+  {
+    PVector transform = transforms.get(UID);
+    if (transform == null)
+    {
+      transform = new PVector();
+      transforms.put(UID, transform);
+    }
+    return transform;
+  }
+  
+  // A recycled sample still holds the GameObjects it had last time. Only ones that are gone need dropping, and
+  // only then can there be more transforms than GameObjects.
+  public void removeMissing(HashMap<Integer, IGameObject> gameObjects)
+  {
+    if (translations.size() > gameObjects.size())
+    {
+      translations.keySet().retainAll(gameObjects.keySet());
+    }
+    if (rotations.size() > gameObjects.size())
+    {
+      rotations.keySet().retainAll(gameObjects.keySet());
+    }
+  }
+}
+
+// Keeps the recently applied world snapshots by server timestamp and, every frame, moves the shared GameObjects to
+// where they were INTERPOLATION_DELAY milliseconds ago. This way the client can render smoothly at its own frame rate
+// while the server ticks much slower.
+public class SnapshotInterpolationBuffer
+{
+  // Oldest first. Never more than MAX_INTERPOLATION_SAMPLES, so removing from the front is cheap.
+  private ArrayList<InterpolationSample> samples;
+  
+  // Samples that have been dropped, for the next snapshots to reuse.
+  private ArrayList<InterpolationSample> spareSamples;
+  
+  // Read into for each GameObject in a snapshot, rather than allocating an accessor for every one.
+  private FlatGameObject flatGameObject;
+  
+  // Estimate of server clock minus client clock. Taken from the least delayed snapshots seen.
+  private long clockOffset;
+  private boolean clockOffsetKnown;
+  
+  public SnapshotInterpolationBuffer()
+  {
+    samples = new ArrayList<InterpolationSample>();
+    spareSamples = new ArrayList<InterpolationSample>();
+    flatGameObject = new FlatGameObject();
+    clockOffset = 0;
+    clockOffsetKnown = false;
+  }
+  
+  public void clear()
+  {
+    while (!samples.isEmpty())
+    {
+      removeOldestSample();
+    }
+    clockOffsetKnown = false;
+  }
+  
+  // Call right after gameObjectManager.deserialize(flatGameWorld). Delta snapshots leave unchanged transforms out,
+  // so those are carried over from the previous sample rather than read back from the GameObjects, which hold
+  // interpolated values.
+  public void addSnapshot(long serverTime, FlatGameWorld flatGameWorld, IGameObjectManager gameObjectManager)
+  {
+    long offset = serverTime - System.currentTimeMillis();
+    if (!clockOffsetKnown || offset > clockOffset)
+    {
+      clockOffset = offset;
+      clockOffsetKnown = true;
+    }
+    else
+    {
+      // Drift slowly toward later samples so that a clock change or a lasting rise in latency is picked up.
+      clockOffset += (offset - clockOffset) / 20;
+    }
+    
+    if (!samples.isEmpty() && serverTime <= getLatestSample().serverTime)
+    {
+      return;
+    }
+    
+    // The oldest sample goes before the new one is taken, so that a full buffer recycles it straight away.
+    if (samples.size() >= MAX_INTERPOLATION_SAMPLES)
+    {
+      removeOldestSample();
+    }
+    
+    InterpolationSample previous = getLatestSample();
+    InterpolationSample sample = spareSamples.isEmpty() ? new InterpolationSample() : spareSamples.remove(spareSamples.size() - 1);
+    sample.serverTime = serverTime;
+    
+    // Start every GameObject from the previous sample, then overwrite what the snapshot changed.
+    ArrayList<IGameObject> gameObjectList = gameObjectManager.getGameObjectList();
+    ArrayList<Integer> UIDList = gameObjectManager.getUIDList();
+    for (int i = 0; i < gameObjectList.size(); i++)
+    {
+      Integer UID = UIDList.get(i);
+      IGameObject gameObject = gameObjectList.get(i);
+      
+      PVector previousTranslation = previous != null ? previous.translations.get(UID) : null;
+      PVector previousRotation = previous != null ? previous.rotations.get(UID) : null;
+      sample.getTranslation(UID).set(previousTranslation != null ? previousTranslation : gameObject.getTranslation());
+      sample.getRotation(UID).set(previousRotation != null ? previousRotation : gameObject.getRotation());
+    }
+    sample.removeMissing(gameObjectManager.getGameObjects());
+    
+    for (int i = 0; i < flatGameWorld.gameObjectsLength(); i++)
+    {
+      flatGameWorld.gameObjects(flatGameObject, i);
+      int unchangedMask = flatGameObject.unchangedMask();
+      Integer UID = flatGameObject.uid();
+      
+      if ((unchangedMask & UNCHANGED_TRANSLATION) == 0)
+      {
+        getFlatTranslation(flatGameObject, sample.getTranslation(UID));
+      }
+      if ((unchangedMask & UNCHANGED_ROTATION) == 0)
+      {
+        PVector rotation = getFlatRotation(flatGameObject, sample.getRotation(UID));
+        PVector previousRotation = previous != null ? previous.rotations.get(UID) : null;
+        if (previousRotation != null && flatGameObject.quantizedRotation() != null)
+        {
+          unwrapAngles(rotation, previousRotation);
+        }
+      }
+    }
+    
+    samples.add(sample);
+  }
+  
+  // The translation from the newest snapshot, without interpolation. Null if the GameObject has not been seen. Only
+  // valid until the next snapshot, since samples are reused.
+  public PVector getLatestTranslation(int UID)
+  {
+    if (samples.isEmpty())
+    {
+      return null;
+    }
+    return getLatestSample().translations.get(UID);
+  }
+  
+  // Call every frame before rendering.
+  public void apply(IGameObjectManager gameObjectManager, int deltaTime)
+  {
+    if (samples.isEmpty())
+    {
+      return;
+    }
+    
+    long renderTime = System.currentTimeMillis() + clockOffset - INTERPOLATION_DELAY;
+    
+    // Drop samples that are no longer needed on the older side of the rendered time.
+    while (samples.size() > 2 && samples.get(1).serverTime <= renderTime)
+    {
+      removeOldestSample();
+    }
+    
+    InterpolationSample from;
+    InterpolationSample to;
+    float t;
+    
+    if (samples.size() == 1)
+    {
+      from = samples.get(0);
+      to = from;
+      t = 0.0f;
+    }
+    else if (renderTime <= samples.get(1).serverTime)
+    {
+      from = samples.get(0);
+      to = samples.get(1);
+      t = constrain((float)(renderTime - from.serverTime) / (float)(to.serverTime - from.serverTime), 0.0f, 1.0f);
+    }
+    else
+    {
+      // Out of snapshots: extrapolate along the last two, for a limited time.
+      from = samples.get(samples.size() - 2);
+      to = getLatestSample();
+      long extrapolationTime = Math.min(renderTime - to.serverTime, (long)MAX_EXTRAPOLATION);
+      t = 1.0f + (float)extrapolationTime / (float)(to.serverTime - from.serverTime);
+    }
+    
+    // The GameObjects' own PVectors are moved in place; the samples' are never handed out to them.
+    ArrayList<IGameObject> gameObjectList = gameObjectManager.getGameObjectList();
+    ArrayList<Integer> UIDList = gameObjectManager.getUIDList();
+    for (int i = 0; i < gameObjectList.size(); i++)
+    {
+      Integer UID = UIDList.get(i);
+      IGameObject gameObject = gameObjectList.get(i);
+      
+      PVector toTranslation = to.translations.get(UID);
+      if (toTranslation == null)
+      {
+        continue;
+      }
+      PVector fromTranslation = from.translations.get(UID);
+      PVector toRotation = to.rotations.get(UID);
+      PVector fromRotation = from.rotations.get(UID);
+      
+      interpolate(gameObject.getTranslation(), fromTranslation, toTranslation, t);
+      interpolate(gameObject.getRotation(), fromRotation, toRotation, t);
+      
+      // Only the render state follows; the rest of a shared GameObject's components belong to the server.
+      IComponent renderComponent = gameObject.getComponent(ComponentType.RENDER);
+      if (renderComponent != null)
+      {
+        renderComponent.update(deltaTime);
+      }
+    }
+  }
+  
+  private void interpolate(PVector target, PVector from, PVector to, float t)
+  {
+    if (from == null)
+    {
+      target.set(to);
+    }
+    else
+    {
+      target.set(from).lerp(to, t);
+    }
+  }
+  
+  private InterpolationSample getLatestSample()
+  {
+    return samples.isEmpty() ? null : samples.get(samples.size() - 1);
+  }
+  
+  private void removeOldestSample()
+  {
+    spareSamples.add(samples.remove(0));
+  }
+}
+
 public class GameObjectManager implements IGameObjectManager
 {
   private HashMap<Integer, IGameObject> gameObjects;
   private ArrayList<IGameObject> addList;
   private ArrayList<Integer> removeList;
   
+  // gameObjects as parallel lists, rebuilt on the next request after anything is added or removed. A HashMap iterator
+  // is not reliably optimized away, and snapshots walk every GameObject once per view every tick.
+  private ArrayList<IGameObject> gameObjectList;
+  private ArrayList<Integer> UIDList;
+  private boolean gameObjectListsStale;
+  
+  // Delta snapshot bookkeeping. Only used by the side that sends snapshots.
+  private int snapshotTick;
+  private HashMap<Integer, GameObjectChangeRecord> changeRecords;
+  private ArrayList<Integer> removedUIDs;
+  private ArrayList<Integer> removedTicks;
+  private FlatBufferBuilder checksumBuilder;
+  private CRC32 checksum;
+  
+  // The UIDs in the full snapshot being applied. Only used by the side that receives snapshots.
+  private HashSet<Integer> fullSnapshotUIDs;
+  
   public GameObjectManager()
   {
     gameObjects = new HashMap<Integer, IGameObject>();
     addList = new ArrayList<IGameObject>();
     removeList = new ArrayList<Integer>();
+    
+    gameObjectList = new ArrayList<IGameObject>();
+    UIDList = new ArrayList<Integer>();
+    gameObjectListsStale = false;
+    
+    snapshotTick = 0;
+    changeRecords = new HashMap<Integer, GameObjectChangeRecord>();
+    removedUIDs = new ArrayList<Integer>();
+    removedTicks = new ArrayList<Integer>();
+    checksumBuilder = null;
+    checksum = new CRC32();
+    
+    fullSnapshotUIDs = new HashSet<Integer>();
   }
   
   @Override public void fromXML(String fileName)
@@ -392,48 +1490,261 @@ public class GameObjectManager implements IGameObjectManager
       gameObject.fromXML(xmlGameObject.getString("file"));
       gameObjects.put(gameObject.getUID(), gameObject);
     }
+    gameObjectListsStale = true;
   }
   
   @Override public int serialize(FlatBufferBuilder builder)
   {
-    ArrayList<Integer> flatGameObjectsList = new ArrayList<Integer>();
+    return serialize(builder, -1);
+  }
+  
+  @Override public int serialize(FlatBufferBuilder builder, int baselineTick)
+  {
+    return serialize(builder, baselineTick, null);
+  }
+  
+  @Override public int serialize(FlatBufferBuilder builder, int baselineTick, ViewInterest interest)
+  {
+    if (!canDeltaFrom(baselineTick))
+    {
+      baselineTick = -1;
+    }
     
-    for (Map.Entry entry : gameObjects.entrySet())
+    int flatGameObjectsStart = flatOffsets.size();
+    
+    // Lookups use the map's own boxed UIDs, since boxing UIDs past the Integer cache would allocate.
+    ArrayList<IGameObject> gameObjectList = getGameObjectList();
+    ArrayList<Integer> UIDList = getUIDList();
+    for (int i = 0; i < gameObjectList.size(); i++)
     {
-      IGameObject gameObject = (IGameObject)entry.getValue();
+      IGameObject gameObject = gameObjectList.get(i);
+      Integer UID = UIDList.get(i);
       
-      if (gameObject.getSend())
+      if (gameObject.getSend() && (interest == null || interest.contains(UID)))
       {
-        flatGameObjectsList.add(gameObject.serialize(builder));
+        GameObjectChangeRecord changeRecord = changeRecords.get(UID);
+        
+        if (baselineTick == -1 || changeRecord == null || changeRecord.createdTick > baselineTick
+          || (interest != null && interest.getEnteredTick(UID) > baselineTick))
+        {
+          flatOffsets.push(gameObject.serialize(builder));
+        }
+        else
+        {
+          int unchangedMask = changeRecord.getUnchangedMask(baselineTick);
+          if (unchangedMask != UNCHANGED_ALL)
+          {
+            flatOffsets.push(gameObject.serialize(builder, unchangedMask));
+          }
+        }
       }
     }
     
-    int[] flatGameObjects = new int[flatGameObjectsList.size()];
-    for (int i = 0; i < flatGameObjectsList.size(); i++)
+    FlatGameWorld.startGameObjectsVector(builder, flatOffsets.size() - flatGameObjectsStart);
+    int flatGameObjectsVector = flatOffsets.endOffsetVector(builder, flatGameObjectsStart);
+    
+    int flatRemovedUIDsVector = 0;
+    if (baselineTick != -1)
     {
-      flatGameObjects[i] = flatGameObjectsList.get(i);
+      int removedSinceBaselineStart = flatOffsets.size();
+      for (int i = 0; i < removedUIDs.size(); i++)
+      {
+        if (removedTicks.get(i) > baselineTick)
+        {
+          flatOffsets.push(removedUIDs.get(i));
+        }
+      }
+      if (interest != null)
+      {
+        interest.addLeftSince(baselineTick, flatOffsets);
+      }
+      
+      FlatGameWorld.startRemovedUidsVector(builder, flatOffsets.size() - removedSinceBaselineStart);
+      flatRemovedUIDsVector = flatOffsets.endIntVector(builder, removedSinceBaselineStart);
     }
     
-    int flatGameObjectsVector = FlatGameWorld.createGameObjectsVector(builder, flatGameObjects);
-    
     FlatGameWorld.startFlatGameWorld(builder);
     FlatGameWorld.addGameObjects(builder, flatGameObjectsVector);
+    FlatGameWorld.addTick(builder, snapshotTick);
+    FlatGameWorld.addBaselineTick(builder, baselineTick);
+    if (baselineTick != -1)
+    {
+      FlatGameWorld.addRemovedUids(builder, flatRemovedUIDsVector);
+    }
     
     return FlatGameWorld.endFlatGameWorld(builder);
   }
   
   @Override public void deserialize(FlatGameWorld flatGameWorld)
   {
-    clearGameObjects();
+    if (flatGameWorld.baselineTick() == -1)
+    {
+      // A full snapshot lists every GameObject, so only the ones missing from it are gone. The rest are updated in place
+      // below rather than rebuilt.
+      fullSnapshotUIDs.clear();
+      for (int i = 0; i < flatGameWorld.gameObjectsLength(); i++)
+      {
+        fullSnapshotUIDs.add(flatGameWorld.gameObjects(i).uid());
+      }
+      
+      Iterator<Map.Entry<Integer, IGameObject>> iterator = gameObjects.entrySet().iterator();
+      while (iterator.hasNext())
+      {
+        Map.Entry<Integer, IGameObject> entry = iterator.next();
+        if (!fullSnapshotUIDs.contains(entry.getKey()))
+        {
+          entry.getValue().destroy();
+          iterator.remove();
+          gameObjectListsStale = true;
+        }
+      }
+    }
+    else
+    {
+      for (int i = 0; i < flatGameWorld.removedUidsLength(); i++)
+      {
+        IGameObject gameObject = gameObjects.remove(flatGameWorld.removedUids(i));
+        if (gameObject != null)
+        {
+          gameObject.destroy();
+          gameObjectListsStale = true;
+        }
+      }
+    }
     
     for (int i = 0; i < flatGameWorld.gameObjectsLength(); i++)
     {
       FlatGameObject flatGameObject = flatGameWorld.gameObjects(i);
-      IGameObject gameObject = new GameObject(this, flatGameObject);
-      gameObjects.put(gameObject.getUID(), gameObject);
+      IGameObject gameObject = gameObjects.get(flatGameObject.uid());
+      
+      if (gameObject != null)
+      {
+        gameObject.deserialize(flatGameObject);
+      }
+      else if (flatGameObject.unchangedMask() == 0)
+      {
+        gameObject = new GameObject(this, flatGameObject);
+        gameObjects.put(gameObject.getUID(), gameObject);
+        gameObjectListsStale = true;
+      }
+      else
+      {
+        println("Delta snapshot changes unknown GameObject " + flatGameObject.uid() + ".");
+      }
     }
   }
   
+  @Override public int advanceSnapshotTick()
+  {
+    snapshotTick++;
+    
+    ArrayList<IGameObject> gameObjectList = getGameObjectList();
+    ArrayList<Integer> UIDList = getUIDList();
+    int sentCount = 0;
+    for (int i = 0; i < gameObjectList.size(); i++)
+    {
+      IGameObject gameObject = gameObjectList.get(i);
+      
+      if (gameObject.getSend())
+      {
+        long componentStatesChecksum = getComponentStatesChecksum(gameObject);
+        GameObjectChangeRecord changeRecord = changeRecords.get(UIDList.get(i));
+        
+        if (changeRecord == null)
+        {
+          changeRecords.put(UIDList.get(i), new GameObjectChangeRecord(gameObject, snapshotTick, componentStatesChecksum));
+        }
+        else
+        {
+          changeRecord.update(gameObject, snapshotTick, componentStatesChecksum);
+        }
+        sentCount++;
+      }
+    }
+    
+    // Every sent GameObject has a record now, so there are stale ones only if there are more records than that.
+    if (changeRecords.size() > sentCount)
+    {
+      Iterator<Integer> recordedUIDs = changeRecords.keySet().iterator();
+      while (recordedUIDs.hasNext())
+      {
+        Integer UID = recordedUIDs.next();
+        IGameObject gameObject = gameObjects.get(UID);
+        
+        if (gameObject == null || !gameObject.getSend())
+        {
+          removedUIDs.add(UID);
+          removedTicks.add(snapshotTick);
+          recordedUIDs.remove();
+        }
+      }
+    }
+    
+    while (removedTicks.size() > 0 && !canDeltaFrom(removedTicks.get(0)))
+    {
+      removedUIDs.remove(0);
+      removedTicks.remove(0);
+    }
+    
+    return snapshotTick;
+  }
+  
+  @Override public ArrayList<IGameObject> getGameObjectList()
+  {
+    refreshGameObjectLists();
+    return gameObjectList;
+  }
+  
+  @Override public ArrayList<Integer> getUIDList()
+  {
+    refreshGameObjectLists();
+    return UIDList;
+  }
+  
+  private void refreshGameObjectLists()
+  {
+    if (gameObjectListsStale)
+    {
+      gameObjectList.clear();
+      UIDList.clear();
+      for (Map.Entry<Integer, IGameObject> entry : gameObjects.entrySet())
+      {
+        gameObjectList.add(entry.getValue());
+        UIDList.add(entry.getKey());
+      }
+      gameObjectListsStale = false;
+    }
+  }
+  
+  @Override public int getSnapshotTick()
+  {
+    return snapshotTick;
+  }
+  
+  @Override public boolean canDeltaFrom(int baselineTick)
+  {
+    return baselineTick > 0 && baselineTick <= snapshotTick && snapshotTick - baselineTick < SNAPSHOT_HISTORY_LENGTH;
+  }
+  
+  // Component state has no cheap equality, so compare a checksum of its serialized form from tick to tick.
+  private long getComponentStatesChecksum(IGameObject gameObject)
+  {
+    if (checksumBuilder == null)
+    {
+      checksumBuilder = new FlatBufferBuilder(1024);
+    }
+    else
+    {
+      checksumBuilder.init(checksumBuilder.dataBuffer());
+    }
+    
+    checksumBuilder.finish(gameObject.serializeComponentStates(checksumBuilder));
+    
+    checksum.reset();
+    checksum.update(checksumBuilder.dataBuffer());
+    return checksum.getValue();
+  }
+  
   @Override public void update(int deltaTime)
   {
     for (Map.Entry entry : gameObjects.entrySet())
@@ -445,6 +1756,7 @@ public class GameObjectManager implements IGameObjectManager
     for (IGameObject gameObject : addList)
     {
       gameObjects.put(gameObject.getUID(), gameObject);
+      gameObjectListsStale = true;
     }
     for (Integer UID : removeList)
     {
@@ -452,6 +1764,7 @@ public class GameObjectManager implements IGameObjectManager
       if (gameObject != null) 
       {
         gameObject.destroy();
+        gameObjectListsStale = true;
       }
     }
     
@@ -511,6 +1824,7 @@ public class GameObjectManager implements IGameObjectManager
       gameObject.destroy();
     }
     gameObjects.clear();
+    gameObjectListsStale = true;
   }
   
   @Override public String toString()
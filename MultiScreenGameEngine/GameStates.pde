@@ -82,6 +82,10 @@ public class GameState_ChooseClientServerState extends GameState
       {
         gameStateController.pushState(new GameState_ClientState());
       }
+      else if (key == 'b')
+      {
+        gameStateController.pushState(new GameState_LoadTestState());
+      }
     }
   }
   
@@ -90,17 +94,126 @@ public class GameState_ChooseClientServerState extends GameState
   }
 }
 
+// What the server keeps of a session that disconnected, so that the screen can reconnect where it left off.
+public class ResumableSession
+{
+  public int clientID;
+  public int acknowledgedTick;
+  public ViewInterest viewInterest;
+  public int disconnectTime;
+  
+  public ResumableSession(int _clientID, int _acknowledgedTick, ViewInterest _viewInterest, int _disconnectTime)
+  {
+    clientID = _clientID;
+    acknowledgedTick = _acknowledgedTick;
+    viewInterest = _viewInterest;
+    disconnectTime = _disconnectTime;
+  }
+}
+
+// The last paddle input sequence the server applied for a client ID, and the millis() when it started being applied.
+public class AppliedInput
+{
+  public int clientID;
+  public int sequence;
+  public int appliedTime;
+  
+  public AppliedInput(int _clientID, int _sequence, int _appliedTime)
+  {
+    clientID = _clientID;
+    sequence = _sequence;
+    appliedTime = _appliedTime;
+  }
+}
+
+// Sessions that show the same view and acknowledge the same baseline tick, so they all get the same snapshot.
+public class SessionGroup
+{
+  public ViewInterest viewInterest;
+  public int baselineTick;
+  public ArrayList<Integer> sessionIDs;
+  
+  public SessionGroup()
+  {
+    viewInterest = null;
+    baselineTick = -1;
+    sessionIDs = new ArrayList<Integer>();
+  }
+}
+
 public class GameState_ServerState extends GameState implements IServerCallbackHandler
 {
-  private int nextClientID;
   private int physicsTime;
   
+  // The last snapshot tick each session has acknowledged applying, or -1 if it still needs a full snapshot.
+  private HashMap<Integer, Integer> acknowledgedTicks;
+  
+  // The keys of acknowledgedTicks, so that every tick can walk the sessions without an iterator. Marked stale wherever
+  // a session is added or removed and rebuilt by the next groupSessions(). Both guarded by acknowledgedTicks.
+  private ArrayList<Integer> sessionIDs;
+  private boolean sessionIDsStale;
+  
+  // The inputs applied for each client ID. Only touched on the main thread. A list, since there are only a couple of
+  // clients and every snapshot walks it.
+  private ArrayList<AppliedInput> appliedInputs;
+  
+  // Client IDs handed to a new, not resumed, session since the last update. That screen starts counting its input
+  // sequences again from 0, so the last sequence applied for the ID is forgotten. Guarded by acknowledgedTicks.
+  private ArrayList<Integer> restartedClientIDs;
+  
+  // The client ID handed to each session, for input that arrives without a message header. Guarded by
+  // acknowledgedTicks.
+  private HashMap<Integer, Integer> sessionClientIDs;
+  
+  // What each session's screen shows. Sessions that have not reported a view yet are sent the whole world.
+  // Guarded by acknowledgedTicks like the map above, since client messages may arrive on other threads.
+  private HashMap<Integer, ViewInterest> sessionViews;
+  private ArrayList<ViewInterest> viewInterests;
+  
+  // The resume token last given to each session, and the sessions that disconnected within SESSION_RESUME_TIMEOUT by
+  // that token. A resumable session keeps its view interest up to date, so a delta from its baseline stays valid.
+  // Both guarded by acknowledgedTicks.
+  private HashMap<Integer, Integer> sessionResumeTokens;
+  private HashMap<Integer, ResumableSession> resumableSessions;
+  private SecureRandom resumeTokenGenerator;
+  
+  private NetworkImpairmentProxy impairmentProxy;
+  
+  // Reused for every snapshot. What serializeWorld() returns points into it, so it is only valid until the next call.
+  private FlatBufferBuilder snapshotBuilder;
+  
+  // The sessions that get each snapshot. Only the first sessionGroupCount are in use. Rebuilt every tick by
+  // groupSessions(), which empties the groups from the last tick and refills them rather than allocating new ones.
+  // There are only a few distinct views and baselines, so a list is searched rather than keyed by both.
+  private ArrayList<SessionGroup> sessionGroups;
+  private int sessionGroupCount;
+  
+  // How long each update takes in microseconds, printed and cleared every NETWORK_METRICS_LOG_INTERVAL.
+  private MetricHistogram tickTimes;
+  private int lastTickReportTime;
+  
   public GameState_ServerState()
   {
     super();
     
-    nextClientID = 1;
     physicsTime = 0;
+    acknowledgedTicks = new HashMap<Integer, Integer>();
+    sessionViews = new HashMap<Integer, ViewInterest>();
+    viewInterests = new ArrayList<ViewInterest>();
+    sessionIDs = new ArrayList<Integer>();
+    sessionIDsStale = false;
+    appliedInputs = new ArrayList<AppliedInput>();
+    restartedClientIDs = new ArrayList<Integer>();
+    sessionClientIDs = new HashMap<Integer, Integer>();
+    sessionResumeTokens = new HashMap<Integer, Integer>();
+    resumableSessions = new HashMap<Integer, ResumableSession>();
+    resumeTokenGenerator = new SecureRandom();
+    impairmentProxy = null;
+    snapshotBuilder = null;
+    sessionGroups = new ArrayList<SessionGroup>();
+    sessionGroupCount = 0;
+    tickTimes = new MetricHistogram();
+    lastTickReportTime = millis();
   }
   
   @Override public void onEnter()
@@ -110,12 +223,31 @@ public class GameState_ServerState extends GameState implements IServerCallbackH
     //sharedGameObjectManager.fromXML("levels/box_example/shared_level.xml");
     //sharedGameObjectManager.fromXML("levels/pong/small_level.xml");
     
-    mainServer = new MSServer(this);
+    // Before any client connects, since every initialization message carries it.
+    sessionStrings.fromLevel(sharedGameObjectManager);
+    
+    if (USE_SELECTOR_SERVER)
+    {
+      mainServer = new MSSelectorServer(this);
+    }
+    else
+    {
+      mainServer = new MSServer(this);
+    }
     mainServer.begin();
+    
+    if (USE_IMPAIRMENT_PROXY)
+    {
+      impairmentProxy = new NetworkImpairmentProxy(IMPAIRMENT_PROXY_PORT, MAIN_SERVER_IP, MAIN_SERVER_PORT, IMPAIRMENT_SEED);
+      impairmentProxy.loadScript(IMPAIRMENT_SCRIPT);
+      impairmentProxy.begin();
+    }
   }
   
   @Override public void update(int deltaTime)
   {
+    long startTime = System.nanoTime();
+    
     physicsTime += deltaTime;
     while (physicsTime >= 30)
     {
@@ -123,27 +255,158 @@ public class GameState_ServerState extends GameState implements IServerCallbackH
       physicsTime -= 30;
     }
     
+    synchronized(acknowledgedTicks)
+    {
+      for (int i = 0; i < restartedClientIDs.size(); i++)
+      {
+        AppliedInput appliedInput = getAppliedInput(restartedClientIDs.get(i));
+        if (appliedInput != null)
+        {
+          appliedInputs.remove(appliedInput);
+        }
+      }
+      restartedClientIDs.clear();
+    }
+    
+    // These are the same events the paddle controllers apply during this update.
+    for (IEvent event : eventManager.getEvents(EventType.CLIENT_PADDLE_CONTROLS))
+    {
+      int clientID = event.getRequiredIntParameter("clientID");
+      int sequence = event.getRequiredIntParameter("sequence");
+      AppliedInput appliedInput = getAppliedInput(clientID);
+      if (appliedInput == null)
+      {
+        appliedInputs.add(new AppliedInput(clientID, sequence, millis()));
+      }
+      else if (appliedInput.sequence != sequence)
+      {
+        appliedInput.sequence = sequence;
+        appliedInput.appliedTime = millis();
+      }
+    }
+    
     sharedGameObjectManager.update(deltaTime);
     scene.render();
     mainServer.update();
     sendWorldToAllClients();
+    
+    tickTimes.record((System.nanoTime() - startTime) / 1000);
+    if (NETWORK_METRICS_LOG_INTERVAL > 0 && millis() - lastTickReportTime >= NETWORK_METRICS_LOG_INTERVAL)
+    {
+      int sessionCount;
+      synchronized(acknowledgedTicks)
+      {
+        sessionCount = acknowledgedTicks.size();
+      }
+      
+      println("Server tick us with " + sessionCount + " sessions: " + tickTimes.getSummary());
+      tickTimes.clear();
+      lastTickReportTime = millis();
+    }
   }
   
   @Override public void onExit()
   {
     sharedGameObjectManager.clearGameObjects();
+    
+    if (impairmentProxy != null)
+    {
+      impairmentProxy.end();
+      impairmentProxy = null;
+    }
+    
     mainServer.end();
     mainServer = null;
   }
   
-  @Override public ByteBuffer getNewClientInitializationMessage()
+  @Override public ByteBuffer getNewClientInitializationMessage(int sessionID, int resumeToken)
   {
-    FlatBufferBuilder builder = new FlatBufferBuilder(0);
+    int clientID;
+    boolean resumed;
+    int newResumeToken;
+    int staleSessionID = -1;
+    
+    synchronized(acknowledgedTicks)
+    {
+      ResumableSession resumableSession = resumableSessions.remove(resumeToken);
+      
+      // After a brief drop the screen is often back before the server has noticed its old connection die, so the
+      // session it wants to resume is still live. Take that session over.
+      if (resumableSession == null && resumeToken != 0)
+      {
+        staleSessionID = getSessionByResumeToken(resumeToken);
+        if (staleSessionID != -1)
+        {
+          resumableSession = takeOverSession(staleSessionID);
+        }
+      }
+      
+      resumed = resumableSession != null;
+      
+      if (resumed)
+      {
+        // The next snapshot is a delta from the last one the screen acknowledged, if that is still in the history.
+        clientID = resumableSession.clientID;
+        acknowledgedTicks.put(sessionID, resumableSession.acknowledgedTick);
+        if (resumableSession.viewInterest != null)
+        {
+          sessionViews.put(sessionID, resumableSession.viewInterest);
+        }
+      }
+      else
+      {
+        clientID = claimClientID();
+        acknowledgedTicks.put(sessionID, -1);
+        restartedClientIDs.add(clientID);
+      }
+      
+      sessionClientIDs.put(sessionID, clientID);
+      sessionIDsStale = true;
+      newResumeToken = createResumeToken();
+      sessionResumeTokens.put(sessionID, newResumeToken);
+    }
+    
+    // Its state has moved to the new session, so the disconnect this causes finds nothing left to keep.
+    if (staleSessionID != -1)
+    {
+      mainServer.disconnect(staleSessionID);
+    }
+    
+    // The legacy server calls this on its own threads, so it cannot share the main thread's scratch space.
+    FlatBufferBuilder builder = new FlatBufferBuilder(1024);
+    
+    // Tell the client which paddles it moves, so that it can predict them.
+    IntStack flatControlledPaddles = new IntStack(4);
+    for (Map.Entry<Integer, IGameObject> entry : sharedGameObjectManager.getGameObjects().entrySet())
+    {
+      IComponent component = entry.getValue().getComponent(ComponentType.SERVER_PADDLE_CONTROLLER);
+      if (component != null)
+      {
+        ServerPaddleControllerComponent serverPaddleControllerComponent = (ServerPaddleControllerComponent)component;
+        if (serverPaddleControllerComponent.getClientID() == clientID)
+        {
+          flatControlledPaddles.push(FlatControlledPaddle.createFlatControlledPaddle(builder, entry.getKey(),
+            serverPaddleControllerComponent.getDirection(), serverPaddleControllerComponent.getSpeed()));
+        }
+      }
+    }
+    
+    FlatInitializationMessage.startControlledPaddlesVector(builder, flatControlledPaddles.size());
+    int flatControlledPaddlesVector = flatControlledPaddles.endOffsetVector(builder, 0);
+    
+    int flatTagsVector = sessionStrings.serializeTags(builder);
+    int flatSpriteNamesVector = sessionStrings.serializeSpriteNames(builder);
+    int flatModelNamesVector = sessionStrings.serializeModelNames(builder);
     
     FlatInitializationMessage.startFlatInitializationMessage(builder);
-    FlatInitializationMessage.addClientID(builder, nextClientID);
+    FlatInitializationMessage.addClientID(builder, clientID);
+    FlatInitializationMessage.addControlledPaddles(builder, flatControlledPaddlesVector);
+    FlatInitializationMessage.addResumeToken(builder, newResumeToken);
+    FlatInitializationMessage.addResumed(builder, resumed);
+    FlatInitializationMessage.addTags(builder, flatTagsVector);
+    FlatInitializationMessage.addSpriteNames(builder, flatSpriteNamesVector);
+    FlatInitializationMessage.addModelNames(builder, flatModelNamesVector);
     int flatInitializationMessageOffset = FlatInitializationMessage.endFlatInitializationMessage(builder);
-    nextClientID++;
     
     FlatMessageHeader.startFlatMessageHeader(builder);
     FlatMessageHeader.addTimeStamp(builder, System.currentTimeMillis());
@@ -163,7 +426,7 @@ public class GameState_ServerState extends GameState implements IServerCallbackH
     return builder.dataBuffer();
   }
   
-  @Override public void handleClientMessage(ByteBuffer clientMessage)
+  @Override public void handleClientMessage(int sessionID, ByteBuffer clientMessage)
   {
     FlatMessage flatServerMessage = FlatMessage.getRootAsFlatMessage(clientMessage);
     
@@ -179,23 +442,330 @@ public class GameState_ServerState extends GameState implements IServerCallbackH
       
       IEvent event = new Event(EventType.CLIENT_PADDLE_CONTROLS);
       event.addIntParameter("clientID", clientID);
-      event.addBooleanParameter("leftButtonDown", flatPaddleControllerState.leftButtonDown());
-      event.addBooleanParameter("rightButtonDown", flatPaddleControllerState.rightButtonDown());
-      event.addBooleanParameter("upButtonDown", flatPaddleControllerState.upButtonDown());
-      event.addBooleanParameter("downButtonDown", flatPaddleControllerState.downButtonDown());
-      event.addBooleanParameter("wButtonDown", flatPaddleControllerState.wButtonDown());
-      event.addBooleanParameter("aButtonDown", flatPaddleControllerState.aButtonDown());
-      event.addBooleanParameter("sButtonDown", flatPaddleControllerState.sButtonDown());
-      event.addBooleanParameter("dButtonDown", flatPaddleControllerState.dButtonDown());
+      event.addIntParameter("buttonMask", getPaddleButtonMask(
+        flatPaddleControllerState.upButtonDown(),
+        flatPaddleControllerState.downButtonDown(),
+        flatPaddleControllerState.leftButtonDown(),
+        flatPaddleControllerState.rightButtonDown(),
+        flatPaddleControllerState.wButtonDown(),
+        flatPaddleControllerState.aButtonDown(),
+        flatPaddleControllerState.sButtonDown(),
+        flatPaddleControllerState.dButtonDown()));
+      event.addIntParameter("sequence", flatPaddleControllerState.sequence());
       eventManager.queueEvent(event);
     }
+    else if (bodyType == FlatMessageBodyUnion.FlatSnapshotAck)
+    {
+      FlatSnapshotAck flatSnapshotAck = (FlatSnapshotAck)bodyTable.body(new FlatSnapshotAck());
+      
+      synchronized(acknowledgedTicks)
+      {
+        if (acknowledgedTicks.containsKey(sessionID) && flatSnapshotAck.tick() > acknowledgedTicks.get(sessionID))
+        {
+          acknowledgedTicks.put(sessionID, flatSnapshotAck.tick());
+        }
+      }
+    }
+    else if (bodyType == FlatMessageBodyUnion.FlatClientView)
+    {
+      FlatClientView flatClientView = (FlatClientView)bodyTable.body(new FlatClientView());
+      
+      synchronized(acknowledgedTicks)
+      {
+        if (acknowledgedTicks.containsKey(sessionID))
+        {
+          setSessionView(sessionID, flatClientView.left(), flatClientView.right(), flatClientView.bottom(), flatClientView.top());
+        }
+      }
+    }
+  }
+  
+  @Override public void handleClientInput(int sessionID, int sequence, int buttonMask)
+  {
+    Integer clientID;
+    synchronized(acknowledgedTicks)
+    {
+      clientID = sessionClientIDs.get(sessionID);
+    }
+    
+    if (clientID == null)
+    {
+      return;
+    }
+    
+    IEvent event = new Event(EventType.CLIENT_PADDLE_CONTROLS);
+    event.addIntParameter("clientID", clientID);
+    event.addIntParameter("buttonMask", buttonMask);
+    event.addIntParameter("sequence", sequence);
+    eventManager.queueEvent(event);
   }
   
+  @Override public void handleClientDisconnect(int sessionID)
+  {
+    synchronized(acknowledgedTicks)
+    {
+      Integer acknowledgedTick = acknowledgedTicks.remove(sessionID);
+      sessionIDsStale = true;
+      Integer clientID = sessionClientIDs.remove(sessionID);
+      Integer resumeToken = sessionResumeTokens.remove(sessionID);
+      
+      if (acknowledgedTick != null && clientID != null && resumeToken != null)
+      {
+        resumableSessions.put(resumeToken, new ResumableSession(clientID, acknowledgedTick, sessionViews.get(sessionID), millis()));
+      }
+      
+      removeSessionView(sessionID);
+    }
+  }
+  
+  // Must hold the acknowledgedTicks lock. Returns -1 if no connected session was given the token.
+  private int getSessionByResumeToken(int resumeToken)
+  {
+    for (Map.Entry<Integer, Integer> entry : sessionResumeTokens.entrySet())
+    {
+      if (entry.getValue() == resumeToken)
+      {
+        return entry.getKey();
+      }
+    }
+    return -1;
+  }
+  
+  // Must hold the acknowledgedTicks lock. Detaches a connected session's state, as handleClientDisconnect() would, and
+  // returns it for another session to resume.
+  private ResumableSession takeOverSession(int sessionID)
+  {
+    int acknowledgedTick = acknowledgedTicks.remove(sessionID);
+    sessionIDsStale = true;
+    int clientID = sessionClientIDs.remove(sessionID);
+    sessionResumeTokens.remove(sessionID);
+    ViewInterest viewInterest = sessionViews.remove(sessionID);
+    
+    return new ResumableSession(clientID, acknowledgedTick, viewInterest, millis());
+  }
+  
+  // Must hold the acknowledgedTicks lock. The lowest client ID that no connected or resumable session holds, so that a
+  // screen which left for good frees its layout for the next one.
+  private int claimClientID()
+  {
+    HashSet<Integer> usedClientIDs = new HashSet<Integer>(sessionClientIDs.values());
+    for (ResumableSession resumableSession : resumableSessions.values())
+    {
+      usedClientIDs.add(resumableSession.clientID);
+    }
+    
+    int clientID = 1;
+    while (usedClientIDs.contains(clientID))
+    {
+      clientID++;
+    }
+    return clientID;
+  }
+  
+  // Must hold the acknowledgedTicks lock. Never 0, which is what a client sends when it has no token.
+  private int createResumeToken()
+  {
+    int resumeToken = 0;
+    while (resumeToken == 0 || resumableSessions.containsKey(resumeToken))
+    {
+      resumeToken = resumeTokenGenerator.nextInt();
+    }
+    return resumeToken;
+  }
+  
+  // Must hold the acknowledgedTicks lock.
+  private void expireResumableSessions()
+  {
+    // Called every tick, and there is usually nothing to expire.
+    if (resumableSessions.isEmpty())
+    {
+      return;
+    }
+    
+    Iterator<Map.Entry<Integer, ResumableSession>> iterator = resumableSessions.entrySet().iterator();
+    
+    while (iterator.hasNext())
+    {
+      ResumableSession resumableSession = iterator.next().getValue();
+      
+      if (millis() - resumableSession.disconnectTime >= SESSION_RESUME_TIMEOUT)
+      {
+        iterator.remove();
+        
+        if (resumableSession.viewInterest != null && !isViewInUse(resumableSession.viewInterest))
+        {
+          viewInterests.remove(resumableSession.viewInterest);
+        }
+      }
+    }
+  }
+  
+  // Must hold the acknowledgedTicks lock.
+  private void setSessionView(int sessionID, float left, float right, float bottom, float top)
+  {
+    removeSessionView(sessionID);
+    
+    ViewInterest viewInterest = null;
+    for (ViewInterest existingViewInterest : viewInterests)
+    {
+      if (existingViewInterest.hasView(left, right, bottom, top))
+      {
+        viewInterest = existingViewInterest;
+      }
+    }
+    
+    if (viewInterest == null)
+    {
+      viewInterest = new ViewInterest(left, right, bottom, top);
+      viewInterests.add(viewInterest);
+    }
+    
+    sessionViews.put(sessionID, viewInterest);
+    
+    // The session's baseline was filtered for another view, so it needs a full snapshot of the new one.
+    acknowledgedTicks.put(sessionID, -1);
+    sessionIDsStale = true;
+  }
+  
+  // Must hold the acknowledgedTicks lock.
+  private void removeSessionView(int sessionID)
+  {
+    ViewInterest viewInterest = sessionViews.remove(sessionID);
+    
+    if (viewInterest != null && !isViewInUse(viewInterest))
+    {
+      viewInterests.remove(viewInterest);
+    }
+  }
+  
+  // Must hold the acknowledgedTicks lock.
+  private boolean isViewInUse(ViewInterest viewInterest)
+  {
+    if (sessionViews.containsValue(viewInterest))
+    {
+      return true;
+    }
+    
+    for (ResumableSession resumableSession : resumableSessions.values())
+    {
+      if (resumableSession.viewInterest == viewInterest)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  // Sessions that show the same view and acknowledge the same baseline get the same snapshot, so one message is
+  // built per distinct pair. Sessions whose baseline is unknown or too old for the history get a full snapshot.
   private void sendWorldToAllClients()
   {
-    FlatBufferBuilder builder = new FlatBufferBuilder(0);
+    int tick = sharedGameObjectManager.advanceSnapshotTick();
     
-    int flatGameWorld = sharedGameObjectManager.serialize(builder);
+    groupSessions(tick);
+    
+    // Both servers copy the session list before returning, so the groups can be refilled next tick.
+    for (int i = 0; i < sessionGroupCount; i++)
+    {
+      SessionGroup group = sessionGroups.get(i);
+      mainServer.writeUnreliable(group.sessionIDs, serializeWorld(group.baselineTick, group.viewInterest));
+    }
+  }
+  
+  private void groupSessions(int tick)
+  {
+    for (int i = 0; i < sessionGroupCount; i++)
+    {
+      sessionGroups.get(i).sessionIDs.clear();
+    }
+    sessionGroupCount = 0;
+    
+    synchronized(acknowledgedTicks)
+    {
+      expireResumableSessions();
+      
+      for (int i = 0; i < viewInterests.size(); i++)
+      {
+        viewInterests.get(i).update(sharedGameObjectManager, tick);
+      }
+      
+      if (sessionIDsStale)
+      {
+        sessionIDs.clear();
+        sessionIDs.addAll(acknowledgedTicks.keySet());
+        sessionIDsStale = false;
+      }
+      
+      for (int i = 0; i < sessionIDs.size(); i++)
+      {
+        Integer sessionID = sessionIDs.get(i);
+        int baselineTick = acknowledgedTicks.get(sessionID);
+        if (!sharedGameObjectManager.canDeltaFrom(baselineTick))
+        {
+          baselineTick = -1;
+        }
+        
+        getSessionGroup(sessionViews.get(sessionID), baselineTick).sessionIDs.add(sessionID);
+      }
+    }
+  }
+  
+  private AppliedInput getAppliedInput(int clientID)
+  {
+    for (int i = 0; i < appliedInputs.size(); i++)
+    {
+      if (appliedInputs.get(i).clientID == clientID)
+      {
+        return appliedInputs.get(i);
+      }
+    }
+    return null;
+  }
+  
+  private SessionGroup getSessionGroup(ViewInterest viewInterest, int baselineTick)
+  {
+    for (int i = 0; i < sessionGroupCount; i++)
+    {
+      SessionGroup group = sessionGroups.get(i);
+      if (group.viewInterest == viewInterest && group.baselineTick == baselineTick)
+      {
+        return group;
+      }
+    }
+    
+    if (sessionGroupCount == sessionGroups.size())
+    {
+      sessionGroups.add(new SessionGroup());
+    }
+    SessionGroup group = sessionGroups.get(sessionGroupCount);
+    group.viewInterest = viewInterest;
+    group.baselineTick = baselineTick;
+    sessionGroupCount++;
+    return group;
+  }
+  
+  private ByteBuffer serializeWorld(int baselineTick, ViewInterest viewInterest)
+  {
+    if (snapshotBuilder == null)
+    {
+      snapshotBuilder = new FlatBufferBuilder(SNAPSHOT_BUILDER_INITIAL_SIZE);
+    }
+    else
+    {
+      snapshotBuilder.init(snapshotBuilder.dataBuffer());
+    }
+    FlatBufferBuilder builder = snapshotBuilder;
+    
+    int flatGameWorld = sharedGameObjectManager.serialize(builder, baselineTick, viewInterest);
+    
+    FlatMessage.startInputSequencesVector(builder, appliedInputs.size());
+    int currentTime = millis();
+    for (int i = 0; i < appliedInputs.size(); i++)
+    {
+      AppliedInput appliedInput = appliedInputs.get(i);
+      FlatInputSequence.createFlatInputSequence(builder, appliedInput.clientID, appliedInput.sequence, currentTime - appliedInput.appliedTime);
+    }
+    int flatInputSequences = builder.endVector();
     
     FlatMessageHeader.startFlatMessageHeader(builder);
     FlatMessageHeader.addTimeStamp(builder, System.currentTimeMillis());
@@ -209,48 +779,60 @@ public class GameState_ServerState extends GameState implements IServerCallbackH
     
     FlatMessage.startFlatMessage(builder);
     FlatMessage.addHeader(builder, flatMessageHeader);
+    FlatMessage.addInputSequences(builder, flatInputSequences);
     FlatMessage.addBodyTable(builder, flatMessageBodyTable);
     FlatMessage.finishFlatMessageBuffer(builder, FlatMessage.endFlatMessage(builder));
     
-    mainServer.write(builder.dataBuffer());
+    return builder.dataBuffer();
   }
 }
 
 public class GameState_ClientState extends GameState implements IClientCallbackHandler
 {
   private int clientID;
+  private int lastAppliedSnapshotTick;
+  private SnapshotInterpolationBuffer interpolationBuffer;
+  private ClientPaddleControllerComponent paddleController;
+  
+  // Reused for every message sent to the server. write() copies the finished message, so the builder is free again as
+  // soon as sendMessage() returns.
+  private FlatBufferBuilder messageBuilder;
   
   public GameState_ClientState()
   {
     super();
     
     clientID = -1;
+    lastAppliedSnapshotTick = -1;
+    interpolationBuffer = new SnapshotInterpolationBuffer();
+    paddleController = null;
+    messageBuilder = null;
   }
   
   @Override public void onEnter()
   {
     mainClient = new MSClient(this);
-    
-    if (!mainClient.connect())
-    {
-      println("Exiting.");
-      exit();
-    }
+    mainClient.connect();
   }
   
   @Override public void update(int deltaTime)
   {
-    if (mainClient != null && mainClient.isConnected())
-    {
-      mainClient.update();
-    }
+    mainClient.update();
     
     localGameObjectManager.update(deltaTime);
     
-    synchronized(sharedGameObjectManager)
+    // Server messages are handed over by mainClient.update() above, so nothing else touches the shared GameObjects.
+    interpolationBuffer.apply(sharedGameObjectManager, deltaTime);
+    if (paddleController != null)
+    {
+      paddleController.applyPrediction(sharedGameObjectManager, interpolationBuffer, deltaTime);
+    }
+    scene.render();
+    
+    if (mainClient.isConnecting())
     {
-      scene.render();
-    } //<>//
+      renderConnectingMessage();
+    }
   }
   
   @Override public void onExit()
@@ -275,16 +857,51 @@ public class GameState_ClientState extends GameState implements IClientCallbackH
     {
       FlatGameWorld flatGameWorld = (FlatGameWorld)bodyTable.body(new FlatGameWorld());
       
-      synchronized(sharedGameObjectManager)
+      // Snapshots may arrive late or out of order over UDP. A delta is only usable on top of the baseline it was
+      // built from, and anything at or before the last applied tick is stale.
+      if (flatGameWorld.tick() <= lastAppliedSnapshotTick || flatGameWorld.baselineTick() > lastAppliedSnapshotTick)
       {
-        sharedGameObjectManager.deserialize(flatGameWorld);
+        return;
+      }
+      
+      sharedGameObjectManager.deserialize(flatGameWorld);
+      interpolationBuffer.addSnapshot(flatServerMessage.header().timeStamp(), flatGameWorld, sharedGameObjectManager);
+      
+      lastAppliedSnapshotTick = flatGameWorld.tick();
+      sendSnapshotAck();
+      
+      if (paddleController != null)
+      {
+        for (int i = 0; i < flatServerMessage.inputSequencesLength(); i++)
+        {
+          FlatInputSequence flatInputSequence = flatServerMessage.inputSequences(i);
+          if (flatInputSequence.clientID() == clientID)
+          {
+            paddleController.reconcile(flatInputSequence.sequence(), flatInputSequence.appliedFor());
+          }
+        }
       }
     }
     else if (bodyType == FlatMessageBodyUnion.FlatInitializationMessage)
     {
       FlatInitializationMessage flatInitializationMessage = (FlatInitializationMessage)bodyTable.body(new FlatInitializationMessage());
       
+      mainClient.setResumeToken(flatInitializationMessage.resumeToken());
+      sessionStrings.deserialize(flatInitializationMessage);
+      
+      // A resumed session keeps its client ID, level and snapshot baseline, so only a new one starts over.
+      if (flatInitializationMessage.resumed() && flatInitializationMessage.clientID() == clientID)
+      {
+        println("Resumed the session as client " + clientID + ".");
+        return;
+      }
+      
       clientID = flatInitializationMessage.clientID();
+      lastAppliedSnapshotTick = -1;
+      interpolationBuffer.clear();
+      
+      // Every reconnect brings a new initialization message, possibly with a different client ID.
+      localGameObjectManager.clearGameObjects();
       
       switch (clientID)
       {
@@ -309,9 +926,17 @@ public class GameState_ClientState extends GameState implements IClientCallbackH
           assert(false);
       }
       
+      paddleController = findPaddleController();
+      if (paddleController != null)
+      {
+        paddleController.setControlledPaddles(flatInitializationMessage);
+      }
+      
       IEvent event = new Event(EventType.CLIENT_ID_SET);
       event.addIntParameter("clientID", clientID);
       eventManager.queueEvent(event);
+      
+      sendClientView();
     }
   }
   
@@ -319,8 +944,545 @@ public class GameState_ClientState extends GameState implements IClientCallbackH
   {
     return clientID;
   }
+  
+  // Drawn in screen coordinates over whatever the scene shows. The scene's camera is applied again next frame.
+  private void renderConnectingMessage()
+  {
+    camera();
+    perspective();
+    hint(DISABLE_DEPTH_TEST);
+    
+    textAlign(CENTER, CENTER);
+    fill(0);
+    text("Connecting to server...", width / 2, height / 2);
+    
+    hint(ENABLE_DEPTH_TEST);
+  }
+  
+  private ClientPaddleControllerComponent findPaddleController()
+  {
+    for (Map.Entry<Integer, IGameObject> entry : localGameObjectManager.getGameObjects().entrySet())
+    {
+      IComponent component = entry.getValue().getComponent(ComponentType.CLIENT_PADDLE_CONTROLLER);
+      if (component != null)
+      {
+        return (ClientPaddleControllerComponent)component;
+      }
+    }
+    return null;
+  }
+  
+  // Tells the server which part of the world the camera loaded with this client's level shows, so that it is only
+  // sent the GameObjects there.
+  private void sendClientView()
+  {
+    IOrthographicCamera camera = scene.getOrthographicCamera();
+    PVector position = camera.getPosition();
+    
+    FlatBufferBuilder builder = getMessageBuilder();
+    
+    int flatClientView = FlatClientView.createFlatClientView(builder,
+      position.x + min(camera.getLeft(), camera.getRight()),
+      position.x + max(camera.getLeft(), camera.getRight()),
+      position.y + min(camera.getBottom(), camera.getTop()),
+      position.y + max(camera.getBottom(), camera.getTop()));
+    
+    sendMessage(builder, FlatMessageBodyUnion.FlatClientView, flatClientView);
+  }
+  
+  private void sendSnapshotAck()
+  {
+    FlatBufferBuilder builder = getMessageBuilder();
+    
+    int flatSnapshotAck = FlatSnapshotAck.createFlatSnapshotAck(builder, lastAppliedSnapshotTick);
+    
+    sendMessage(builder, FlatMessageBodyUnion.FlatSnapshotAck, flatSnapshotAck);
+  }
+  
+  private FlatBufferBuilder getMessageBuilder()
+  {
+    if (messageBuilder == null)
+    {
+      messageBuilder = new FlatBufferBuilder(128);
+    }
+    else
+    {
+      messageBuilder.init(messageBuilder.dataBuffer());
+    }
+    return messageBuilder;
+  }
+  
+  private void sendMessage(FlatBufferBuilder builder, byte bodyType, int body)
+  {
+    FlatMessageHeader.startFlatMessageHeader(builder);
+    FlatMessageHeader.addTimeStamp(builder, System.currentTimeMillis());
+    FlatMessageHeader.addClientID(builder, clientID);
+    int flatMessageHeader = FlatMessageHeader.endFlatMessageHeader(builder);
+    
+    FlatMessageBodyTable.startFlatMessageBodyTable(builder);
+    FlatMessageBodyTable.addBodyType(builder, bodyType);
+    FlatMessageBodyTable.addBody(builder, body);
+    int flatMessageBodyTable = FlatMessageBodyTable.endFlatMessageBodyTable(builder);
+    
+    FlatMessage.startFlatMessage(builder);
+    FlatMessage.addHeader(builder, flatMessageHeader);
+    FlatMessage.addBodyTable(builder, flatMessageBodyTable);
+    FlatMessage.finishFlatMessageBuffer(builder, FlatMessage.endFlatMessage(builder));
+    
+    mainClient.write(builder.dataBuffer());
+  }
 } //<>//
 
+// Connects a growing number of headless LoadTestBots to the server to find how many screens it can drive. One network
+// thread polls every bot and the game loop hands them their messages, without rendering anything. The server prints
+// its own tick times every NETWORK_METRICS_LOG_INTERVAL, to be read alongside the reports printed here for each step.
+public class GameState_LoadTestState extends GameState implements INetworkPoller
+{
+  // Only bots[0] to bots[botCount - 1] are polled, so a bot is fully connected before the network thread sees it.
+  private LoadTestBot[] bots;
+  private volatile int botCount;
+  private NetworkThread networkThread;
+  
+  private MetricHistogram snapshotLatencies;
+  private Random random;
+  
+  private int stepStartTime;
+  private long stepStartBytesSent;
+  private long stepStartBytesReceived;
+  private long stepStartSnapshots;
+  
+  public GameState_LoadTestState()
+  {
+    super();
+    
+    bots = new LoadTestBot[LOAD_TEST_MAX_BOTS];
+    botCount = 0;
+    networkThread = null;
+    
+    snapshotLatencies = new MetricHistogram();
+    random = new Random(LOAD_TEST_SEED);
+  }
+  
+  @Override public void onEnter()
+  {
+    frameRate(60);
+    
+    networkThread = new NetworkThread(this, "Load test network");
+    networkThread.start();
+    
+    addBots();
+  }
+  
+  @Override public void update(int deltaTime)
+  {
+    for (int i = 0; i < botCount; i++)
+    {
+      bots[i].update();
+    }
+    
+    if (millis() - stepStartTime >= LOAD_TEST_STEP_INTERVAL)
+    {
+      reportStep();
+      addBots();
+    }
+  }
+  
+  @Override public void onExit()
+  {
+    networkThread.stop();
+    networkThread = null;
+    
+    for (int i = 0; i < botCount; i++)
+    {
+      bots[i].disconnect();
+    }
+    botCount = 0;
+  }
+  
+  @Override public boolean pollNetwork()
+  {
+    boolean busy = false;
+    int count = botCount;
+    
+    for (int i = 0; i < count; i++)
+    {
+      MSClient client = bots[i].getClient();
+      if (client.isConnected())
+      {
+        busy |= client.pollNetwork();
+      }
+    }
+    
+    return busy;
+  }
+  
+  // Nothing wakes this thread when a bot's server sends something, so it polls them again after a short sleep.
+  @Override public void awaitNetwork()
+  {
+    LockSupport.parkNanos(NETWORK_THREAD_IDLE_SLEEP * 1000000L);
+  }
+  
+  @Override public void wakeNetwork()
+  {
+  }
+  
+  private void addBots()
+  {
+    int targetCount = min(botCount + LOAD_TEST_BOT_STEP, LOAD_TEST_MAX_BOTS);
+    
+    // Bots connect in the background, and are only polled once they have.
+    while (botCount < targetCount)
+    {
+      LoadTestBot bot = new LoadTestBot(snapshotLatencies, random.nextLong());
+      bot.connect();
+      
+      bots[botCount] = bot;
+      botCount++;
+    }
+    
+    stepStartTime = millis();
+    stepStartBytesSent = 0;
+    stepStartBytesReceived = 0;
+    stepStartSnapshots = 0;
+    for (int i = 0; i < botCount; i++)
+    {
+      ConnectionMetrics metrics = bots[i].getClient().getMetrics();
+      stepStartBytesSent += metrics.getBytesSent();
+      stepStartBytesReceived += metrics.getBytesReceived();
+      stepStartSnapshots += bots[i].getSnapshotsReceived();
+    }
+    snapshotLatencies.clear();
+  }
+  
+  private void reportStep()
+  {
+    int connectedCount = 0;
+    int connectingCount = 0;
+    long bytesSent = 0;
+    long bytesReceived = 0;
+    long snapshots = 0;
+    MetricHistogram roundTripTimes = new MetricHistogram();
+    
+    for (int i = 0; i < botCount; i++)
+    {
+      ConnectionMetrics metrics = bots[i].getClient().getMetrics();
+      bytesSent += metrics.getBytesSent();
+      bytesReceived += metrics.getBytesReceived();
+      snapshots += bots[i].getSnapshotsReceived();
+      
+      if (bots[i].getClient().isConnected())
+      {
+        connectedCount++;
+        roundTripTimes.record(metrics.getRoundTripTimes().getPercentile(0.5f));
+      }
+      else if (bots[i].getClient().isConnecting())
+      {
+        connectingCount++;
+      }
+    }
+    
+    float seconds = (millis() - stepStartTime) / 1000.0;
+    int perBot = max(connectedCount, 1);
+    
+    println("Load test, " + connectedCount + " of " + botCount + " bots connected (" + connectingCount + " still connecting):"
+      + "\n  snapshot latency ms: " + snapshotLatencies.getSummary()
+      + "\n  median rtt ms across bots: " + roundTripTimes.getSummary()
+      + "\n  snapshots/s per bot: " + nf((snapshots - stepStartSnapshots) / seconds / perBot, 0, 1)
+      + "\n  received KB/s per bot: " + nf((bytesReceived - stepStartBytesReceived) / 1024.0 / seconds / perBot, 0, 2)
+      + ", in total: " + nf((bytesReceived - stepStartBytesReceived) / 1024.0 / seconds, 0, 1)
+      + "\n  sent KB/s per bot: " + nf((bytesSent - stepStartBytesSent) / 1024.0 / seconds / perBot, 0, 2));
+  }
+}
+
+// Started with a SELF_CHECK_ARGUMENT on the command line. Runs each check once, prints what it found, and exits with
+// status 1 if any check failed.
+// Allocations are counted over SELF_CHECK_MEASURED_TICKS snapshot ticks, after SELF_CHECK_WARMUP_TICKS have given the
+// JIT compiler time to remove what escape analysis can.
+public final String SELF_CHECK_ARGUMENT = "--self-check";
+public final int SELF_CHECK_WARMUP_TICKS = 5000;
+public final int SELF_CHECK_MEASURED_TICKS = 1000;
+public final int SELF_CHECK_SESSIONS = 64;
+
+public class GameState_SelfCheckState extends GameState implements IClientCallbackHandler
+{
+  private int failureCount;
+  
+  public GameState_SelfCheckState()
+  {
+    super();
+    
+    failureCount = 0;
+  }
+  
+  @Override public void onEnter()
+  {
+    checkQuantization();
+    checkSnapshotAllocations();
+    
+    println("Self check " + (failureCount == 0 ? "passed." : "failed, " + failureCount + " problem(s)."));
+  }
+  
+  @Override public void update(int deltaTime)
+  {
+    // exit() always ends with status 0, so a failed check leaves with 1 for the script that ran it to see.
+    if (failureCount > 0)
+    {
+      System.exit(1);
+    }
+    exit();
+  }
+  
+  @Override public void onExit()
+  {
+  }
+  
+  private void fail(String problem)
+  {
+    println("  FAILED: " + problem);
+    failureCount++;
+  }
+  
+  // Round trips a sweep of values through each quantizer and checks the error against the bounds documented at
+  // USE_QUANTIZED_TRANSFORMS. Angles get one float ulp of slack, since dequantizeAngle() rounds its result to a float.
+  private void checkQuantization()
+  {
+    println("Quantization:");
+    int steps = 1000000;
+    
+    float positionBound = QUANTIZED_POSITION_RANGE / 65536;
+    float positionError = 0;
+    for (int i = 0; i <= steps; i++)
+    {
+      float position = -QUANTIZED_POSITION_RANGE + (2 * QUANTIZED_POSITION_RANGE - positionBound) * i / steps;
+      positionError = max(positionError, abs(dequantizePosition(quantizePosition(position)) - position));
+    }
+    println("  position error " + positionError + ", bound " + positionBound);
+    if (positionError > positionBound)
+    {
+      fail("position error " + positionError + " is over " + positionBound);
+    }
+    
+    double angleBound = Math.PI / 65536 + Math.ulp((float)Math.PI);
+    double angleError = 0;
+    for (int i = 0; i <= steps; i++)
+    {
+      double angle = -Math.PI + (2 * Math.PI - Math.PI / 32768) * i / steps;
+      angleError = Math.max(angleError, Math.abs(dequantizeAngle(quantizeAngle((float)angle)) - (float)angle));
+    }
+    println("  angle error " + angleError + ", bound " + angleBound);
+    if (angleError > angleBound)
+    {
+      fail("angle error " + angleError + " is over " + angleBound);
+    }
+    
+    float colorError = 0;
+    for (int i = 0; i <= steps; i++)
+    {
+      float channel = 255.0 * i / steps;
+      colorError = max(colorError, abs(quantizeColorChannel(channel) - channel));
+    }
+    println("  color error " + colorError + ", bound 0.5");
+    if (colorError > 0.5)
+    {
+      fail("color error " + colorError + " is over 0.5");
+    }
+    
+    // Anything past the range lands on its nearest end.
+    float highest = dequantizePosition(Short.MAX_VALUE);
+    float lowest = dequantizePosition(Short.MIN_VALUE);
+    float[] outOfRange = { QUANTIZED_POSITION_RANGE, 2 * QUANTIZED_POSITION_RANGE, 1000000, Float.MAX_VALUE,
+      -QUANTIZED_POSITION_RANGE - 1, -2 * QUANTIZED_POSITION_RANGE, -1000000, -Float.MAX_VALUE };
+    for (int i = 0; i < outOfRange.length; i++)
+    {
+      float expected = outOfRange[i] > 0 ? highest : lowest;
+      float clamped = dequantizePosition(quantizePosition(outOfRange[i]));
+      if (clamped != expected)
+      {
+        fail("position " + outOfRange[i] + " came back as " + clamped + " rather than " + expected);
+      }
+    }
+    println("  clamped to [" + lowest + ", " + highest + "]");
+    if (lowest != -QUANTIZED_POSITION_RANGE || QUANTIZED_POSITION_RANGE - highest > 2 * positionBound)
+    {
+      fail("clamping range [" + lowest + ", " + highest + "] is not QUANTIZED_POSITION_RANGE");
+    }
+  }
+  
+  // Runs a real server on MAIN_SERVER_PORT with SELF_CHECK_SESSIONS clients connected over loopback, each quarter of
+  // them showing a different quarter of the level, and half of them a tick behind. Once they are all admitted and have
+  // said hello, the server's network thread is stopped, so that both halves of sending a snapshot run here and can be
+  // counted: sendWorldToAllClients() on the game loop and sendQueuedMessages() on the network thread. Neither may
+  // allocate while every session takes datagrams. The TCP fallback is measured afterwards and only reported, since
+  // each connection queues its own view of the frame.
+  private void checkSnapshotAllocations()
+  {
+    println("Snapshot allocations:");
+    
+    java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    if (!(threadBean instanceof com.sun.management.ThreadMXBean))
+    {
+      println("  skipped, this JVM does not count allocated bytes.");
+      return;
+    }
+    com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean)threadBean;
+    long threadID = Thread.currentThread().getId();
+    
+    // A server that has been up a while hands out UIDs past the small Integers that Java keeps boxed.
+    gameObjectNextUID = max(gameObjectNextUID, 1000);
+    
+    GameState_ServerState server = new GameState_ServerState();
+    server.onEnter();
+    MSSelectorServer selectorServer = (MSSelectorServer)mainServer;
+    
+    MSClient[] clients = new MSClient[SELF_CHECK_SESSIONS];
+    for (int i = 0; i < SELF_CHECK_SESSIONS; i++)
+    {
+      clients[i] = new MSClient(this, NetworkPollMode.EXTERNAL);
+      clients[i].connect();
+    }
+    
+    int startTime = millis();
+    while (!isEverySessionReady(server, selectorServer) && millis() - startTime < TIME_OUT_LIMIT)
+    {
+      pollClients(clients);
+      mainServer.update();
+    }
+    
+    if (!isEverySessionReady(server, selectorServer))
+    {
+      fail("only " + server.acknowledgedTicks.size() + " of " + SELF_CHECK_SESSIONS + " sessions were admitted and said hello");
+    }
+    else
+    {
+      selectorServer.networkThread.stop();
+      
+      synchronized(server.acknowledgedTicks)
+      {
+        int quarter = 0;
+        for (int sessionID : server.acknowledgedTicks.keySet())
+        {
+          float left = quarter % 2 == 0 ? -QUANTIZED_POSITION_RANGE : 0;
+          float bottom = quarter / 2 == 0 ? -QUANTIZED_POSITION_RANGE : 0;
+          server.setSessionView(sessionID, left, left + QUANTIZED_POSITION_RANGE, bottom, bottom + QUANTIZED_POSITION_RANGE);
+          quarter = (quarter + 1) % 4;
+        }
+      }
+      
+      long[] allocatedBytes = new long[2];
+      measureSnapshotTicks(server, selectorServer, clients, allocationBean, threadID, SELF_CHECK_WARMUP_TICKS, allocatedBytes);
+      measureSnapshotTicks(server, selectorServer, clients, allocationBean, threadID, SELF_CHECK_MEASURED_TICKS, allocatedBytes);
+      
+      println("  sendWorldToAllClients() bytes per tick for " + SELF_CHECK_SESSIONS + " sessions: " + allocatedBytes[0] / SELF_CHECK_MEASURED_TICKS);
+      println("  sendQueuedMessages() bytes per tick for " + SELF_CHECK_SESSIONS + " sessions: " + allocatedBytes[1] / SELF_CHECK_MEASURED_TICKS);
+      if (allocatedBytes[0] > 0)
+      {
+        fail("sendWorldToAllClients() allocated " + allocatedBytes[0] + " bytes over " + SELF_CHECK_MEASURED_TICKS + " ticks");
+      }
+      if (allocatedBytes[1] > 0)
+      {
+        fail("sendQueuedMessages() allocated " + allocatedBytes[1] + " bytes over " + SELF_CHECK_MEASURED_TICKS + " ticks");
+      }
+      
+      synchronized(selectorServer.connections)
+      {
+        for (int i = 0; i < selectorServer.connections.size(); i += 2)
+        {
+          selectorServer.connections.get(i).datagramAddress = null;
+        }
+      }
+      
+      measureSnapshotTicks(server, selectorServer, clients, allocationBean, threadID, SELF_CHECK_WARMUP_TICKS, allocatedBytes);
+      measureSnapshotTicks(server, selectorServer, clients, allocationBean, threadID, SELF_CHECK_MEASURED_TICKS, allocatedBytes);
+      println("  sendQueuedMessages() bytes per tick with half the sessions on TCP: " + allocatedBytes[1] / SELF_CHECK_MEASURED_TICKS);
+    }
+    
+    for (int i = 0; i < SELF_CHECK_SESSIONS; i++)
+    {
+      clients[i].disconnect();
+    }
+    server.onExit();
+  }
+  
+  // The clients only need to be admitted and drained, not to apply anything.
+  @Override public void handleServerMessage(ByteBuffer serverMessage)
+  {
+  }
+  
+  private void pollClients(MSClient[] clients)
+  {
+    for (int i = 0; i < clients.length; i++)
+    {
+      clients[i].update();
+      if (clients[i].isConnected())
+      {
+        clients[i].pollNetwork();
+      }
+    }
+  }
+  
+  private boolean isEverySessionReady(GameState_ServerState server, MSSelectorServer selectorServer)
+  {
+    synchronized(selectorServer.connections)
+    {
+      if (server.acknowledgedTicks.size() < SELF_CHECK_SESSIONS || selectorServer.connections.size() < SELF_CHECK_SESSIONS)
+      {
+        return false;
+      }
+      
+      for (int i = 0; i < selectorServer.connections.size(); i++)
+      {
+        if (selectorServer.connections.get(i).datagramAddress == null)
+        {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+  
+  // Runs the server for the given number of snapshot ticks and stores the bytes allocated by each half of sending them.
+  // Everything else a tick does, the world moving and the clients acknowledging and reading, happens between
+  // measurements. Every other session acknowledges the tick before, and the rest need full snapshots.
+  private void measureSnapshotTicks(GameState_ServerState server, MSSelectorServer selectorServer, MSClient[] clients,
+    com.sun.management.ThreadMXBean allocationBean, long threadID, int ticks, long[] allocatedBytes)
+  {
+    IGameObjectManager world = server.getSharedGameObjectManager();
+    
+    // Reading the counter may allocate too, so a measurement of nothing is taken off every other one.
+    long startBytes = allocationBean.getThreadAllocatedBytes(threadID);
+    long overhead = allocationBean.getThreadAllocatedBytes(threadID) - startBytes;
+    
+    allocatedBytes[0] = 0;
+    allocatedBytes[1] = 0;
+    
+    for (int i = 0; i < ticks; i++)
+    {
+      physicsWorld.step(0.030f, velocityIterations, positionIterations);
+      world.update(30);
+      
+      synchronized(server.acknowledgedTicks)
+      {
+        int session = 0;
+        for (Map.Entry<Integer, Integer> entry : server.acknowledgedTicks.entrySet())
+        {
+          entry.setValue(session % 2 == 0 ? world.getSnapshotTick() : -1);
+          session++;
+        }
+      }
+      
+      startBytes = allocationBean.getThreadAllocatedBytes(threadID);
+      server.sendWorldToAllClients();
+      allocatedBytes[0] += allocationBean.getThreadAllocatedBytes(threadID) - startBytes - overhead;
+      
+      startBytes = allocationBean.getThreadAllocatedBytes(threadID);
+      selectorServer.sendQueuedMessages();
+      allocatedBytes[1] += allocationBean.getThreadAllocatedBytes(threadID) - startBytes - overhead;
+      
+      pollClients(clients);
+    }
+  }
+}
+
 public class GameStateController implements IGameStateController
 {
   private LinkedList<GameState> stateStack;
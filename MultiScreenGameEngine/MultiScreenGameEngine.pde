@@ -7,12 +7,41 @@
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.Iterator;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import processing.net.Client;
 import processing.net.Server;
 
 import com.google.flatbuffers.FlatBufferBuilder;
 import java.nio.ByteBuffer; 
+import java.nio.ByteOrder;
+import java.nio.channels.Channel;
+import java.nio.channels.Selector;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.DatagramChannel;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.InetAddress;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.lang.management.ManagementFactory;
 import msge.std.*;
 
 import java.awt.Robot;
@@ -66,7 +95,18 @@ void setup()
   
   spriteManager.loadAllSprites();
   //modelManager.loadAllModels();
-  gameStateController.pushState(new GameState_ChooseClientServerState());
+  if (args != null && args.length > 0 && args[0].equals(LOAD_TEST_ARGUMENT))
+  {
+    gameStateController.pushState(new GameState_LoadTestState());
+  }
+  else if (args != null && args.length > 0 && args[0].equals(SELF_CHECK_ARGUMENT))
+  {
+    gameStateController.pushState(new GameState_SelfCheckState());
+  }
+  else
+  {
+    gameStateController.pushState(new GameState_ChooseClientServerState());
+  }
   
   lastFrameTime = millis();
 }
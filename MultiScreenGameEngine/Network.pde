@@ -13,11 +13,21 @@ IServer mainServer = null;
 
 public interface IClient
 {
-  public boolean connect();
+  public void connect();
   public void update();
   public void disconnect();
+  public boolean isConnecting();
   public boolean isConnected();
+  
+  // Sent with every later session request, so that a reconnect can resume the session the token came from.
+  public void setResumeToken(int resumeToken);
   public void write(ByteBuffer message);
+  
+  // Sends a new input command. Only call this when the input changes; the client repeats recent commands on its own.
+  public void writeInput(int sequence, int buttonMask);
+  public void handleClientEvent(Client p_pClient);
+  
+  public ConnectionMetrics getMetrics();
 }
 
 public interface IClientCallbackHandler
@@ -32,13 +42,29 @@ public interface IServer
   public void end();
   public boolean isActive();
   public void write(ByteBuffer message);
+  public void writeUnreliable(ByteBuffer message);
+  public void writeUnreliable(ArrayList<Integer> sessionIDs, ByteBuffer message);
   public void handleServerEvent(Server p_pServer, Client p_pClient);
+  
+  // Closes a session's connection. handleClientDisconnect() is called for it as for any other lost connection.
+  public void disconnect(int sessionID);
+  
+  // Returns null for sessions that are not connected.
+  public ConnectionMetrics getMetrics(int sessionID);
+  public String getMetricsReport();
 }
 
 public interface IServerCallbackHandler
 {
-  public ByteBuffer getNewClientInitializationMessage();
-  public void handleClientMessage(ByteBuffer clientMessage);
+  // The resume token is whatever the client sent with its session request: 0 for a new client, or the token from its
+  // last initialization message when it is reconnecting.
+  public ByteBuffer getNewClientInitializationMessage(int sessionID, int resumeToken);
+  public void handleClientMessage(int sessionID, ByteBuffer clientMessage);
+  
+  // Called once per input command, in sequence order. Repeated and out of date commands are already filtered out.
+  public void handleClientInput(int sessionID, int sequence, int buttonMask);
+  
+  public void handleClientDisconnect(int sessionID);
 }
 
 //----------------------------------------------------------------
@@ -51,592 +77,4914 @@ public final int MAIN_SERVER_PORT = 5204;
 public final byte[] BEGIN_SEQUENCE = { 55, -45, 95, -44, 28, -74, -65, -66 };
 public final byte[] END_SEQUENCE = { -72, 107, -85, -117, 45, -123, 69, 20 };
 public final byte[] SUB_SERVER_CONNECT_SEQUENCE = { 108, 85, 57, 60, 93, 0, -15, -113 };
+public final byte[] SESSION_REQUEST_SEQUENCE = { -29, 17, 74, -101, 66, -8, 120, 3 };
+public final byte[] SESSION_ACCEPT_SEQUENCE = { 41, -60, 7, -93, 114, -17, 88, -50 };
+public final byte[] DATAGRAM_KEY_SEQUENCE = { -12, 63, 101, -87, 20, -33, 77, 118 };
 public final int TIME_OUT_LIMIT = 6000;
 
+// A client that fails to connect, or loses its connection, tries again after CONNECT_RETRY_INITIAL_DELAY milliseconds,
+// doubling the wait after every further failure up to CONNECT_RETRY_MAX_DELAY.
+public final int CONNECT_RETRY_INITIAL_DELAY = 250;
+public final int CONNECT_RETRY_MAX_DELAY = 8000;
+
+// When true, clients offer to take deflated snapshots, and the selector server agrees if the offer names the same
+// SNAPSHOT_COMPRESSION_FORMAT it uses. Deflate gets no preset dictionary: a pong snapshot is mostly the ball, and one
+// built from the level saved about 1 byte in 100 while setting it doubled the time to compress. Needs LENGTH_PREFIXED
+// framing, since a sentinel frame cannot say that it is compressed.
+public final boolean USE_SNAPSHOT_COMPRESSION = true;
+public final int SNAPSHOT_COMPRESSION_FORMAT = 1;
+public final int SNAPSHOT_COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+public final byte[] COMPRESSION_OFFER_SEQUENCE = { 93, -118, 30, 66, -7, 115, -52, 9 };
+public final byte[] COMPRESSION_ACCEPT_SEQUENCE = { -101, 47, -20, 84, 3, -66, 121, -39 };
+
+// How long the server holds on to a disconnected session for its screen to resume, keeping its client ID and snapshot
+// baseline. A resumed session only gets a delta if its baseline is still within SNAPSHOT_HISTORY_LENGTH ticks.
+public final int SESSION_RESUME_TIMEOUT = 30000;
+
+// Length-prefixed frames start with an 8 byte header: magic (2), version (1), frame type (1), body length (4).
+public final int FRAME_MAGIC = 0x4D53;
+public final int FRAME_VERSION = 1;
+public final int FRAME_HEADER_LENGTH = 8;
+public final byte FRAME_TYPE_FLAT_MESSAGE = 0;
+public final byte FRAME_TYPE_CONTROL = 1;
+public final byte FRAME_TYPE_DATAGRAM_HELLO = 2;
+public final byte FRAME_TYPE_INPUT = 3;
+public final byte FRAME_TYPE_PING = 4;
+public final byte FRAME_TYPE_PONG = 5;
+public final byte FRAME_TYPE_COMPRESSED_FLAT_MESSAGE = 6;
+
+// Outgoing framing. Receivers recognize both kinds on every message, so SENTINEL remains available for older peers.
+public final FramingMode FRAMING_MODE = FramingMode.LENGTH_PREFIXED;
+
+// Frames queued per connection before SLOW_CONSUMER_POLICY applies. Only snapshots are ever discarded.
+public final int OUTBOUND_QUEUE_CAPACITY = 4;
+public final SlowConsumerPolicy SLOW_CONSUMER_POLICY = SlowConsumerPolicy.REPLACE_WITH_NEWEST;
+
+// When true, world snapshots travel as UDP datagrams on MAIN_SERVER_PORT so a lost packet never holds up newer ones.
+// Initialization and input always stay on TCP, as does any snapshot too large for one datagram.
+public final boolean USE_DATAGRAM_SNAPSHOTS = true;
+
+// Datagrams start with a 16 byte header: magic (2), version (1), frame type (1), session ID (4), key (4), sequence (4).
+// The key is a random number the selector server sends each session over TCP right after admitting it. A hello only
+// moves a session's snapshots to the address and port it came from if it carries the key, and snapshots carry it so
+// that the client can tell them from forged ones. That keeps out hosts that cannot see the traffic, which would
+// otherwise only have to guess a small session ID, but not anyone on the path, since the key is sent in the clear.
+public final int DATAGRAM_HEADER_LENGTH = 16;
+public final int MAX_DATAGRAM_SIZE = 1400;
+public final int DATAGRAM_HELLO_INTERVAL = 1000;
+public final int DATAGRAM_HELLO_ATTEMPTS = 10;
+
+// Input packets are a count byte followed by up to INPUT_REDUNDANCY commands of sequence (4) and button mask (1),
+// newest first. They are only sent when the input changes, always over the reliable connection. Every packet repeats
+// the last few commands anyway, and the server skips the ones it has already applied.
+public final int INPUT_REDUNDANCY = 4;
+public final int INPUT_COMMAND_LENGTH = 5;
+public final int INPUT_PACKET_LENGTH = 1 + INPUT_REDUNDANCY * INPUT_COMMAND_LENGTH;
+
+// Both ends of every connection ping the other this often to measure round-trip time, and print their connection
+// metrics every NETWORK_METRICS_LOG_INTERVAL milliseconds. An interval of 0 turns the printing off.
+public final int PING_INTERVAL = 1000;
+public final int NETWORK_METRICS_LOG_INTERVAL = 10000;
+
+// When true, the server starts a NetworkImpairmentProxy on IMPAIRMENT_PROXY_PORT that forwards to MAIN_SERVER_PORT with
+// the delay, jitter, loss, reordering and bandwidth scripted in IMPAIRMENT_SCRIPT, and clients connect through it.
+// Only single-port admission goes through the proxy; redirected sub server ports are reached directly.
+public final boolean USE_IMPAIRMENT_PROXY = false;
+public final int IMPAIRMENT_PROXY_PORT = MAIN_SERVER_PORT + 100;
+public final String IMPAIRMENT_SCRIPT = "network/impairment.xml";
+public final long IMPAIRMENT_SEED = 1;
+public final int SERVER_CONNECT_PORT = USE_IMPAIRMENT_PROXY ? IMPAIRMENT_PROXY_PORT : MAIN_SERVER_PORT;
+
+// How long the proxy holds back a TCP segment it decides to "lose", roughly TCP's minimum retransmission timeout, and
+// the least it holds back a datagram it decides to reorder.
+public final int TCP_RETRANSMIT_DELAY = 200;
+public final int MIN_REORDER_DELAY = 10;
+
+// When true, the server multiplexes every client over one java.nio Selector instead of a processing.net Server per client.
+public final boolean USE_SELECTOR_SERVER = true;
+
+// When true, MSClient and MSSelectorServer do all socket work on a network thread of their own and hand messages to and
+// from the game loop through lock-free queues, so a slow syscall never lengthens a frame. When false, the same work
+// runs inside update() on the game loop.
+public final boolean USE_NETWORK_THREAD = true;
+
+// Messages that can wait in each direction between the network thread and the game loop. A network thread with nothing
+// to do blocks until a socket has data or the game loop queues a message, but never for more than
+// NETWORK_THREAD_MAX_WAIT milliseconds, so pings and metrics still go out. It backs off for NETWORK_THREAD_IDLE_SLEEP
+// at a time while the game loop has stalled and left no room for what it read.
+public final int NETWORK_QUEUE_CAPACITY = 256;
+public final int NETWORK_THREAD_MAX_WAIT = 100;
+public final int NETWORK_THREAD_IDLE_SLEEP = 1;
+
+// When true, every client stays on MAIN_SERVER_PORT and is admitted with a server-side session ID in one round-trip.
+// When false, clients are redirected to a freshly opened sub server port as before.
+public final boolean SINGLE_PORT_ADMISSION = true;
+
+// The load generator, started with the 'b' key or a LOAD_TEST_ARGUMENT on the command line, connects LOAD_TEST_BOT_STEP
+// more headless bots every LOAD_TEST_STEP_INTERVAL milliseconds until there are LOAD_TEST_MAX_BOTS, and reports on each
+// step before starting the next. Every bot changes its paddle input LOAD_TEST_INPUT_RATE times a second.
+public final int LOAD_TEST_MAX_BOTS = 500;
+public final int LOAD_TEST_BOT_STEP = 25;
+public final int LOAD_TEST_STEP_INTERVAL = 10000;
+public final int LOAD_TEST_INPUT_RATE = 5;
+public final long LOAD_TEST_SEED = 1;
+public final String LOAD_TEST_ARGUMENT = "--load-test";
+
+
+public enum FramingMode
+{
+  SENTINEL,
+  LENGTH_PREFIXED
+}
+
+// Who calls MSClient.pollNetwork().
+public enum NetworkPollMode
+{
+  IN_UPDATE,   // The game loop, from update().
+  OWN_THREAD,  // A NetworkThread the client starts on connect.
+  EXTERNAL     // Someone else's thread, such as the one the load generator shares between all of its bots.
+}
+
+// What a NetworkMessage passed between the game loop and the network thread holds.
+public enum NetworkMessageType
+{
+  FLAT_MESSAGE,    // A FlatMessage, either way.
+  INPUT,           // Received: a whole input packet. Sent: one new command, sequence then button mask.
+  ADMITTED,        // Server only: the network thread admitted a session, which now needs its initialization message.
+                   // Holds the resume token from the session request.
+  DISCONNECTED,    // Server only: a session's connection closed.
+  INITIALIZATION,  // Server only: the initialization message for one session.
+  CLOSE,           // Server only: close one session's connection.
+  SNAPSHOT         // Server only: a snapshot for the listed sessions, or for all of them.
+}
+
+public enum SlowConsumerPolicy
+{
+  REPLACE_WITH_NEWEST,
+  DROP,
+  DISCONNECT
+}
+
+
+public byte[] frameMessage(byte[] message, byte frameType)
+{
+  return frameMessage(ByteBuffer.wrap(message), frameType);
+}
+
+public byte[] frameMessage(ByteBuffer message, byte frameType)
+{
+  if (FRAMING_MODE == FramingMode.SENTINEL)
+  {
+    byte[] bytes = new byte[BEGIN_SEQUENCE.length + message.remaining() + END_SEQUENCE.length];
+    ByteBuffer frame = ByteBuffer.wrap(bytes);
+    frame.put(BEGIN_SEQUENCE);
+    frame.put(message);
+    frame.put(END_SEQUENCE);
+    return bytes;
+  }
+  
+  return createLengthPrefixedFrame(message, frameType);
+}
+
+public byte[] createLengthPrefixedFrame(ByteBuffer message, byte frameType)
+{
+  byte[] bytes = new byte[FRAME_HEADER_LENGTH + message.remaining()];
+  ByteBuffer frame = ByteBuffer.wrap(bytes);
+  putFrameHeader(frame, frameType, message.remaining());
+  frame.put(message);
+  
+  return bytes;
+}
+
+public void putFrameHeader(ByteBuffer frame, byte frameType, int length)
+{
+  frame.putShort((short)FRAME_MAGIC);
+  frame.put((byte)FRAME_VERSION);
+  frame.put(frameType);
+  frame.putInt(length);
+}
+
+public void putDatagramHeader(ByteBuffer datagram, byte frameType, int sessionID, int key, int sequence)
+{
+  datagram.putShort((short)FRAME_MAGIC);
+  datagram.put((byte)FRAME_VERSION);
+  datagram.put(frameType);
+  datagram.putInt(sessionID);
+  datagram.putInt(key);
+  datagram.putInt(sequence);
+}
+
+public boolean isValidDatagram(ByteBuffer datagram)
+{
+  return datagram.remaining() >= DATAGRAM_HEADER_LENGTH
+    && datagram.getShort(0) == (short)FRAME_MAGIC
+    && datagram.get(2) == FRAME_VERSION;
+}
 
-public class CircularByteBuffer
+// Each connection needs its own positions into the shared frame; the bytes themselves are not copied.
+public ByteBuffer[] duplicateFrame(ByteBuffer[] frame)
 {
-  protected byte[] buffer;
-  protected int bufferHead;
-  protected int bufferTail;
+  ByteBuffer[] duplicate = new ByteBuffer[frame.length];
   
-  public CircularByteBuffer(int size)
+  for (int i = 0; i < frame.length; i++)
   {
-    buffer = new byte[size];
-    bufferHead = 0;
-    bufferTail = 0;
+    duplicate[i] = frame[i].duplicate();
   }
   
-  synchronized public void append(byte[] bytes, int length)
+  return duplicate;
+}
+
+public byte[] attachBeginAndEndSequencesToMessage(byte[] message)
+{
+  byte[] bytes = new byte[message.length + BEGIN_SEQUENCE.length + END_SEQUENCE.length];
+  
+  for (int i = 0; i < BEGIN_SEQUENCE.length; i++)
   {
-    for (int i = 0; i < length; i++)
-    {
-      buffer[bufferTail] = bytes[i];
-      bufferTail = (bufferTail + 1) % buffer.length;
-      assert(bufferTail != bufferHead);
-    }
+    bytes[i] = BEGIN_SEQUENCE[i];
   }
   
-  synchronized public void advanceHead(int length)
+  for (int i = 0; i < message.length; i++)
   {
-    bufferHead = (bufferHead + length) % buffer.length;
+    bytes[BEGIN_SEQUENCE.length + i] = message[i];
   }
   
-  synchronized public void clear()
+  for (int i = 0; i < END_SEQUENCE.length; i++)
   {
-    bufferHead = bufferTail;
+    bytes[bytes.length - i - 1] = END_SEQUENCE[END_SEQUENCE.length - i - 1];
   }
   
-  synchronized public int size()
+  return bytes;
+}
+
+// Control messages are a marker sequence followed by a single big-endian int, e.g. a port or a session ID.
+public byte[] createControlMessage(byte[] sequence, int value)
+{
+  byte[] controlMessage = new byte[sequence.length + 4];
+  
+  for (int i = 0; i < sequence.length; i++)
   {
-    if (bufferTail >= bufferHead)
-    {
-      return bufferTail - bufferHead;
-    }
-    else
-    {
-      return buffer.length + bufferTail - bufferHead;
-    }
+    controlMessage[i] = sequence[i];
   }
   
-  synchronized public byte[] getCurrentContents()
+  controlMessage[sequence.length] = (byte)(value >>> 24);
+  controlMessage[sequence.length + 1] = (byte)(value >>> 16);
+  controlMessage[sequence.length + 2] = (byte)(value >>> 8);
+  controlMessage[sequence.length + 3] = (byte)value;
+  
+  return frameMessage(controlMessage, FRAME_TYPE_CONTROL);
+}
+
+public boolean isControlMessage(ByteBuffer message, byte[] sequence)
+{
+  if (message.remaining() < sequence.length + 4)
   {
-    return getCurrentContents(size());
+    return false;
   }
   
-  synchronized public byte[] getCurrentContents(int maxLength)
+  for (int i = 0; i < sequence.length; i++)
   {
-    int contentsLength = min(size(), maxLength);
-    byte[] contents = new byte[contentsLength];
-    
-    for (int i = 0; i < contentsLength; i++)
+    if (message.get(message.position() + i) != sequence[i])
     {
-      contents[i] = buffer[(bufferHead + i) % buffer.length];
+      return false;
     }
-    
-    return contents;
   }
   
-  synchronized public boolean beginsWith(byte[] sequence)
+  return true;
+}
+
+public int parseControlMessageValue(ByteBuffer message)
+{
+  return getBigEndianInt(message, message.limit() - 4);
+}
+
+// Assembled byte by byte because received views may have been switched to little endian by FlatBuffers.
+public int getBigEndianInt(ByteBuffer buffer, int offset)
+{
+  return ((buffer.get(offset) & 0xFF) << 24)
+    | ((buffer.get(offset + 1) & 0xFF) << 16)
+    | ((buffer.get(offset + 2) & 0xFF) << 8)
+    | (buffer.get(offset + 3) & 0xFF);
+}
+
+// A ping is a FlatMessage with nothing but a header stamped with the sender's clock, and the pong is the same bytes
+// sent straight back. Both are always length-prefixed, since a sentinel frame cannot say what it holds.
+public byte[] createPingMessage()
+{
+  FlatBufferBuilder builder = new FlatBufferBuilder(0);
+  
+  FlatMessageHeader.startFlatMessageHeader(builder);
+  FlatMessageHeader.addTimeStamp(builder, System.currentTimeMillis());
+  FlatMessageHeader.addClientID(builder, 0);
+  int flatMessageHeader = FlatMessageHeader.endFlatMessageHeader(builder);
+  
+  FlatMessage.startFlatMessage(builder);
+  FlatMessage.addHeader(builder, flatMessageHeader);
+  FlatMessage.finishFlatMessageBuffer(builder, FlatMessage.endFlatMessage(builder));
+  
+  return createLengthPrefixedFrame(builder.dataBuffer(), FRAME_TYPE_PING);
+}
+
+public byte[] createPongMessage(ByteBuffer ping)
+{
+  return createLengthPrefixedFrame(ping.duplicate(), FRAME_TYPE_PONG);
+}
+
+public long getRoundTripTime(ByteBuffer pong)
+{
+  return System.currentTimeMillis() - FlatMessage.getRootAsFlatMessage(pong).header().timeStamp();
+}
+
+// Hands the commands in an input packet that are newer than lastSequence to the handler, oldest first. Returns the
+// newest sequence handled, which the caller passes back in with the next packet from the same session.
+public int dispatchInputCommands(ByteBuffer packet, int sessionID, int lastSequence, IServerCallbackHandler handler)
+{
+  int start = packet.position();
+  
+  if (packet.remaining() < 1)
+  {
+    return lastSequence;
+  }
+  
+  int count = packet.get(start) & 0xFF;
+  if (count > INPUT_REDUNDANCY || packet.remaining() < 1 + count * INPUT_COMMAND_LENGTH)
   {
-    for (int i = 0; i < sequence.length; i++)
-    {
-      int pos = (bufferHead + i) % buffer.length;
-      
-      if ((pos == (bufferTail + 1) % buffer.length) || buffer[pos] != sequence[i])
-      {
-        return false;
-      }
-    }
-    
-    return true;
+    return lastSequence;
   }
   
-  synchronized public int indexOf(byte[] sequence)
+  for (int i = count - 1; i >= 0; i--)
   {
-    int sequenceIndex = -1;
-    
-    byte[] contents = getCurrentContents();
+    int offset = start + 1 + i * INPUT_COMMAND_LENGTH;
+    int sequence = getBigEndianInt(packet, offset);
     
-    int i = 0;
-    
-    while (sequenceIndex == -1 && i <= contents.length - sequence.length)
+    // Signed difference so the comparison survives the sequence wrapping around.
+    if (sequence - lastSequence > 0)
     {
-      if (contents[i] == sequence[0])
-      {
-        int j = 1;
-        
-        while (sequenceIndex == -1 && i + j < contents.length && contents[i + j] == sequence[j])
-        {
-          j++;
-          
-          if (j == sequence.length)
-          {
-            sequenceIndex = i;
-          }
-        }
-      }
-      
-      i++;
+      handler.handleClientInput(sessionID, sequence, packet.get(offset + 4) & 0xFF);
+      lastSequence = sequence;
     }
-    
-    return sequenceIndex;
   }
+  
+  return lastSequence;
 }
 
+public byte[] createConnectionRedirectMessage(int subServerPort)
+{
+  return createControlMessage(SUB_SERVER_CONNECT_SEQUENCE, subServerPort);
+}
 
-public class NetworkCircularByteBuffer extends CircularByteBuffer
+
+// Receives framed messages into a single direct ByteBuffer. Unparsed bytes live between head and tail, and each
+// complete message is handed out as a read-only view onto that same memory, so nothing is copied or allocated per
+// message. A view stays valid until the next readFrom() call, which may compact the buffer to make room.
+public class NetworkReceiveBuffer
 {
   private static final int TEMP_BUFFER_SIZE = 1024;
   
+  private ByteBuffer buffer;
+  private ByteBuffer messageView;
   private byte[] tempBuffer;
+  private int head;
+  private int tail;
+  
   private boolean beginSequenceChecked;
+  private int endSequenceSearchIndex;
+  private byte lastFrameType;
   
-  public NetworkCircularByteBuffer(int size)
+  public NetworkReceiveBuffer(int size)
   {
-    super(size);
-    
+    buffer = ByteBuffer.allocateDirect(size);
+    messageView = buffer.asReadOnlyBuffer();
     tempBuffer = new byte[TEMP_BUFFER_SIZE];
+    head = 0;
+    tail = 0;
+    
     beginSequenceChecked = false;
+    endSequenceSearchIndex = 0;
+    lastFrameType = FRAME_TYPE_FLAT_MESSAGE;
   }
   
-  synchronized public byte[] parseMessageLoop(Client pClient)
+  synchronized public int size()
   {
-    if (pClient != null && pClient.available() > 0)
-    {
-      int length = pClient.readBytes(tempBuffer);
-      
-      append(tempBuffer, length);
-    }
-    
-    if (!beginSequenceChecked)
-    {
-      if (size() >= BEGIN_SEQUENCE.length)
-      {
-        beginSequenceChecked = beginsWith(BEGIN_SEQUENCE);
-        
-        if (beginSequenceChecked)
-        {
-          advanceHead(BEGIN_SEQUENCE.length);
-        }
-        else
-        {
-          byte[] firstByteOfBeginSequence = { BEGIN_SEQUENCE[0] };
-          int indexOfFirstByteOfBeginSequence = indexOf(firstByteOfBeginSequence);
-          
-          if (indexOfFirstByteOfBeginSequence == -1)
-          {
-            clear();
-          }
-          else
-          {
-            advanceHead(indexOfFirstByteOfBeginSequence);
-          }
-        }
-      }
-    }
-    
-    if (beginSequenceChecked)
-    {
-      int endSequenceIndex = indexOf(END_SEQUENCE);
-      
-      if (endSequenceIndex != -1)
-      {
-        byte[] message = getCurrentContents(endSequenceIndex);
-        advanceHead(message.length + END_SEQUENCE.length);
-        beginSequenceChecked = false;
-        
-        return message;
-      }
-    }
-    
-    return null;
+    return tail - head;
   }
-}
-
-
-public class MSClient implements IClient
-{
-  private static final int BUFFER_SIZE = 102400;
-  
-  private Client pClient;
-  private NetworkCircularByteBuffer circularBuffer;
-  private IClientCallbackHandler handler;
   
-  
-  public MSClient(IClientCallbackHandler _handler)
+  synchronized public void clear()
   {
-    pClient = null;
-    circularBuffer = new NetworkCircularByteBuffer(BUFFER_SIZE);
-    handler = _handler;
+    head = 0;
+    tail = 0;
+    beginSequenceChecked = false;
   }
   
-  @Override public boolean connect()
+  // processing.net only hands out byte arrays, so this path costs one bulk copy into the direct buffer. Returns the
+  // number of bytes read.
+  synchronized public int readFrom(Client pClient)
   {
-    pClient = new Client(mainObject, MAIN_SERVER_IP, MAIN_SERVER_PORT);
-    
-    if (!pClient.active())
+    if (pClient == null)
     {
-      println("Failed to connect to main server.");
-      pClient = null;
-      return false;
+      return 0;
     }
     
-    boolean connected = redirectConnectionToSubServer();
+    makeRoom();
     
-    if (!connected)
+    int totalLength = 0;
+    
+    while (pClient.available() > 0 && buffer.capacity() - tail >= tempBuffer.length)
     {
-      println("Failed to connect to sub server.");
-      return false;
+      int length = pClient.readBytes(tempBuffer);
+      
+      buffer.limit(buffer.capacity());
+      buffer.position(tail);
+      buffer.put(tempBuffer, 0, length);
+      tail += length;
+      totalLength += length;
     }
     
-    println("Client connected.");
-    return true;
+    return totalLength;
   }
   
-  private boolean redirectConnectionToSubServer()
+  // Reads straight from the socket into the direct buffer. Returns the channel's result, -1 at end of stream.
+  synchronized public int readFrom(SocketChannel channel) throws IOException
   {
-    int initialTime = millis();
-    int currentTime = initialTime;
+    makeRoom();
     
-    while (currentTime - initialTime < TIME_OUT_LIMIT)
+    buffer.limit(buffer.capacity());
+    buffer.position(tail);
+    int length = channel.read(buffer);
+    
+    if (length > 0)
     {
-      byte[] message = circularBuffer.parseMessageLoop(pClient);
-      
-      if (message != null && connectToSubServerMessageCheck(message))
-      {
-        int subServerPort = parsePort(message);
-        
-        pClient.stop();
-        pClient = new Client(mainObject, MAIN_SERVER_IP, subServerPort);
-        
-        if (pClient.active())
-        {
-          return true;
-        }
-        else
-        {
-          println("Failed to connect to given sub server port.");
-          pClient = null;
-          return false;
-        }
-      }
-      
-      currentTime = millis();
+      tail += length;
     }
     
-    pClient = null;
-    return false;
+    return length;
   }
   
-  private boolean connectToSubServerMessageCheck(byte[] message)
+  private void makeRoom()
   {
-    if (message.length < SUB_SERVER_CONNECT_SEQUENCE.length)
+    if (head == tail)
     {
-      return false;
+      head = 0;
+      tail = 0;
     }
-    
-    for (int i = 0; i < SUB_SERVER_CONNECT_SEQUENCE.length; i++)
+    else if (buffer.capacity() - tail < TEMP_BUFFER_SIZE)
     {
-      if (message[i] != SUB_SERVER_CONNECT_SEQUENCE[i])
+      buffer.limit(tail);
+      buffer.position(head);
+      buffer.compact();
+      tail -= head;
+      head = 0;
+      
+      if (buffer.capacity() - tail < TEMP_BUFFER_SIZE)
       {
-        return false;
+        println("Receive buffer overflow, dropping " + tail + " buffered bytes.");
+        clear();
       }
     }
-    
-    return true;
-  }
-  
-  private int parsePort(byte[] message)
-  {
-    byte[] portBytes = new byte[4];
-    
-    portBytes[0] = message[SUB_SERVER_CONNECT_SEQUENCE.length];
-    portBytes[1] = message[SUB_SERVER_CONNECT_SEQUENCE.length + 1];
-    portBytes[2] = message[SUB_SERVER_CONNECT_SEQUENCE.length + 2];
-    portBytes[3] = message[SUB_SERVER_CONNECT_SEQUENCE.length + 3];
-    
-    ByteBuffer portByteBuffer = ByteBuffer.wrap(portBytes);
-    
-    return portByteBuffer.getInt();
   }
   
-  @Override public void update()
+  // Returns a read-only view of the next complete message, or null. The same view object is reused by every call.
+  synchronized public ByteBuffer nextMessage()
   {
-    byte[] message = null;
-    ArrayList<byte[]> messageList = new ArrayList<byte[]>();
-    
-    do
+    while (!beginSequenceChecked)
     {
-      message = circularBuffer.parseMessageLoop(pClient);
+      if (size() < FRAME_HEADER_LENGTH)
+      {
+        return null;
+      }
+      
+      if (beginsWithFrameHeader())
+      {
+        return nextLengthPrefixedMessage();
+      }
+      
+      beginSequenceChecked = beginsWith(BEGIN_SEQUENCE);
       
-      if (message != null)
+      if (beginSequenceChecked)
       {
-        messageList.add(message);
+        head += BEGIN_SEQUENCE.length;
+        endSequenceSearchIndex = 0;
+        lastFrameType = FRAME_TYPE_FLAT_MESSAGE;
+      }
+      else
+      {
+        // Garbage or a corrupt header. Skip a byte and look for the next frame.
+        head++;
       }
     }
-    while (message != null);
     
-    if (messageList.size() > 0)
-    {
-      handler.handleServerMessage(ByteBuffer.wrap(messageList.get(messageList.size() - 1)));
-    }
+    return nextSentinelMessage();
   }
   
-  @Override public void disconnect()
+  // The frame type of the message most recently returned by nextMessage().
+  synchronized public byte getLastFrameType()
   {
-    if (isConnected())
-    {
-      pClient.stop();
-      pClient = null;
-    }
+    return lastFrameType;
   }
   
-  @Override public boolean isConnected()
+  private byte get(int offset)
   {
-    return pClient != null && pClient.active();
+    return buffer.get(head + offset);
   }
   
-  @Override public void write(ByteBuffer message)
+  private boolean beginsWith(byte[] sequence)
   {
-    if (isConnected())
+    for (int i = 0; i < sequence.length; i++)
     {
-      byte[] bytes = new byte[message.remaining() + BEGIN_SEQUENCE.length + END_SEQUENCE.length];
-      for (int i = 0; i < BEGIN_SEQUENCE.length; i++)
+      if (get(i) != sequence[i])
       {
-        bytes[i] = BEGIN_SEQUENCE[i];
+        return false;
       }
-      message.get(bytes, BEGIN_SEQUENCE.length, message.remaining());
-      for (int i = 0; i < END_SEQUENCE.length; i++)
+    }
+    
+    return true;
+  }
+  
+  private boolean beginsWithFrameHeader()
+  {
+    int magic = ((get(0) & 0xFF) << 8) | (get(1) & 0xFF);
+    
+    if (magic != FRAME_MAGIC || get(2) != FRAME_VERSION)
+    {
+      return false;
+    }
+    
+    int length = getFrameBodyLength();
+    return length >= 0 && length <= buffer.capacity() - FRAME_HEADER_LENGTH - TEMP_BUFFER_SIZE;
+  }
+  
+  private int getFrameBodyLength()
+  {
+    return ((get(4) & 0xFF) << 24) | ((get(5) & 0xFF) << 16) | ((get(6) & 0xFF) << 8) | (get(7) & 0xFF);
+  }
+  
+  private ByteBuffer nextLengthPrefixedMessage()
+  {
+    int length = getFrameBodyLength();
+    
+    if (size() < FRAME_HEADER_LENGTH + length)
+    {
+      return null;
+    }
+    
+    lastFrameType = get(3);
+    int messageStart = head + FRAME_HEADER_LENGTH;
+    head = messageStart + length;
+    
+    return viewOf(messageStart, head);
+  }
+  
+  private ByteBuffer nextSentinelMessage()
+  {
+    int endSequenceIndex = indexOf(END_SEQUENCE, endSequenceSearchIndex);
+    
+    if (endSequenceIndex == -1)
+    {
+      // Bytes already scanned never need to be scanned again.
+      endSequenceSearchIndex = max(0, size() - END_SEQUENCE.length + 1);
+      return null;
+    }
+    
+    int messageStart = head;
+    head += endSequenceIndex + END_SEQUENCE.length;
+    beginSequenceChecked = false;
+    
+    return viewOf(messageStart, messageStart + endSequenceIndex);
+  }
+  
+  private int indexOf(byte[] sequence, int fromIndex)
+  {
+    int contentsLength = size();
+    
+    for (int i = max(0, fromIndex); i <= contentsLength - sequence.length; i++)
+    {
+      int j = 0;
+      
+      while (j < sequence.length && get(i + j) == sequence[j])
+      {
+        j++;
+      }
+      
+      if (j == sequence.length)
+      {
+        return i;
+      }
+    }
+    
+    return -1;
+  }
+  
+  private ByteBuffer viewOf(int start, int end)
+  {
+    messageView.clear();
+    messageView.position(start);
+    messageView.limit(end);
+    
+    return messageView;
+  }
+}
+
+
+// Counts values into power-of-two buckets, so recording is constant time and never allocates. Percentiles are
+// reported as the upper bound of the bucket they fall in, which is close enough to tell a hiccup from a trend.
+public class MetricHistogram
+{
+  private static final int BUCKET_COUNT = 40;
+  
+  private long[] buckets;
+  private long count;
+  private long sum;
+  private long max;
+  
+  public MetricHistogram()
+  {
+    buckets = new long[BUCKET_COUNT];
+    count = 0;
+    sum = 0;
+    max = 0;
+  }
+  
+  public MetricHistogram(MetricHistogram other)
+  {
+    buckets = other.buckets.clone();
+    count = other.count;
+    sum = other.sum;
+    max = other.max;
+  }
+  
+  // Bucket 0 holds zero and bucket i holds values from 2^(i-1) to 2^i - 1.
+  public void record(long value)
+  {
+    value = Math.max(value, 0L);
+    buckets[Math.min(64 - Long.numberOfLeadingZeros(value), BUCKET_COUNT - 1)]++;
+    count++;
+    sum += value;
+    max = Math.max(max, value);
+  }
+  
+  public void clear()
+  {
+    for (int i = 0; i < BUCKET_COUNT; i++)
+    {
+      buckets[i] = 0;
+    }
+    count = 0;
+    sum = 0;
+    max = 0;
+  }
+  
+  public long getCount()
+  {
+    return count;
+  }
+  
+  public float getMean()
+  {
+    return count == 0 ? 0.0f : (float)sum / count;
+  }
+  
+  public long getMax()
+  {
+    return max;
+  }
+  
+  public long getPercentile(float fraction)
+  {
+    long rank = (long)Math.ceil(fraction * count);
+    long seen = 0;
+    
+    for (int i = 0; i < BUCKET_COUNT; i++)
+    {
+      seen += buckets[i];
+      if (seen >= rank && seen > 0)
+      {
+        return Math.min(i == 0 ? 0L : (1L << i) - 1, max);
+      }
+    }
+    
+    return max;
+  }
+  
+  public String getSummary()
+  {
+    return "mean " + nf(getMean(), 0, 1) + ", p50 " + getPercentile(0.5f) + ", p99 " + getPercentile(0.99f) + ", max " + max;
+  }
+}
+
+
+// Throughput and latency of one connection. Recording is constant time and allocation free; every method is
+// synchronized because writer threads and the draw loop record into the same connection.
+public class ConnectionMetrics
+{
+  private long bytesSent;
+  private long bytesReceived;
+  private long messagesSent;
+  private long messagesReceived;
+  
+  // Time spent decoding and applying received messages in the handler, in microseconds.
+  private MetricHistogram parseTimes;
+  private MetricHistogram snapshotSizes;
+  private MetricHistogram roundTripTimes;
+  
+  // Smoothed difference between consecutive gaps between received messages, as in RFC 3550, in milliseconds.
+  // Arrivals are only seen when the connection is polled, so this includes frame timing on the receiving side.
+  private float jitter;
+  private long lastArrivalTime;
+  private long lastArrivalInterval;
+  
+  private int lastPingTime;
+  
+  public ConnectionMetrics()
+  {
+    parseTimes = new MetricHistogram();
+    snapshotSizes = new MetricHistogram();
+    roundTripTimes = new MetricHistogram();
+    
+    jitter = 0.0f;
+    lastArrivalTime = -1;
+    lastArrivalInterval = -1;
+    
+    lastPingTime = millis();
+  }
+  
+  synchronized public void recordBytesSent(long bytes)
+  {
+    bytesSent += bytes;
+  }
+  
+  synchronized public void recordMessageSent()
+  {
+    messagesSent++;
+  }
+  
+  synchronized public void recordSent(long bytes)
+  {
+    bytesSent += bytes;
+    messagesSent++;
+  }
+  
+  synchronized public void recordBytesReceived(long bytes)
+  {
+    bytesReceived += bytes;
+  }
+  
+  synchronized public void recordMessageReceived()
+  {
+    messagesReceived++;
+  }
+  
+  synchronized public void recordReceived(long bytes)
+  {
+    bytesReceived += bytes;
+    messagesReceived++;
+  }
+  
+  synchronized public void recordArrival()
+  {
+    long arrivalTime = System.nanoTime();
+    
+    if (lastArrivalTime != -1)
+    {
+      long interval = arrivalTime - lastArrivalTime;
+      
+      if (lastArrivalInterval != -1)
+      {
+        jitter += (Math.abs(interval - lastArrivalInterval) / 1000000.0f - jitter) / 16.0f;
+      }
+      
+      lastArrivalInterval = interval;
+    }
+    
+    lastArrivalTime = arrivalTime;
+  }
+  
+  synchronized public void recordParseTime(long nanoseconds)
+  {
+    parseTimes.record(nanoseconds / 1000);
+  }
+  
+  synchronized public void recordSnapshotSize(int bytes)
+  {
+    snapshotSizes.record(bytes);
+  }
+  
+  synchronized public void recordRoundTripTime(long milliseconds)
+  {
+    roundTripTimes.record(milliseconds);
+  }
+  
+  // Returns true at most once every PING_INTERVAL, and expects the caller to send a ping when it does.
+  synchronized public boolean isPingDue()
+  {
+    if (millis() - lastPingTime < PING_INTERVAL)
+    {
+      return false;
+    }
+    
+    lastPingTime = millis();
+    return true;
+  }
+  
+  synchronized public long getBytesSent()
+  {
+    return bytesSent;
+  }
+  
+  synchronized public long getBytesReceived()
+  {
+    return bytesReceived;
+  }
+  
+  synchronized public long getMessagesSent()
+  {
+    return messagesSent;
+  }
+  
+  synchronized public long getMessagesReceived()
+  {
+    return messagesReceived;
+  }
+  
+  synchronized public float getJitter()
+  {
+    return jitter;
+  }
+  
+  // The histogram getters return copies, so they can be read at leisure.
+  synchronized public MetricHistogram getParseTimes()
+  {
+    return new MetricHistogram(parseTimes);
+  }
+  
+  synchronized public MetricHistogram getSnapshotSizes()
+  {
+    return new MetricHistogram(snapshotSizes);
+  }
+  
+  synchronized public MetricHistogram getRoundTripTimes()
+  {
+    return new MetricHistogram(roundTripTimes);
+  }
+  
+  synchronized public String getReport()
+  {
+    return "sent " + bytesSent + " B in " + messagesSent + " messages, received " + bytesReceived + " B in " + messagesReceived + " messages"
+      + "\n  parse us: " + parseTimes.getSummary()
+      + "\n  snapshot B: " + snapshotSizes.getSummary()
+      + "\n  rtt ms: " + roundTripTimes.getSummary()
+      + "\n  jitter ms: " + nf(jitter, 0, 2);
+  }
+}
+
+
+// Deflates and inflates snapshots as raw deflate streams, reusing its buffers between calls. Each network thread has its
+// own, since neither Deflater nor Inflater may be shared between threads.
+public class SnapshotCompressor
+{
+  private Deflater deflater;
+  private Inflater inflater;
+  private byte[] inputBuffer;
+  private byte[] outputBuffer;
+  
+  // What compress() and decompress() return, rewrapped only when outputBuffer grows.
+  private ByteBuffer output;
+  
+  // What compress() and decompress() have cost and saved, in bytes and microseconds.
+  private long rawBytes;
+  private long compressedBytes;
+  private MetricHistogram compressTimes;
+  private MetricHistogram decompressTimes;
+  
+  public SnapshotCompressor()
+  {
+    deflater = new Deflater(SNAPSHOT_COMPRESSION_LEVEL, true);
+    inflater = new Inflater(true);
+    inputBuffer = new byte[4096];
+    outputBuffer = new byte[4096];
+    output = ByteBuffer.wrap(outputBuffer);
+    
+    rawBytes = 0;
+    compressedBytes = 0;
+    compressTimes = new MetricHistogram();
+    decompressTimes = new MetricHistogram();
+  }
+  
+  // Returns null if the snapshot would not get any smaller. Otherwise the result is only valid until the next call.
+  public ByteBuffer compress(ByteBuffer message)
+  {
+    long startTime = System.nanoTime();
+    int length = message.remaining();
+    
+    deflater.reset();
+    deflater.setInput(toArray(message), 0, length);
+    deflater.finish();
+    
+    if (outputBuffer.length < length)
+    {
+      outputBuffer = new byte[Integer.highestOneBit(length) << 1];
+      output = ByteBuffer.wrap(outputBuffer);
+    }
+    
+    int compressedLength = 0;
+    while (!deflater.finished() && compressedLength < length)
+    {
+      compressedLength += deflater.deflate(outputBuffer, compressedLength, length - compressedLength);
+    }
+    
+    compressTimes.record((System.nanoTime() - startTime) / 1000);
+    rawBytes += length;
+    
+    if (!deflater.finished())
+    {
+      compressedBytes += length;
+      return null;
+    }
+    
+    compressedBytes += compressedLength;
+    output.clear();
+    output.limit(compressedLength);
+    return output;
+  }
+  
+  // Returns null if the data is corrupt. Otherwise the result is only valid until the next call.
+  public ByteBuffer decompress(ByteBuffer compressed)
+  {
+    long startTime = System.nanoTime();
+    int length = compressed.remaining();
+    int decompressedLength = 0;
+    
+    inflater.reset();
+    inflater.setInput(toArray(compressed), 0, length);
+    
+    try
+    {
+      while (!inflater.finished())
+      {
+        if (decompressedLength == outputBuffer.length)
+        {
+          outputBuffer = Arrays.copyOf(outputBuffer, outputBuffer.length * 2);
+          output = ByteBuffer.wrap(outputBuffer);
+        }
+        
+        int inflatedLength = inflater.inflate(outputBuffer, decompressedLength, outputBuffer.length - decompressedLength);
+        if (inflatedLength == 0 && (inflater.needsInput()))
+        {
+          return null;
+        }
+        decompressedLength += inflatedLength;
+      }
+    }
+    catch (DataFormatException e)
+    {
+      return null;
+    }
+    
+    decompressTimes.record((System.nanoTime() - startTime) / 1000);
+    rawBytes += decompressedLength;
+    compressedBytes += length;
+    
+    output.clear();
+    output.limit(decompressedLength);
+    return output;
+  }
+  
+  public String getReport()
+  {
+    return "snapshot compression " + rawBytes + " B to " + compressedBytes + " B ("
+      + nf(rawBytes == 0 ? 100.0f : 100.0f * compressedBytes / rawBytes, 0, 1) + "%)"
+      + "\n  compress us: " + compressTimes.getSummary()
+      + "\n  decompress us: " + decompressTimes.getSummary();
+  }
+  
+  private byte[] toArray(ByteBuffer buffer)
+  {
+    if (inputBuffer.length < buffer.remaining())
+    {
+      inputBuffer = new byte[Integer.highestOneBit(buffer.remaining()) << 1];
+    }
+    
+    int position = buffer.position();
+    buffer.get(inputBuffer, 0, buffer.remaining());
+    buffer.position(position);
+    return inputBuffer;
+  }
+}
+
+
+public interface INetworkPoller
+{
+  // Returns false if the pass found nothing to do.
+  public boolean pollNetwork();
+  
+  // Blocks until there may be something to do, wakeNetwork() is called or NETWORK_THREAD_MAX_WAIT has passed.
+  public void awaitNetwork();
+  
+  // Cuts awaitNetwork() short. Called from any thread.
+  public void wakeNetwork();
+}
+
+
+// Calls pollNetwork() over and over on a daemon thread of its own until stopped, waiting in awaitNetwork() whenever a
+// pass finds nothing to do. Anything that hands the thread work calls wake(), so nothing waits out the full wait.
+public class NetworkThread
+{
+  private INetworkPoller poller;
+  private Thread thread;
+  private volatile boolean running;
+  
+  public NetworkThread(INetworkPoller _poller, String name)
+  {
+    poller = _poller;
+    running = false;
+    
+    thread = new Thread(new Runnable()
+    {
+      @Override public void run()
+      {
+        while (running)
+        {
+          if (!poller.pollNetwork())
+          {
+            poller.awaitNetwork();
+          }
+        }
+      }
+    }, name);
+    
+    thread.setDaemon(true);
+  }
+  
+  public void start()
+  {
+    running = true;
+    thread.start();
+  }
+  
+  // Blocks until the current pass has finished.
+  public void stop()
+  {
+    running = false;
+    wake();
+    
+    if (Thread.currentThread() != thread)
+    {
+      try
+      {
+        thread.join();
+      }
+      catch (InterruptedException e)
+      {
+      }
+    }
+  }
+  
+  public boolean isRunning()
+  {
+    return running;
+  }
+  
+  public void wake()
+  {
+    poller.wakeNetwork();
+    LockSupport.unpark(thread);
+  }
+  
+  // Only for backing off while the game loop has no room for what this thread read.
+  public void idle()
+  {
+    LockSupport.parkNanos(NETWORK_THREAD_IDLE_SLEEP * 1000000L);
+  }
+}
+
+
+// A bounded lock-free queue for exactly one producer thread and one consumer thread. Each side only writes its own
+// index, and publishes it with a release store once the slot is written or emptied, so neither side ever blocks.
+// Each side also caches the other's index and only re-reads it when the queue looks full or empty.
+public class SpscQueue<T>
+{
+  private Object[] elements;
+  private int mask;
+  private AtomicLong head;
+  private AtomicLong tail;
+  
+  // Only touched by the producer and the consumer respectively.
+  private long cachedHead;
+  private long cachedTail;
+  
+  // The capacity is rounded up to a power of two.
+  public SpscQueue(int capacity)
+  {
+    int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+    
+    elements = new Object[size];
+    mask = size - 1;
+    head = new AtomicLong(0);
+    tail = new AtomicLong(0);
+    cachedHead = 0;
+    cachedTail = 0;
+  }
+  
+  // Producer only. Returns false when the queue is full.
+  public boolean offer(T element)
+  {
+    long currentTail = tail.get();
+    
+    if (currentTail - cachedHead >= elements.length)
+    {
+      cachedHead = head.get();
+      if (currentTail - cachedHead >= elements.length)
+      {
+        return false;
+      }
+    }
+    
+    elements[(int)currentTail & mask] = element;
+    tail.lazySet(currentTail + 1);
+    return true;
+  }
+  
+  // Consumer only. Returns null when the queue is empty.
+  @SuppressWarnings("unchecked")
+  public T poll()
+  {
+    long currentHead = head.get();
+    
+    if (currentHead >= cachedTail)
+    {
+      cachedTail = tail.get();
+      if (currentHead >= cachedTail)
+      {
+        return null;
+      }
+    }
+    
+    int index = (int)currentHead & mask;
+    T element = (T)elements[index];
+    elements[index] = null;
+    head.lazySet(currentHead + 1);
+    return element;
+  }
+}
+
+
+public class NetworkMessage
+{
+  public NetworkMessageType type;
+  public int sessionID;
+  
+  // Sent snapshots only: the sessions to send to, unless allSessions is set.
+  public ArrayList<Integer> sessionIDs;
+  public boolean allSessions;
+  
+  // Owned by the message and reused, so it is only valid until the message is released.
+  public ByteBuffer data;
+  
+  public NetworkMessage()
+  {
+    type = NetworkMessageType.FLAT_MESSAGE;
+    sessionID = -1;
+    sessionIDs = new ArrayList<Integer>();
+    allSessions = false;
+    data = ByteBuffer.allocate(1024);
+  }
+  
+  // Grows the buffer and session list up front, so that a later set() that needs as much does not allocate.
+  public void reserve(int dataCapacity, int sessionCapacity)
+  {
+    if (data.capacity() < dataCapacity)
+    {
+      data = ByteBuffer.allocate(dataCapacity);
+    }
+    sessionIDs.ensureCapacity(sessionCapacity);
+  }
+  
+  // Copies the readable bytes of source without moving its position. The buffer only grows when a bigger message
+  // comes along.
+  public void set(NetworkMessageType _type, int _sessionID, ByteBuffer source)
+  {
+    type = _type;
+    sessionID = _sessionID;
+    sessionIDs.clear();
+    allSessions = false;
+    
+    if (source == null)
+    {
+      data.clear();
+      data.limit(0);
+      return;
+    }
+    
+    if (data.capacity() < source.remaining())
+    {
+      data = ByteBuffer.allocate(Integer.highestOneBit(source.remaining()) << 1);
+    }
+    
+    int sourcePosition = source.position();
+    data.clear();
+    data.order(ByteOrder.BIG_ENDIAN);
+    data.put(source);
+    data.flip();
+    source.position(sourcePosition);
+  }
+  
+  public void setInput(int sequence, int buttonMask)
+  {
+    type = NetworkMessageType.INPUT;
+    sessionID = -1;
+    sessionIDs.clear();
+    allSessions = false;
+    
+    data.clear();
+    data.order(ByteOrder.BIG_ENDIAN);
+    data.putInt(sequence);
+    data.put((byte)buttonMask);
+    data.flip();
+  }
+}
+
+
+// Carries messages one way between two threads. Messages come from a pool and go back to it once the consumer is done
+// with them, so in the steady state nothing is allocated. Only the producer may call publish() and only the consumer
+// may call poll() and release().
+public class NetworkMessageQueue
+{
+  private SpscQueue<NetworkMessage> messages;
+  private SpscQueue<NetworkMessage> freeMessages;
+  
+  // A message the producer took from the pool but could not publish because the queue was full.
+  private NetworkMessage spareMessage;
+  
+  // Woken after every publish when the consumer is a network thread, so it does not sit out its wait first.
+  private volatile NetworkThread consumer;
+  
+  // The most any message has needed so far. Each claimed message is grown to it, so the whole pool catches up with
+  // one big message within a round through it, rather than each message growing the first time it gets one itself.
+  // Only touched by the producer.
+  private int largestData;
+  private int largestSessions;
+  
+  // The pool holds twice the capacity, so the messages being handled and the producer's spare never run it dry.
+  public NetworkMessageQueue(int capacity)
+  {
+    messages = new SpscQueue<NetworkMessage>(capacity);
+    freeMessages = new SpscQueue<NetworkMessage>(capacity * 2);
+    
+    for (int i = 0; i < capacity * 2; i++)
+    {
+      freeMessages.offer(new NetworkMessage());
+    }
+    
+    spareMessage = null;
+    consumer = null;
+    largestData = 0;
+    largestSessions = 0;
+  }
+  
+  public void setConsumer(NetworkThread _consumer)
+  {
+    consumer = _consumer;
+  }
+  
+  // Returns false when the queue is full, in which case nothing was published.
+  public boolean publish(NetworkMessageType type, int sessionID, ByteBuffer source)
+  {
+    NetworkMessage message = claim();
+    message.set(type, sessionID, source);
+    return offer(message);
+  }
+  
+  public boolean publishInput(int sequence, int buttonMask)
+  {
+    NetworkMessage message = claim();
+    message.setInput(sequence, buttonMask);
+    return offer(message);
+  }
+  
+  public boolean publishSnapshot(ArrayList<Integer> sessionIDs, ByteBuffer source)
+  {
+    NetworkMessage message = claim();
+    message.set(NetworkMessageType.SNAPSHOT, -1, source);
+    
+    // addAll() would copy the list into a new array first.
+    if (sessionIDs != null)
+    {
+      for (int i = 0; i < sessionIDs.size(); i++)
+      {
+        message.sessionIDs.add(sessionIDs.get(i));
+      }
+    }
+    else
+    {
+      message.allSessions = true;
+    }
+    
+    return offer(message);
+  }
+  
+  public NetworkMessage poll()
+  {
+    return messages.poll();
+  }
+  
+  public void release(NetworkMessage message)
+  {
+    // A message allocated while the pool was empty is left to the garbage collector if the pool is full again.
+    freeMessages.offer(message);
+  }
+  
+  private NetworkMessage claim()
+  {
+    NetworkMessage message = spareMessage;
+    spareMessage = null;
+    
+    if (message == null)
+    {
+      message = freeMessages.poll();
+    }
+    
+    if (message == null)
+    {
+      message = new NetworkMessage();
+    }
+    
+    message.reserve(largestData, largestSessions);
+    return message;
+  }
+  
+  private boolean offer(NetworkMessage message)
+  {
+    largestData = max(largestData, message.data.capacity());
+    largestSessions = max(largestSessions, message.sessionIDs.size());
+    
+    if (!messages.offer(message))
+    {
+      spareMessage = message;
+      return false;
+    }
+    
+    NetworkThread thread = consumer;
+    if (thread != null)
+    {
+      thread.wake();
+    }
+    
+    return true;
+  }
+}
+
+
+public class OutboundFrame
+{
+  public ByteBuffer[] buffers;
+  public boolean replaceable;
+  public boolean started;
+  
+  // The broadcast frame the buffers are views of, or null if they belong to this frame alone.
+  public SharedFrame sharedFrame;
+  
+  public OutboundFrame(ByteBuffer[] _buffers, boolean _replaceable, SharedFrame _sharedFrame)
+  {
+    buffers = _buffers;
+    replaceable = _replaceable;
+    started = false;
+    sharedFrame = _sharedFrame;
+  }
+}
+
+
+// A message framed once for broadcasting. The body is copied a single time into direct memory and every part is
+// read-only, so each connection can send its own duplicate of the same memory with a gathering write. The direct buffers
+// are kept and refilled by the next broadcast once every OutboundQueue holding this frame has sent or discarded it.
+public class SharedFrame
+{
+  private SharedFramePool pool;
+  private ByteBuffer header;
+  private ByteBuffer body;
+  private ByteBuffer[] buffers;
+  private int references;
+  
+  public SharedFrame(SharedFramePool _pool)
+  {
+    pool = _pool;
+    header = ByteBuffer.allocateDirect(FRAME_HEADER_LENGTH);
+    body = ByteBuffer.allocateDirect(1024);
+    buffers = null;
+    references = 0;
+  }
+  
+  // Only grows the body when the message does not fit.
+  public void fill(ByteBuffer message, byte frameType)
+  {
+    if (body.capacity() < message.remaining())
+    {
+      body = ByteBuffer.allocateDirect(max(message.remaining(), body.capacity() * 2));
+    }
+    
+    body.clear();
+    body.put(message);
+    body.flip();
+    
+    if (FRAMING_MODE == FramingMode.SENTINEL)
+    {
+      ByteBuffer[] frame = { ByteBuffer.wrap(BEGIN_SEQUENCE).asReadOnlyBuffer(), body.asReadOnlyBuffer(), ByteBuffer.wrap(END_SEQUENCE).asReadOnlyBuffer() };
+      buffers = frame;
+      return;
+    }
+    
+    header.clear();
+    putFrameHeader(header, frameType, body.remaining());
+    header.flip();
+    
+    ByteBuffer[] frame = { header.asReadOnlyBuffer(), body.asReadOnlyBuffer() };
+    buffers = frame;
+  }
+  
+  public ByteBuffer[] getBuffers()
+  {
+    return buffers;
+  }
+  
+  synchronized public void retain()
+  {
+    references++;
+  }
+  
+  public void release()
+  {
+    boolean unused;
+    synchronized(this)
+    {
+      references--;
+      unused = references == 0;
+    }
+    
+    if (unused)
+    {
+      pool.free(this);
+    }
+  }
+}
+
+
+public class SharedFramePool
+{
+  private ArrayList<SharedFrame> freeFrames;
+  
+  public SharedFramePool()
+  {
+    freeFrames = new ArrayList<SharedFrame>();
+  }
+  
+  // The caller holds one reference, and must release it once it has offered the frame to every queue.
+  synchronized public SharedFrame acquire(ByteBuffer message, byte frameType)
+  {
+    SharedFrame frame = freeFrames.isEmpty() ? new SharedFrame(this) : freeFrames.remove(freeFrames.size() - 1);
+    frame.fill(message, frameType);
+    frame.retain();
+    return frame;
+  }
+  
+  synchronized public void free(SharedFrame frame)
+  {
+    freeFrames.add(frame);
+  }
+  
+  synchronized public int size()
+  {
+    return freeFrames.size();
+  }
+}
+
+
+// A bounded queue of frames waiting to be sent to one connection. Snapshots are replaceable: once the queue is full,
+// SLOW_CONSUMER_POLICY decides whether stale snapshots make way for the newest, the newest is dropped, or the
+// connection is given up on. Control frames such as the session accept are always queued.
+public class OutboundQueue
+{
+  private LinkedList<OutboundFrame> frames;
+  private int capacity;
+  private SlowConsumerPolicy policy;
+  private boolean closed;
+  
+  private int maxDepth;
+  private int replacedFrames;
+  private int droppedFrames;
+  
+  public OutboundQueue(int _capacity, SlowConsumerPolicy _policy)
+  {
+    frames = new LinkedList<OutboundFrame>();
+    capacity = _capacity;
+    policy = _policy;
+    closed = false;
+    
+    maxDepth = 0;
+    replacedFrames = 0;
+    droppedFrames = 0;
+  }
+  
+  synchronized public boolean offer(ByteBuffer[] buffers, boolean replaceable)
+  {
+    return offer(buffers, replaceable, null);
+  }
+  
+  // Returns false when the policy is DISCONNECT and the consumer has fallen too far behind. A queued sharedFrame is
+  // retained until the frame is removed, replaced or the queue is closed.
+  synchronized public boolean offer(ByteBuffer[] buffers, boolean replaceable, SharedFrame sharedFrame)
+  {
+    if (closed)
+    {
+      return true;
+    }
+    
+    if (replaceable && frames.size() >= capacity)
+    {
+      if (policy == SlowConsumerPolicy.DISCONNECT)
+      {
+        return false;
+      }
+      else if (policy == SlowConsumerPolicy.DROP)
+      {
+        droppedFrames++;
+        return true;
+      }
+      
+      Iterator<OutboundFrame> iterator = frames.iterator();
+      while (iterator.hasNext())
+      {
+        OutboundFrame frame = iterator.next();
+        if (frame.replaceable && !frame.started)
+        {
+          iterator.remove();
+          release(frame);
+          replacedFrames++;
+        }
+      }
+    }
+    
+    if (sharedFrame != null)
+    {
+      sharedFrame.retain();
+    }
+    frames.addLast(new OutboundFrame(buffers, replaceable, sharedFrame));
+    maxDepth = max(maxDepth, frames.size());
+    notifyAll();
+    
+    return true;
+  }
+  
+  // Returns the frame being sent without removing it. Once peeked, a frame is never replaced.
+  synchronized public ByteBuffer[] peek()
+  {
+    if (frames.isEmpty())
+    {
+      return null;
+    }
+    
+    OutboundFrame frame = frames.getFirst();
+    frame.started = true;
+    return frame.buffers;
+  }
+  
+  synchronized public void remove()
+  {
+    release(frames.removeFirst());
+  }
+  
+  // Blocks until a frame is available, then removes and returns it. Returns null once the queue is closed. The caller
+  // still reads the buffers after this returns, so shared frames should be sent through peek() and remove() instead.
+  synchronized public ByteBuffer[] take()
+  {
+    while (frames.isEmpty() && !closed)
+    {
+      try
+      {
+        wait();
+      }
+      catch (InterruptedException e)
+      {
+        return null;
+      }
+    }
+    
+    if (closed)
+    {
+      return null;
+    }
+    
+    return frames.removeFirst().buffers;
+  }
+  
+  synchronized public void close()
+  {
+    closed = true;
+    for (OutboundFrame frame : frames)
+    {
+      release(frame);
+    }
+    frames.clear();
+    notifyAll();
+  }
+  
+  private void release(OutboundFrame frame)
+  {
+    if (frame.sharedFrame != null)
+    {
+      frame.sharedFrame.release();
+    }
+  }
+  
+  synchronized public boolean isEmpty()
+  {
+    return frames.isEmpty();
+  }
+  
+  synchronized public int depth()
+  {
+    return frames.size();
+  }
+  
+  synchronized public int getMaxDepth()
+  {
+    return maxDepth;
+  }
+  
+  synchronized public int getReplacedFrames()
+  {
+    return replacedFrames;
+  }
+  
+  synchronized public int getDroppedFrames()
+  {
+    return droppedFrames;
+  }
+  
+  synchronized public String getMetrics()
+  {
+    return "depth " + frames.size() + "/" + capacity + ", max " + maxDepth + ", replaced " + replacedFrames + ", dropped " + droppedFrames;
+  }
+}
+
+
+// The client's last few input commands, encoded into packets that are allocated once and rewritten in place.
+public class InputCommandStream
+{
+  private int[] sequences;
+  private int[] buttonMasks;
+  private int count;
+  
+  private byte[] frame;
+  private ByteBuffer frameBuffer;
+  
+  public InputCommandStream()
+  {
+    sequences = new int[INPUT_REDUNDANCY];
+    buttonMasks = new int[INPUT_REDUNDANCY];
+    count = 0;
+    
+    frame = new byte[FRAME_HEADER_LENGTH + INPUT_PACKET_LENGTH];
+    frameBuffer = ByteBuffer.wrap(frame);
+  }
+  
+  public void add(int sequence, int buttonMask)
+  {
+    for (int i = INPUT_REDUNDANCY - 1; i > 0; i--)
+    {
+      sequences[i] = sequences[i - 1];
+      buttonMasks[i] = buttonMasks[i - 1];
+    }
+    
+    sequences[0] = sequence;
+    buttonMasks[0] = buttonMask;
+    count = min(count + 1, INPUT_REDUNDANCY);
+  }
+  
+  public boolean isEmpty()
+  {
+    return count == 0;
+  }
+  
+  public void clear()
+  {
+    count = 0;
+  }
+  
+  // Always length-prefixed, since a sentinel frame cannot say it holds input. Receivers accept both framings.
+  public byte[] getFrame()
+  {
+    frameBuffer.clear();
+    putFrameHeader(frameBuffer, FRAME_TYPE_INPUT, INPUT_PACKET_LENGTH);
+    putCommands(frameBuffer);
+    return frame;
+  }
+  
+  // Unused slots are still written so that every packet has the same length.
+  private void putCommands(ByteBuffer packet)
+  {
+    packet.put((byte)count);
+    
+    for (int i = 0; i < INPUT_REDUNDANCY; i++)
+    {
+      packet.putInt(sequences[i]);
+      packet.put((byte)buttonMasks[i]);
+    }
+  }
+}
+
+
+// The client's end of the optional snapshot datagram channel. It announces the session to the server until the first
+// snapshot datagram arrives, then keeps only the newest snapshot and rejects anything older or duplicated.
+public class ClientDatagramChannel
+{
+  private DatagramChannel channel;
+  
+  // Lets the network thread wait for a datagram. wakeup() may come from any thread.
+  private volatile Selector selector;
+  private ByteBuffer receiveBuffer;
+  private ByteBuffer latestBuffer;
+  private boolean hasLatest;
+  
+  // The session the server admitted, and the key it gave for it. Hellos wait for the key.
+  private int sessionID;
+  private int key;
+  private boolean hasKey;
+  
+  private boolean receivedAny;
+  private int lastSequence;
+  private int helloAttempts;
+  private int lastHelloTime;
+  private int rejectedDatagrams;
+  
+  private ConnectionMetrics metrics;
+  
+  public ClientDatagramChannel(ConnectionMetrics _metrics)
+  {
+    channel = null;
+    selector = null;
+    receiveBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    latestBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    hasLatest = false;
+    
+    sessionID = -1;
+    key = 0;
+    hasKey = false;
+    
+    receivedAny = false;
+    lastSequence = 0;
+    helloAttempts = 0;
+    lastHelloTime = 0;
+    rejectedDatagrams = 0;
+    
+    metrics = _metrics;
+  }
+  
+  public boolean open(String host, int port)
+  {
+    try
+    {
+      channel = DatagramChannel.open();
+      channel.configureBlocking(false);
+      channel.connect(new InetSocketAddress(host, port));
+      
+      selector = Selector.open();
+      channel.register(selector, SelectionKey.OP_READ);
+      return true;
+    }
+    catch (IOException e)
+    {
+      println("Snapshot datagrams unavailable: " + e.getMessage());
+      close();
+      return false;
+    }
+  }
+  
+  public boolean isOpen()
+  {
+    return channel != null;
+  }
+  
+  public void close()
+  {
+    if (channel != null)
+    {
+      try
+      {
+        channel.close();
+      }
+      catch (IOException e)
+      {
+      }
+      
+      channel = null;
+    }
+    
+    if (selector != null)
+    {
+      try
+      {
+        selector.close();
+      }
+      catch (IOException e)
+      {
+      }
+      
+      selector = null;
+    }
+    
+    hasLatest = false;
+    hasKey = false;
+    receivedAny = false;
+    helloAttempts = 0;
+  }
+  
+  public void setKey(int _sessionID, int _key)
+  {
+    sessionID = _sessionID;
+    key = _key;
+    hasKey = true;
+  }
+  
+  // Blocks until a datagram arrives, wakeup() is called or timeout milliseconds pass. Returns false straight away if the
+  // channel is not open, for the caller to wait some other way.
+  public boolean await(long timeout)
+  {
+    if (selector == null)
+    {
+      return false;
+    }
+    
+    try
+    {
+      selector.select(timeout);
+      selector.selectedKeys().clear();
+    }
+    catch (IOException e)
+    {
+    }
+    
+    return true;
+  }
+  
+  public void wakeup()
+  {
+    Selector current = selector;
+    if (current != null)
+    {
+      current.wakeup();
+    }
+  }
+  
+  // Hellos are cheap and may be lost, so they repeat until snapshots start arriving or the attempts run out.
+  public void sendHello()
+  {
+    if (channel == null || !hasKey || receivedAny || helloAttempts >= DATAGRAM_HELLO_ATTEMPTS)
+    {
+      return;
+    }
+    
+    if (helloAttempts > 0 && millis() - lastHelloTime < DATAGRAM_HELLO_INTERVAL)
+    {
+      return;
+    }
+    
+    ByteBuffer hello = ByteBuffer.allocate(DATAGRAM_HEADER_LENGTH);
+    putDatagramHeader(hello, FRAME_TYPE_DATAGRAM_HELLO, sessionID, key, 0);
+    hello.flip();
+    
+    try
+    {
+      metrics.recordSent(channel.write(hello));
+    }
+    catch (IOException e)
+    {
+    }
+    
+    helloAttempts++;
+    lastHelloTime = millis();
+  }
+  
+  // Drains every waiting datagram and returns a read-only view of the newest snapshot payload, or null.
+  public ByteBuffer receiveLatest()
+  {
+    if (channel == null)
+    {
+      return null;
+    }
+    
+    hasLatest = false;
+    
+    try
+    {
+      while (true)
+      {
+        receiveBuffer.clear();
+        
+        if (channel.receive(receiveBuffer) == null)
+        {
+          break;
+        }
+        
+        receiveBuffer.flip();
+        metrics.recordReceived(receiveBuffer.remaining());
+        
+        if (!isValidDatagram(receiveBuffer) || (receiveBuffer.get(3) != FRAME_TYPE_FLAT_MESSAGE && receiveBuffer.get(3) != FRAME_TYPE_COMPRESSED_FLAT_MESSAGE))
+        {
+          rejectedDatagrams++;
+          continue;
+        }
+        
+        // The channel is connected, so only the server's address and port get here, but those are easy to forge.
+        if (!hasKey || receiveBuffer.getInt(4) != sessionID || receiveBuffer.getInt(8) != key)
+        {
+          rejectedDatagrams++;
+          continue;
+        }
+        
+        int sequence = receiveBuffer.getInt(12);
+        
+        // Signed difference so the comparison survives the sequence wrapping around.
+        if (receivedAny && sequence - lastSequence <= 0)
+        {
+          rejectedDatagrams++;
+          continue;
+        }
+        
+        receivedAny = true;
+        lastSequence = sequence;
+        hasLatest = true;
+        metrics.recordSnapshotSize(receiveBuffer.remaining() - DATAGRAM_HEADER_LENGTH);
+        
+        ByteBuffer swap = latestBuffer;
+        latestBuffer = receiveBuffer;
+        receiveBuffer = swap;
+      }
+    }
+    catch (IOException e)
+    {
+      // Usually an ICMP port unreachable because the server has no datagram channel. TCP still carries everything.
+    }
+    
+    if (!hasLatest)
+    {
+      return null;
+    }
+    
+    ByteBuffer payload = latestBuffer.asReadOnlyBuffer();
+    payload.position(DATAGRAM_HEADER_LENGTH);
+    return payload;
+  }
+  
+  // Whether the payload receiveLatest() last returned is compressed.
+  public boolean isLatestCompressed()
+  {
+    return latestBuffer.get(3) == FRAME_TYPE_COMPRESSED_FLAT_MESSAGE;
+  }
+  
+  public int getRejectedDatagrams()
+  {
+    return rejectedDatagrams;
+  }
+}
+
+
+public class MSClient implements IClient, INetworkPoller
+{
+  private static final int BUFFER_SIZE = 102400;
+  
+  // Written by the game loop on connect and disconnect, and read by the network thread.
+  private volatile Client pClient;
+  private NetworkReceiveBuffer receiveBuffer;
+  private IClientCallbackHandler handler;
+  private ClientDatagramChannel datagramChannel;
+  private volatile int sessionID;
+  private volatile int resumeToken;
+  
+  private NetworkPollMode pollMode;
+  private volatile NetworkThread networkThread;
+  private NetworkMessageQueue receivedMessages;
+  private NetworkMessageQueue sentMessages;
+  
+  private InputCommandStream inputCommands;
+  
+  private ConnectionMetrics metrics;
+  private int lastMetricsLogTime;
+  
+  // Null unless snapshot compression is on. Used by whichever thread polls the network.
+  private SnapshotCompressor snapshotCompressor;
+  
+  // Connection attempts run on a thread of their own, so the game loop keeps drawing while the server is slow or down.
+  // Only the game loop starts and finishes attempts; connecting is also read by the network thread.
+  private volatile boolean connecting;
+  private FutureTask<Boolean> connectAttempt;
+  private volatile Thread connectThread;
+  private int retryDelay;
+  private int nextAttemptTime;
+  
+  
+  public MSClient(IClientCallbackHandler _handler)
+  {
+    this(_handler, USE_NETWORK_THREAD ? NetworkPollMode.OWN_THREAD : NetworkPollMode.IN_UPDATE);
+  }
+  
+  public MSClient(IClientCallbackHandler _handler, NetworkPollMode _pollMode)
+  {
+    pollMode = _pollMode;
+    pClient = null;
+    receiveBuffer = new NetworkReceiveBuffer(BUFFER_SIZE);
+    handler = _handler;
+    metrics = new ConnectionMetrics();
+    lastMetricsLogTime = millis();
+    datagramChannel = new ClientDatagramChannel(metrics);
+    sessionID = -1;
+    resumeToken = 0;
+    
+    networkThread = null;
+    receivedMessages = new NetworkMessageQueue(NETWORK_QUEUE_CAPACITY);
+    sentMessages = new NetworkMessageQueue(NETWORK_QUEUE_CAPACITY);
+    
+    inputCommands = new InputCommandStream();
+    
+    connecting = false;
+    connectAttempt = null;
+    connectThread = null;
+    retryDelay = CONNECT_RETRY_INITIAL_DELAY;
+    nextAttemptTime = 0;
+    
+    snapshotCompressor = null;
+    if (USE_SNAPSHOT_COMPRESSION && FRAMING_MODE == FramingMode.LENGTH_PREFIXED)
+    {
+      snapshotCompressor = new SnapshotCompressor();
+    }
+  }
+  
+  // Returns straight away. The client keeps trying from update(), backing off between attempts, until it is connected
+  // or disconnect() is called.
+  @Override public void connect()
+  {
+    if (connecting || isConnected())
+    {
+      return;
+    }
+    
+    println("Connecting to main server.");
+    startConnecting();
+  }
+  
+  @Override public boolean isConnecting()
+  {
+    return connecting;
+  }
+  
+  private void startConnecting()
+  {
+    connecting = true;
+    retryDelay = CONNECT_RETRY_INITIAL_DELAY;
+    nextAttemptTime = millis();
+  }
+  
+  // Called by the game loop while connecting.
+  private void updateConnecting()
+  {
+    if (connectAttempt == null)
+    {
+      if (millis() - nextAttemptTime >= 0)
+      {
+        connectAttempt = new FutureTask<Boolean>(new Callable<Boolean>()
+        {
+          @Override public Boolean call()
+          {
+            return openConnection();
+          }
+        });
+        
+        connectThread = new Thread(connectAttempt, "Client connect");
+        connectThread.setDaemon(true);
+        connectThread.start();
+      }
+      return;
+    }
+    
+    if (!connectAttempt.isDone())
+    {
+      return;
+    }
+    
+    boolean connected = finishConnectAttempt();
+    
+    if (!connected)
+    {
+      // Up to half of the delay is random, so that screens which lost the server together do not all retry at once.
+      int delay = retryDelay / 2 + (int)random(retryDelay / 2);
+      println("Failed to connect, retrying in " + delay + " ms.");
+      nextAttemptTime = millis() + delay;
+      retryDelay = min(retryDelay * 2, CONNECT_RETRY_MAX_DELAY);
+      return;
+    }
+    
+    // Queues are only ever shared with one network thread, so each connection starts with fresh ones.
+    receivedMessages = new NetworkMessageQueue(NETWORK_QUEUE_CAPACITY);
+    sentMessages = new NetworkMessageQueue(NETWORK_QUEUE_CAPACITY);
+    
+    if (pollMode == NetworkPollMode.OWN_THREAD)
+    {
+      networkThread = new NetworkThread(this, "Client network");
+      sentMessages.setConsumer(networkThread);
+      networkThread.start();
+    }
+    
+    connecting = false;
+    println("Client connected.");
+  }
+  
+  // Waits for the attempt in flight, if it has not finished yet.
+  private boolean finishConnectAttempt()
+  {
+    boolean connected = false;
+    
+    try
+    {
+      connected = connectAttempt.get();
+    }
+    catch (InterruptedException e)
+    {
+    }
+    catch (ExecutionException e)
+    {
+      println("Connection attempt failed: " + e.getCause());
+    }
+    
+    connectAttempt = null;
+    connectThread = null;
+    return connected;
+  }
+  
+  // Runs on the connect thread, which has the connection to itself until the attempt is finished.
+  private boolean openConnection()
+  {
+    receiveBuffer.clear();
+    pClient = new Client(mainObject, MAIN_SERVER_IP, SERVER_CONNECT_PORT);
+    
+    if (!pClient.active())
+    {
+      pClient = null;
+      return false;
+    }
+    
+    if (SINGLE_PORT_ADMISSION)
+    {
+      // The session ID arrives with the first reply and is picked up in pollNetwork().
+      writeFrame(createControlMessage(SESSION_REQUEST_SEQUENCE, resumeToken));
+    }
+    else if (!redirectConnectionToSubServer())
+    {
+      println("Failed to connect to sub server.");
+      return false;
+    }
+    
+    // Compressed snapshots can be read as soon as the offer is sent, so there is no need to wait for the answer.
+    if (snapshotCompressor != null)
+    {
+      writeFrame(createControlMessage(COMPRESSION_OFFER_SEQUENCE, SNAPSHOT_COMPRESSION_FORMAT));
+    }
+    
+    return true;
+  }
+  
+  private boolean redirectConnectionToSubServer()
+  {
+    int initialTime = millis();
+    int currentTime = initialTime;
+    
+    while (currentTime - initialTime < TIME_OUT_LIMIT)
+    {
+      receiveBuffer.readFrom(pClient);
+      ByteBuffer message = receiveBuffer.nextMessage();
+      
+      if (message != null && isControlMessage(message, SUB_SERVER_CONNECT_SEQUENCE))
+      {
+        int subServerPort = parseControlMessageValue(message);
+        
+        pClient.stop();
+        receiveBuffer.clear();
+        pClient = new Client(mainObject, MAIN_SERVER_IP, subServerPort);
+        
+        if (pClient.active())
+        {
+          return true;
+        }
+        else
+        {
+          println("Failed to connect to given sub server port.");
+          pClient = null;
+          return false;
+        }
+      }
+      
+      // handleClientEvent() wakes this thread as soon as more of the reply arrives.
+      LockSupport.parkNanos(NETWORK_THREAD_MAX_WAIT * 1000000L);
+      currentTime = millis();
+    }
+    
+    pClient.stop();
+    pClient = null;
+    return false;
+  }
+  
+  // Hands every message the network thread has received to the handler, in order.
+  @Override public void update()
+  {
+    if (connecting)
+    {
+      updateConnecting();
+      return;
+    }
+    
+    if (pClient == null)
+    {
+      return;
+    }
+    
+    // Externally polled clients are left disconnected, since their poller may be partway through a pass over them.
+    if (!pClient.active() && pollMode != NetworkPollMode.EXTERNAL)
+    {
+      println("Lost the connection to the server, reconnecting.");
+      closeConnection();
+      startConnecting();
+      return;
+    }
+    
+    if (pollMode == NetworkPollMode.IN_UPDATE)
+    {
+      pollNetwork();
+    }
+    
+    NetworkMessage message = receivedMessages.poll();
+    
+    while (message != null)
+    {
+      metrics.recordArrival();
+      
+      long startTime = System.nanoTime();
+      handler.handleServerMessage(message.data);
+      metrics.recordParseTime(System.nanoTime() - startTime);
+      
+      receivedMessages.release(message);
+      message = receivedMessages.poll();
+    }
+  }
+  
+  // Does all of the socket work: reading and framing, answering pings, datagrams and sending whatever the game loop
+  // has queued. Runs on the network thread, or inside update() without one. Returns false if there was nothing to do.
+  @Override public boolean pollNetwork()
+  {
+    boolean busy = false;
+    
+    int length = receiveBuffer.readFrom(pClient);
+    metrics.recordBytesReceived(length);
+    busy |= length > 0;
+    
+    ByteBuffer message = receiveBuffer.nextMessage();
+    
+    while (message != null)
+    {
+      metrics.recordMessageReceived();
+      
+      if (receiveBuffer.getLastFrameType() == FRAME_TYPE_PING)
+      {
+        writeFrame(createPongMessage(message));
+      }
+      else if (receiveBuffer.getLastFrameType() == FRAME_TYPE_PONG)
+      {
+        metrics.recordRoundTripTime(getRoundTripTime(message));
+      }
+      else if (isControlMessage(message, COMPRESSION_ACCEPT_SEQUENCE))
+      {
+        println("Server agreed to compress snapshots.");
+      }
+      else if (receiveBuffer.getLastFrameType() == FRAME_TYPE_COMPRESSED_FLAT_MESSAGE)
+      {
+        metrics.recordSnapshotSize(message.remaining());
+        publishDecompressed(message);
+      }
+      else if (isControlMessage(message, SESSION_ACCEPT_SEQUENCE))
+      {
+        sessionID = parseControlMessageValue(message);
+        println("Admitted with session ID " + sessionID + ".");
+        
+        if (USE_DATAGRAM_SNAPSHOTS && !datagramChannel.isOpen())
+        {
+          datagramChannel.open(MAIN_SERVER_IP, SERVER_CONNECT_PORT);
+        }
+      }
+      else if (isControlMessage(message, DATAGRAM_KEY_SEQUENCE))
+      {
+        datagramChannel.setKey(sessionID, parseControlMessageValue(message));
+      }
+      else
+      {
+        metrics.recordSnapshotSize(message.remaining());
+        publishReceived(message);
+      }
+      
+      message = receiveBuffer.nextMessage();
+    }
+    
+    datagramChannel.sendHello();
+    
+    ByteBuffer latestSnapshot = datagramChannel.receiveLatest();
+    if (latestSnapshot != null)
+    {
+      if (datagramChannel.isLatestCompressed())
+      {
+        publishDecompressed(latestSnapshot);
+      }
+      else
+      {
+        publishReceived(latestSnapshot);
+      }
+      busy = true;
+    }
+    
+    NetworkMessage outgoingMessage = sentMessages.poll();
+    
+    while (outgoingMessage != null)
+    {
+      if (outgoingMessage.type == NetworkMessageType.INPUT)
+      {
+        inputCommands.add(outgoingMessage.data.getInt(0), outgoingMessage.data.get(4) & 0xFF);
+        if (isConnected())
+        {
+          writeFrame(inputCommands.getFrame());
+        }
+      }
+      else if (isConnected())
+      {
+        writeFrame(frameMessage(outgoingMessage.data, FRAME_TYPE_FLAT_MESSAGE));
+      }
+      
+      sentMessages.release(outgoingMessage);
+      outgoingMessage = sentMessages.poll();
+      busy = true;
+    }
+    
+    if (sessionID != -1 && isConnected() && metrics.isPingDue())
+    {
+      writeFrame(createPingMessage());
+    }
+    
+    // Whoever polls externally is expected to report on its clients itself.
+    if (pollMode != NetworkPollMode.EXTERNAL && NETWORK_METRICS_LOG_INTERVAL > 0 && millis() - lastMetricsLogTime >= NETWORK_METRICS_LOG_INTERVAL)
+    {
+      println("Client session " + sessionID + ": " + metrics.getReport());
+      if (snapshotCompressor != null)
+      {
+        println("Client " + snapshotCompressor.getReport());
+      }
+      lastMetricsLogTime = millis();
+    }
+    
+    return busy;
+  }
+  
+  // processing.net.Client cannot be selected on, so TCP data wakes this through handleClientEvent() instead.
+  @Override public void awaitNetwork()
+  {
+    if (!datagramChannel.await(NETWORK_THREAD_MAX_WAIT))
+    {
+      LockSupport.parkNanos(NETWORK_THREAD_MAX_WAIT * 1000000L);
+    }
+  }
+  
+  @Override public void wakeNetwork()
+  {
+    datagramChannel.wakeup();
+  }
+  
+  private void publishDecompressed(ByteBuffer compressedMessage)
+  {
+    ByteBuffer message = snapshotCompressor != null ? snapshotCompressor.decompress(compressedMessage) : null;
+    
+    if (message == null)
+    {
+      println("Dropping a compressed snapshot that could not be decompressed.");
+      return;
+    }
+    
+    publishReceived(message);
+  }
+  
+  // The game loop only drains the queue once a frame, so a full queue means it has stalled. Waiting here pushes back on
+  // the server through TCP instead of losing messages. A shared thread cannot wait on one client without stalling the
+  // others, so externally polled clients drop the message instead.
+  private void publishReceived(ByteBuffer message)
+  {
+    while (!receivedMessages.publish(NetworkMessageType.FLAT_MESSAGE, sessionID, message))
+    {
+      if (networkThread == null || !networkThread.isRunning())
+      {
+        println("Client receive queue full, dropping a message.");
+        return;
+      }
+      
+      networkThread.idle();
+    }
+  }
+  
+  @Override public void disconnect()
+  {
+    // An attempt in flight is waited for, so that the connection it may have opened is closed below.
+    if (connectAttempt != null)
+    {
+      finishConnectAttempt();
+    }
+    connecting = false;
+    
+    closeConnection();
+  }
+  
+  private void closeConnection()
+  {
+    if (networkThread != null)
+    {
+      networkThread.stop();
+      networkThread = null;
+    }
+    
+    if (isConnected())
+    {
+      pClient.stop();
+    }
+    pClient = null;
+    
+    datagramChannel.close();
+    inputCommands.clear();
+    sessionID = -1;
+  }
+  
+  public int getSessionID()
+  {
+    return sessionID;
+  }
+  
+  @Override public void setResumeToken(int _resumeToken)
+  {
+    resumeToken = _resumeToken;
+  }
+  
+  @Override public boolean isConnected()
+  {
+    Client client = pClient;
+    return !connecting && client != null && client.active();
+  }
+  
+  // Queued for the network thread. A full queue means the network thread has stalled, and the message is dropped
+  // rather than stalling the game loop too.
+  @Override public void write(ByteBuffer message)
+  {
+    if (isConnected() && !sentMessages.publish(NetworkMessageType.FLAT_MESSAGE, sessionID, message))
+    {
+      println("Client send queue full, dropping a message.");
+    }
+  }
+  
+  private void writeFrame(byte[] frame)
+  {
+    pClient.write(frame);
+    metrics.recordSent(frame.length);
+  }
+  
+  @Override public ConnectionMetrics getMetrics()
+  {
+    return metrics;
+  }
+  
+  @Override public void writeInput(int sequence, int buttonMask)
+  {
+    if (!sentMessages.publishInput(sequence, buttonMask))
+    {
+      println("Client send queue full, dropping an input command.");
+    }
+  }
+  
+  // Called on the Client's own thread whenever data arrives, for whichever thread is waiting to read it.
+  @Override public void handleClientEvent(Client p_pClient)
+  {
+    NetworkThread thread = networkThread;
+    if (thread != null)
+    {
+      thread.wake();
+    }
+    
+    Thread waitingConnectThread = connectThread;
+    if (waitingConnectThread != null)
+    {
+      LockSupport.unpark(waitingConnectThread);
+    }
+  }
+}
+
+public void serverEvent(Server p_pServer, Client p_pClient)
+{
+  mainServer.handleServerEvent(p_pServer, p_pClient);
+}
+
+public void clientEvent(Client p_pClient)
+{
+  if (mainClient != null)
+  {
+    mainClient.handleClientEvent(p_pClient);
+  }
+}
+
+public class MSServer implements IServer
+{
+  private Server pServer;
+  private HashMap<Server, SubServer> subServers;
+  private ArrayList<SubServer> mainPortSubServers;
+  private IServerCallbackHandler handler;
+  
+  private int nextSubServerPort;
+  private int nextSessionID;
+  private int lastMetricsLogTime;
+  
+  
+  public MSServer(IServerCallbackHandler _handler)
+  {
+    pServer = null;
+    subServers = new HashMap<Server, SubServer>();
+    mainPortSubServers = new ArrayList<SubServer>();
+    handler = _handler;
+    
+    nextSubServerPort = MAIN_SERVER_PORT + 1;
+    nextSessionID = 1;
+    lastMetricsLogTime = millis();
+  }
+  
+  @Override public boolean begin()
+  {
+    if (pServer == null)
+    {
+      pServer = new Server(mainObject, MAIN_SERVER_PORT);
+      
+      if (isActive())
+      {
+        println("Server started.");
+      }
+      else
+      {
+        println("Server failed to start.");
+        pServer = null;
+        return false;
+      }
+    }
+    
+    return true;
+  }
+  
+  @Override public void update()
+  {
+    if (isActive())
+    {
+      for (Map.Entry entry : subServers.entrySet())
+      {
+        SubServer subServer = (SubServer)entry.getValue();
+        subServer.update();
+      }
+      
+      synchronized(this)
+      {
+        for (int i = mainPortSubServers.size() - 1; i >= 0; i--)
+        {
+          SubServer subServer = mainPortSubServers.get(i);
+          if (subServer.isConnected())
+          {
+            subServer.update();
+          }
+          else
+          {
+            mainPortSubServers.remove(i);
+            
+            if (subServer.isAdmitted())
+            {
+              handler.handleClientDisconnect(subServer.sessionID);
+            }
+          }
+        }
+      }
+      
+      if (NETWORK_METRICS_LOG_INTERVAL > 0 && millis() - lastMetricsLogTime >= NETWORK_METRICS_LOG_INTERVAL)
+      {
+        print(getMetricsReport());
+        lastMetricsLogTime = millis();
+      }
+    }
+  }
+  
+  @Override public void end()
+  {
+    if (isActive())
+    {
+      for (Map.Entry entry : subServers.entrySet())
+      {
+        SubServer subServer = (SubServer)entry.getValue();
+        subServer.stop();
+      }
+      for (SubServer subServer : mainPortSubServers)
+      {
+        subServer.stop();
+      }
+      mainPortSubServers.clear();
+      pServer.stop();
+      pServer = null;
+    }
+  }
+  
+  @Override public boolean isActive()
+  {
+    return pServer != null && pServer.active();
+  }
+  
+  @Override public void write(ByteBuffer message)
+  {
+    if (isActive())
+    {
+      byte[] completeMessage = frameMessage(message, FRAME_TYPE_FLAT_MESSAGE);
+      
+      synchronized(this)
+      {
+        for (Map.Entry entry : subServers.entrySet())
+        {
+          SubServer subServer = (SubServer)entry.getValue();
+          subServer.write(completeMessage);
+        }
+        for (SubServer subServer : mainPortSubServers)
+        {
+          subServer.write(completeMessage);
+        }
+      }
+    }
+  }
+  
+  // processing.net has no datagram support, so snapshots always go over TCP here.
+  @Override public void writeUnreliable(ByteBuffer message)
+  {
+    write(message);
+  }
+  
+  @Override public void writeUnreliable(ArrayList<Integer> sessionIDs, ByteBuffer message)
+  {
+    if (isActive())
+    {
+      int snapshotSize = message.remaining();
+      byte[] completeMessage = frameMessage(message, FRAME_TYPE_FLAT_MESSAGE);
+      
+      synchronized(this)
+      {
+        for (Map.Entry entry : subServers.entrySet())
+        {
+          SubServer subServer = (SubServer)entry.getValue();
+          if (sessionIDs.contains(subServer.sessionID))
+          {
+            subServer.metrics.recordSnapshotSize(snapshotSize);
+            subServer.write(completeMessage);
+          }
+        }
+        for (SubServer subServer : mainPortSubServers)
+        {
+          if (sessionIDs.contains(subServer.sessionID))
+          {
+            subServer.metrics.recordSnapshotSize(snapshotSize);
+            subServer.write(completeMessage);
+          }
+        }
+      }
+    }
+  }
+  
+  // Only main port clients can resume, so only they are ever disconnected. update() notices and reports it.
+  @Override public synchronized void disconnect(int sessionID)
+  {
+    for (SubServer subServer : mainPortSubServers)
+    {
+      if (subServer.sessionID == sessionID)
+      {
+        subServer.stop();
+      }
+    }
+  }
+  
+  @Override public synchronized ConnectionMetrics getMetrics(int sessionID)
+  {
+    for (Map.Entry entry : subServers.entrySet())
+    {
+      SubServer subServer = (SubServer)entry.getValue();
+      if (subServer.sessionID == sessionID)
+      {
+        return subServer.metrics;
+      }
+    }
+    for (SubServer subServer : mainPortSubServers)
+    {
+      if (subServer.sessionID == sessionID)
+      {
+        return subServer.metrics;
+      }
+    }
+    
+    return null;
+  }
+  
+  @Override public synchronized String getMetricsReport()
+  {
+    String report = "";
+    
+    for (Map.Entry entry : subServers.entrySet())
+    {
+      report += ((SubServer)entry.getValue()).getMetricsReport() + "\n";
+    }
+    for (SubServer subServer : mainPortSubServers)
+    {
+      report += subServer.getMetricsReport() + "\n";
+    }
+    
+    return report;
+  }
+  
+  public synchronized String getOutboundQueueMetrics()
+  {
+    String metrics = "";
+    
+    for (Map.Entry entry : subServers.entrySet())
+    {
+      metrics += ((SubServer)entry.getValue()).getOutboundQueueMetrics() + "\n";
+    }
+    for (SubServer subServer : mainPortSubServers)
+    {
+      metrics += subServer.getOutboundQueueMetrics() + "\n";
+    }
+    
+    return metrics;
+  }
+  
+  @Override public void handleServerEvent(Server p_pServer, Client p_pClient)
+  {
+    if (p_pServer == pServer)
+    {
+      synchronized(this)
+      {
+        if (SINGLE_PORT_ADMISSION)
+        {
+          // The client stays on the main port and is admitted once its session request arrives.
+          mainPortSubServers.add(new SubServer(this, p_pClient));
+        }
+        else
+        {
+          spawnNewSubServer(nextSubServerPort);
+          sendConnectionRedirectMessage(p_pClient);
+          nextSubServerPort++;
+        }
+      }
+    }
+    else
+    {
+      SubServer subServer = subServers.get(p_pServer);
+      if (subServer != null)
+      {
+        subServer.handleServerEvent(p_pClient);
+      }
+    }
+  }
+  
+  private void spawnNewSubServer(int nextSubServerPort)
+  {
+    SubServer subServer = new SubServer(this, nextSubServerPort);
+    subServers.put(subServer.pServer, subServer);
+  }
+  
+  private void sendConnectionRedirectMessage(Client p_pClient)
+  {
+    p_pClient.write(createConnectionRedirectMessage(nextSubServerPort));
+  }
+  
+  public IServerCallbackHandler getHandler()
+  {
+    return handler;
+  }
+  
+  public synchronized int claimSessionID()
+  {
+    return nextSessionID++;
+  }
+  
+  private class SubServer
+  {
+    private static final int SUB_SERVER_BUFFER_SIZE = 10240;
+    
+    private MSServer mainServer;
+    private Client pClient;
+    private NetworkReceiveBuffer receiveBuffer;
+    private OutboundQueue outboundQueue;
+    private int sessionID;
+    private int lastInputSequence;
+    
+    public Server pServer;
+    public ConnectionMetrics metrics;
+    
+    
+    public SubServer(MSServer _mainServer, int subServerPort)
+    {
+      mainServer = _mainServer;
+      pClient = null;
+      receiveBuffer = new NetworkReceiveBuffer(SUB_SERVER_BUFFER_SIZE);
+      outboundQueue = new OutboundQueue(OUTBOUND_QUEUE_CAPACITY, SLOW_CONSUMER_POLICY);
+      sessionID = -1;
+      lastInputSequence = 0;
+      
+      pServer = new Server(mainObject, subServerPort);
+      metrics = new ConnectionMetrics();
+    }
+    
+    // A sub server for a client that connected to the main port. It has no Server of its own.
+    public SubServer(MSServer _mainServer, Client _pClient)
+    {
+      mainServer = _mainServer;
+      pClient = _pClient;
+      receiveBuffer = new NetworkReceiveBuffer(SUB_SERVER_BUFFER_SIZE);
+      outboundQueue = new OutboundQueue(OUTBOUND_QUEUE_CAPACITY, SLOW_CONSUMER_POLICY);
+      sessionID = -1;
+      lastInputSequence = 0;
+      
+      pServer = null;
+      metrics = new ConnectionMetrics();
+    }
+    
+    public void handleServerEvent(Client p_pClient)
+    {
+      assert(pClient == null);
+      pClient = p_pClient;
+      
+      // Redirected clients never send a session request, so they cannot resume.
+      admit(0);
+    }
+    
+    private void admit(int resumeToken)
+    {
+      sessionID = mainServer.claimSessionID();
+      startWriter();
+      writeControl(createControlMessage(SESSION_ACCEPT_SEQUENCE, sessionID));
+      
+      ByteBuffer initMessage = mainServer.getHandler().getNewClientInitializationMessage(sessionID, resumeToken);
+      if (initMessage != null)
+      {
+        writeControl(frameMessage(initMessage, FRAME_TYPE_FLAT_MESSAGE));
+      }
+    }
+    
+    // Client.write blocks on the socket, so each admitted client is drained by its own thread instead of the draw loop.
+    private void startWriter()
+    {
+      Thread writer = new Thread(new Runnable()
+      {
+        @Override public void run()
+        {
+          ByteBuffer[] frame = outboundQueue.take();
+          
+          while (frame != null && isConnected())
+          {
+            pClient.write(frame[0].array());
+            metrics.recordSent(frame[0].capacity());
+            frame = outboundQueue.take();
+          }
+        }
+      });
+      
+      writer.setDaemon(true);
+      writer.start();
+    }
+    
+    public void update()
+    {
+      metrics.recordBytesReceived(receiveBuffer.readFrom(pClient));
+      
+      ByteBuffer message = null;
+      
+      do
+      {
+        message = receiveBuffer.nextMessage();
+        
+        if (message != null)
+        {
+          metrics.recordMessageReceived();
+          
+          if (isControlMessage(message, SESSION_REQUEST_SEQUENCE))
+          {
+            if (!isAdmitted())
+            {
+              admit(parseControlMessageValue(message));
+            }
+          }
+          else if (isControlMessage(message, COMPRESSION_OFFER_SEQUENCE))
+          {
+            // Not supported here, so the client keeps getting plain snapshots.
+          }
+          else if (isAdmitted() && receiveBuffer.getLastFrameType() == FRAME_TYPE_INPUT)
+          {
+            lastInputSequence = dispatchInputCommands(message, sessionID, lastInputSequence, mainServer.getHandler());
+          }
+          else if (isAdmitted() && receiveBuffer.getLastFrameType() == FRAME_TYPE_PING)
+          {
+            writeControl(createPongMessage(message));
+          }
+          else if (isAdmitted() && receiveBuffer.getLastFrameType() == FRAME_TYPE_PONG)
+          {
+            metrics.recordRoundTripTime(getRoundTripTime(message));
+          }
+          else if (isAdmitted())
+          {
+            metrics.recordArrival();
+            
+            long startTime = System.nanoTime();
+            mainServer.getHandler().handleClientMessage(sessionID, message);
+            metrics.recordParseTime(System.nanoTime() - startTime);
+          }
+        }
+      }
+      while (message != null);
+      
+      if (isAdmitted() && metrics.isPingDue())
+      {
+        writeControl(createPingMessage());
+      }
+    }
+    
+    public boolean isAdmitted()
+    {
+      return sessionID != -1;
+    }
+    
+    // Snapshots may be replaced or dropped by the slow consumer policy.
+    public void write(byte[] message)
+    { 
+      if (isConnected() && isAdmitted())
+      {
+        ByteBuffer[] frame = { ByteBuffer.wrap(message) };
+        
+        if (!outboundQueue.offer(frame, true))
+        {
+          println("Disconnecting slow client with session ID " + sessionID + ".");
+          stop();
+        }
+      }
+    }
+    
+    private void writeControl(byte[] message)
+    {
+      ByteBuffer[] frame = { ByteBuffer.wrap(message) };
+      outboundQueue.offer(frame, false);
+    }
+    
+    public String getOutboundQueueMetrics()
+    {
+      return "Session " + sessionID + ": " + outboundQueue.getMetrics();
+    }
+    
+    public String getMetricsReport()
+    {
+      return "Session " + sessionID + ": " + metrics.getReport() + "\n  queue: " + outboundQueue.getMetrics();
+    }
+    
+    public boolean isConnected()
+    {
+      return pClient != null && pClient.active();
+    }
+    
+    public void stop()
+    {
+      outboundQueue.close();
+      
+      if (pServer != null)
+      {
+        pServer.stop();
+      }
+      else if (pClient != null)
+      {
+        pClient.stop();
+      }
+    }
+  }
+}
+
+// Serves every client from a single non-blocking java.nio Selector, so no thread or listening socket is created per
+// client. With USE_NETWORK_THREAD the Selector lives on a NetworkThread: it blocks in select() until a socket is ready
+// or the game loop queues a message, which wakes it, then accepts new connections, reads whatever each socket has ready,
+// sends the queued messages and flushes any writes the kernel could not take immediately. update() only hands messages
+// between that thread and the game loop. Without the thread, update() does one non-blocking pass of the same work.
+public class MSSelectorServer implements IServer, INetworkPoller
+{
+  private static final int CONNECTION_BUFFER_SIZE = 10240;
+  
+  private volatile Selector selector;
+  private volatile ServerSocketChannel mainChannel;
+  private DatagramChannel datagramChannel;
+  private ByteBuffer datagramBuffer;
+  private IServerCallbackHandler handler;
+  
+  // Owned by the network thread. The game loop only reads it to look up metrics, so changes lock it.
+  private ArrayList<SelectorConnection> connections;
+  
+  private int nextSubServerPort;
+  private int nextSessionID;
+  private int nextSnapshotSequence;
+  private SecureRandom datagramKeyGenerator;
+  private int lastMetricsLogTime;
+  
+  // Null unless snapshot compression is on. Only used by the network thread.
+  private SnapshotCompressor snapshotCompressor;
+  
+  // Direct memory for broadcast frames, reused once every connection has sent them.
+  private SharedFramePool sharedFramePool;
+  
+  // One snapshot datagram per variant, rewritten in place for each snapshot; index 1 holds the compressed one. send()
+  // copies the datagram out before returning, so they are free again as soon as sendSnapshot() is done. The shared
+  // frames for clients without datagrams are likewise only held for the length of one sendSnapshot().
+  private ByteBuffer[] snapshotDatagrams;
+  private boolean[] snapshotDatagramsBuilt;
+  private SharedFrame[] snapshotFrames;
+  
+  private NetworkThread networkThread;
+  private NetworkMessageQueue receivedMessages;
+  private NetworkMessageQueue sentMessages;
+  
+  // Only touched by the game loop. Input commands arrive over both TCP and UDP, and repeat, so the last sequence
+  // handled for each session filters them down to the new ones.
+  private HashMap<Integer, Integer> lastInputSequences;
+  private HashMap<Integer, ConnectionMetrics> sessionMetrics;
+  
+  
+  public MSSelectorServer(IServerCallbackHandler _handler)
+  {
+    selector = null;
+    mainChannel = null;
+    datagramChannel = null;
+    datagramBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    connections = new ArrayList<SelectorConnection>();
+    handler = _handler;
+    
+    nextSubServerPort = MAIN_SERVER_PORT + 1;
+    nextSessionID = 1;
+    nextSnapshotSequence = 1;
+    datagramKeyGenerator = new SecureRandom();
+    lastMetricsLogTime = millis();
+    
+    snapshotCompressor = null;
+    if (USE_SNAPSHOT_COMPRESSION && FRAMING_MODE == FramingMode.LENGTH_PREFIXED)
+    {
+      snapshotCompressor = new SnapshotCompressor();
+    }
+    
+    sharedFramePool = new SharedFramePool();
+    
+    snapshotDatagrams = new ByteBuffer[2];
+    snapshotDatagrams[0] = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    snapshotDatagrams[1] = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    snapshotDatagramsBuilt = new boolean[2];
+    snapshotFrames = new SharedFrame[2];
+    
+    networkThread = null;
+    receivedMessages = new NetworkMessageQueue(NETWORK_QUEUE_CAPACITY);
+    sentMessages = new NetworkMessageQueue(NETWORK_QUEUE_CAPACITY);
+    lastInputSequences = new HashMap<Integer, Integer>();
+    sessionMetrics = new HashMap<Integer, ConnectionMetrics>();
+  }
+  
+  @Override public boolean begin()
+  {
+    if (selector == null)
+    {
+      try
+      {
+        selector = Selector.open();
+        mainChannel = openServerChannel(MAIN_SERVER_PORT);
+        println("Server started.");
+      }
+      catch (IOException e)
+      {
+        println("Server failed to start: " + e.getMessage());
+        end();
+        return false;
+      }
+      
+      if (USE_DATAGRAM_SNAPSHOTS)
+      {
+        openDatagramChannel();
+      }
+      
+      if (USE_NETWORK_THREAD)
+      {
+        networkThread = new NetworkThread(this, "Server network");
+        sentMessages.setConsumer(networkThread);
+        networkThread.start();
+      }
+    }
+    
+    return true;
+  }
+  
+  // Datagrams are optional; without them every snapshot simply stays on TCP.
+  private void openDatagramChannel()
+  {
+    try
+    {
+      datagramChannel = DatagramChannel.open();
+      datagramChannel.configureBlocking(false);
+      datagramChannel.socket().setReuseAddress(true);
+      datagramChannel.socket().bind(new InetSocketAddress(MAIN_SERVER_PORT));
+      datagramChannel.register(selector, SelectionKey.OP_READ);
+    }
+    catch (IOException e)
+    {
+      println("Snapshot datagrams unavailable: " + e.getMessage());
+      
+      try
+      {
+        datagramChannel.close();
+      }
+      catch (IOException closeException)
+      {
+      }
+      
+      datagramChannel = null;
+    }
+  }
+  
+  private ServerSocketChannel openServerChannel(int port) throws IOException
+  {
+    ServerSocketChannel serverChannel = ServerSocketChannel.open();
+    serverChannel.configureBlocking(false);
+    serverChannel.socket().setReuseAddress(true);
+    serverChannel.socket().bind(new InetSocketAddress(port));
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    return serverChannel;
+  }
+  
+  // Hands everything the network thread has received to the handler, in order.
+  @Override public void update()
+  {
+    if (!isActive())
+    {
+      return;
+    }
+    
+    if (!USE_NETWORK_THREAD)
+    {
+      pollNetwork();
+    }
+    
+    NetworkMessage message = receivedMessages.poll();
+    
+    while (message != null)
+    {
+      handleReceivedMessage(message);
+      receivedMessages.release(message);
+      message = receivedMessages.poll();
+    }
+  }
+  
+  private void handleReceivedMessage(NetworkMessage message)
+  {
+    switch (message.type)
+    {
+      case ADMITTED:
+        lastInputSequences.put(message.sessionID, 0);
+        sessionMetrics.put(message.sessionID, getMetrics(message.sessionID));
+        
+        ByteBuffer initMessage = handler.getNewClientInitializationMessage(message.sessionID, message.data.getInt(0));
+        if (initMessage != null && !sentMessages.publish(NetworkMessageType.INITIALIZATION, message.sessionID, initMessage))
+        {
+          println("Server send queue full, dropping the initialization message for session ID " + message.sessionID + ".");
+        }
+        break;
+        
+      case DISCONNECTED:
+        lastInputSequences.remove(message.sessionID);
+        sessionMetrics.remove(message.sessionID);
+        handler.handleClientDisconnect(message.sessionID);
+        break;
+        
+      case INPUT:
+        if (lastInputSequences.containsKey(message.sessionID))
+        {
+          int lastInputSequence = dispatchInputCommands(message.data, message.sessionID, lastInputSequences.get(message.sessionID), handler);
+          lastInputSequences.put(message.sessionID, lastInputSequence);
+        }
+        break;
+        
+      case FLAT_MESSAGE:
+        long startTime = System.nanoTime();
+        handler.handleClientMessage(message.sessionID, message.data);
+        
+        ConnectionMetrics metrics = sessionMetrics.get(message.sessionID);
+        if (metrics != null)
+        {
+          metrics.recordParseTime(System.nanoTime() - startTime);
+        }
+        break;
+        
+      default:
+        println("Unexpected network message: " + message.type);
+        assert(false);
+    }
+  }
+  
+  // Does all of the socket work: accepting, reading and framing, admission, pings, datagrams and sending whatever the
+  // game loop has queued. Runs on the network thread, or inside update() without one. On the network thread it blocks
+  // in select() until a socket is ready or wakeNetwork() is called, so it never needs awaitNetwork().
+  @Override public boolean pollNetwork()
+  {
+    try
+    {
+      if (USE_NETWORK_THREAD)
+      {
+        selector.select(NETWORK_THREAD_MAX_WAIT);
+      }
+      else
+      {
+        selector.selectNow();
+      }
+    }
+    catch (IOException e)
+    {
+      println("Server select failed: " + e.getMessage());
+      return false;
+    }
+    
+    Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+    
+    while (selectedKeys.hasNext())
+    {
+      SelectionKey key = selectedKeys.next();
+      selectedKeys.remove();
+      
+      if (!key.isValid())
+      {
+        continue;
+      }
+      
+      if (key.isAcceptable())
+      {
+        accept((ServerSocketChannel)key.channel());
+      }
+      else if (key.channel() == datagramChannel)
+      {
+        receiveDatagrams();
+      }
+      else
+      {
+        SelectorConnection connection = (SelectorConnection)key.attachment();
+        
+        if (key.isReadable())
+        {
+          connection.read();
+        }
+        
+        if (key.isValid() && key.isWritable())
+        {
+          connection.flush();
+        }
+      }
+    }
+    
+    sendQueuedMessages();
+    
+    for (int i = connections.size() - 1; i >= 0; i--)
+    {
+      SelectorConnection connection = connections.get(i);
+      if (connection.isAdmitted() && connection.metrics.isPingDue())
+      {
+        connection.write(createPingMessage());
+      }
+    }
+    
+    if (NETWORK_METRICS_LOG_INTERVAL > 0 && millis() - lastMetricsLogTime >= NETWORK_METRICS_LOG_INTERVAL)
+    {
+      print(getMetricsReport());
+      if (snapshotCompressor != null)
+      {
+        println("Server " + snapshotCompressor.getReport());
+      }
+      lastMetricsLogTime = millis();
+    }
+    
+    return true;
+  }
+  
+  // Sends everything the game loop has queued. Only called on the network thread, or by the self-check once that thread
+  // is stopped.
+  private void sendQueuedMessages()
+  {
+    NetworkMessage message = sentMessages.poll();
+    
+    while (message != null)
+    {
+      if (message.type == NetworkMessageType.SNAPSHOT)
+      {
+        sendSnapshot(message.allSessions ? null : message.sessionIDs, message.data);
+      }
+      else if (message.type == NetworkMessageType.INITIALIZATION)
+      {
+        SelectorConnection connection = getConnection(message.sessionID);
+        if (connection != null)
+        {
+          connection.write(frameMessage(message.data, FRAME_TYPE_FLAT_MESSAGE));
+        }
+      }
+      else if (message.type == NetworkMessageType.CLOSE)
+      {
+        SelectorConnection connection = getConnection(message.sessionID);
+        if (connection != null)
+        {
+          connection.close();
+        }
+      }
+      else
+      {
+        sendToAll(message.data);
+      }
+      
+      sentMessages.release(message);
+      message = sentMessages.poll();
+    }
+  }
+  
+  @Override public void awaitNetwork()
+  {
+  }
+  
+  @Override public void wakeNetwork()
+  {
+    Selector current = selector;
+    if (current != null)
+    {
+      current.wakeup();
+    }
+  }
+  
+  // The game loop only drains the queue once a frame, so a full queue means it has stalled. Waiting here stops this
+  // thread reading, which pushes back on the clients through TCP instead of losing messages.
+  private void publishReceived(NetworkMessageType type, int sessionID, ByteBuffer message)
+  {
+    while (!receivedMessages.publish(type, sessionID, message))
+    {
+      if (!USE_NETWORK_THREAD || !networkThread.isRunning())
+      {
+        println("Server receive queue full, dropping a message.");
+        return;
+      }
+      
+      networkThread.idle();
+    }
+  }
+  
+  private void accept(ServerSocketChannel serverChannel)
+  {
+    SocketChannel channel = null;
+    
+    try
+    {
+      channel = serverChannel.accept();
+      
+      if (channel == null)
+      {
+        return;
+      }
+      
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      
+      SelectorConnection connection = new SelectorConnection(channel);
+      
+      if (serverChannel == mainChannel && SINGLE_PORT_ADMISSION)
+      {
+        // The client stays on the main port and is admitted once its session request arrives.
+        synchronized(connections)
+        {
+          connections.add(connection);
+        }
+      }
+      else if (serverChannel == mainChannel)
+      {
+        // Legacy handshake: hand out a one-shot port on this same selector.
+        openServerChannel(nextSubServerPort);
+        connection.write(createConnectionRedirectMessage(nextSubServerPort));
+        connection.closeWhenFlushed();
+        nextSubServerPort++;
+      }
+      else
+      {
+        // The redirected client has arrived, so its port is no longer needed.
+        serverChannel.keyFor(selector).cancel();
+        serverChannel.close();
+        
+        synchronized(connections)
+        {
+          connections.add(connection);
+        }
+        
+        // Redirected clients never send a session request, so they cannot resume.
+        admit(connection, 0);
+      }
+    }
+    catch (IOException e)
+    {
+      println("Failed to accept client: " + e.getMessage());
+      
+      if (channel != null)
+      {
+        try
+        {
+          channel.close();
+        }
+        catch (IOException closeException)
+        {
+        }
+      }
+    }
+  }
+  
+  private void admit(SelectorConnection connection, int resumeToken)
+  {
+    connection.sessionID = nextSessionID++;
+    connection.datagramKey = datagramKeyGenerator.nextInt();
+    connection.write(createControlMessage(SESSION_ACCEPT_SEQUENCE, connection.sessionID));
+    connection.write(createControlMessage(DATAGRAM_KEY_SEQUENCE, connection.datagramKey));
+    
+    // The initialization message comes from the game, so the game loop queues it once it hears about the session.
+    ByteBuffer token = ByteBuffer.allocate(4);
+    token.putInt(0, resumeToken);
+    publishReceived(NetworkMessageType.ADMITTED, connection.sessionID, token);
+  }
+  
+  // Clients send hellos, which tell the server where to send that session's snapshots. See DATAGRAM_HEADER_LENGTH.
+  private void receiveDatagrams()
+  {
+    try
+    {
+      while (true)
+      {
+        datagramBuffer.clear();
+        SocketAddress address = datagramChannel.receive(datagramBuffer);
+        
+        if (address == null)
+        {
+          return;
+        }
+        
+        datagramBuffer.flip();
+        
+        if (!isValidDatagram(datagramBuffer))
+        {
+          continue;
+        }
+        
+        SelectorConnection connection = getConnection(datagramBuffer.getInt(4));
+        
+        // A hello has to come from the host that owns the session and carry its key. Without the key another
+        // process on that host could still take over its snapshots. The snapshots then go to exactly the address and
+        // port the hello came from.
+        if (connection == null || datagramBuffer.getInt(8) != connection.datagramKey
+          || !((InetSocketAddress)address).getAddress().equals(connection.getRemoteAddress()))
+        {
+          continue;
+        }
+        
+        connection.metrics.recordReceived(datagramBuffer.remaining());
+        
+        if (datagramBuffer.get(3) == FRAME_TYPE_DATAGRAM_HELLO)
+        {
+          connection.datagramAddress = address;
+        }
+      }
+    }
+    catch (IOException e)
+    {
+      println("Failed to receive datagram: " + e.getMessage());
+    }
+  }
+  
+  private SelectorConnection getConnection(int sessionID)
+  {
+    for (SelectorConnection connection : connections)
+    {
+      if (connection.sessionID == sessionID)
+      {
+        return connection;
+      }
+    }
+    
+    return null;
+  }
+  
+  @Override public void end()
+  {
+    if (networkThread != null)
+    {
+      networkThread.stop();
+      networkThread = null;
+    }
+    
+    if (selector != null)
+    {
+      for (SelectionKey key : selector.keys())
+      {
+        try
+        {
+          key.channel().close();
+        }
+        catch (IOException e)
+        {
+        }
+      }
+      
+      try
+      {
+        selector.close();
+      }
+      catch (IOException e)
+      {
+      }
+    }
+    
+    synchronized(connections)
+    {
+      connections.clear();
+    }
+    selector = null;
+    mainChannel = null;
+    datagramChannel = null;
+  }
+  
+  @Override public boolean isActive()
+  {
+    return selector != null && mainChannel != null && mainChannel.isOpen();
+  }
+  
+  // Queued for the network thread. A full queue means the network thread has stalled, and the message is dropped
+  // rather than stalling the game loop too.
+  @Override public void write(ByteBuffer message)
+  {
+    if (isActive() && !sentMessages.publish(NetworkMessageType.FLAT_MESSAGE, -1, message))
+    {
+      println("Server send queue full, dropping a message.");
+    }
+  }
+  
+  private void sendToAll(ByteBuffer message)
+  {
+    if (isActive())
+    {
+      SharedFrame sharedFrame = sharedFramePool.acquire(message, FRAME_TYPE_FLAT_MESSAGE);
+      
+      for (int i = connections.size() - 1; i >= 0; i--)
+      {
+        SelectorConnection connection = connections.get(i);
+        if (connection.isAdmitted())
+        {
+          connection.write(sharedFrame);
+        }
+      }
+      
+      sharedFrame.release();
+    }
+  }
+  
+  @Override public void writeUnreliable(ByteBuffer message)
+  {
+    writeUnreliable(null, message);
+  }
+  
+  // A null list means every admitted client.
+  @Override public void writeUnreliable(ArrayList<Integer> sessionIDs, ByteBuffer message)
+  {
+    if (isActive() && !sentMessages.publishSnapshot(sessionIDs, message))
+    {
+      println("Server send queue full, dropping a snapshot.");
+    }
+  }
+  
+  // Sends the snapshot as one datagram to every listed client that has said hello, and over TCP to the rest. Clients that
+  // agreed to compression get it deflated, which is done at most once however many of them there are.
+  private void sendSnapshot(ArrayList<Integer> sessionIDs, ByteBuffer message)
+  {
+    int sequence = nextSnapshotSequence++;
+    
+    ByteBuffer compressedMessage = null;
+    boolean compressionTried = false;
+    
+    // Built the first time a client needs them; index 1 holds the compressed versions.
+    snapshotDatagramsBuilt[0] = false;
+    snapshotDatagramsBuilt[1] = false;
+    
+    for (int i = connections.size() - 1; i >= 0; i--)
+    {
+      SelectorConnection connection = connections.get(i);
+      
+      if (!connection.isAdmitted() || (sessionIDs != null && !containsSession(sessionIDs, connection.sessionID)))
+      {
+        continue;
+      }
+      
+      if (connection.compressSnapshots && !compressionTried)
+      {
+        compressedMessage = snapshotCompressor.compress(message);
+        compressionTried = true;
+      }
+      
+      boolean compressed = connection.compressSnapshots && compressedMessage != null;
+      int variant = compressed ? 1 : 0;
+      ByteBuffer payload = compressed ? compressedMessage : message;
+      byte frameType = compressed ? FRAME_TYPE_COMPRESSED_FLAT_MESSAGE : FRAME_TYPE_FLAT_MESSAGE;
+      
+      connection.metrics.recordSnapshotSize(payload.remaining());
+      
+      if (datagramChannel != null && connection.datagramAddress != null && DATAGRAM_HEADER_LENGTH + payload.remaining() <= MAX_DATAGRAM_SIZE)
+      {
+        ByteBuffer datagram = snapshotDatagrams[variant];
+        if (!snapshotDatagramsBuilt[variant])
+        {
+          int payloadPosition = payload.position();
+          datagram.clear();
+          putDatagramHeader(datagram, frameType, 0, 0, sequence);
+          datagram.put(payload);
+          datagram.flip();
+          payload.position(payloadPosition);
+          snapshotDatagramsBuilt[variant] = true;
+        }
+        
+        try
+        {
+          // Every session shares the payload, so only the session ID and key are written for each.
+          datagram.putInt(4, connection.sessionID);
+          datagram.putInt(8, connection.datagramKey);
+          
+          // A full socket buffer just loses this datagram, which the next snapshot supersedes anyway.
+          datagram.rewind();
+          connection.metrics.recordSent(datagramChannel.send(datagram, connection.datagramAddress));
+        }
+        catch (IOException e)
+        {
+          println("Failed to send datagram: " + e.getMessage());
+        }
+      }
+      else
+      {
+        if (snapshotFrames[variant] == null)
+        {
+          int payloadPosition = payload.position();
+          snapshotFrames[variant] = sharedFramePool.acquire(payload, frameType);
+          payload.position(payloadPosition);
+        }
+        
+        connection.write(snapshotFrames[variant]);
+      }
+    }
+    
+    for (int variant = 0; variant < snapshotFrames.length; variant++)
+    {
+      if (snapshotFrames[variant] != null)
+      {
+        snapshotFrames[variant].release();
+        snapshotFrames[variant] = null;
+      }
+    }
+  }
+  
+  // ArrayList.contains() would box the session ID.
+  private boolean containsSession(ArrayList<Integer> sessionIDs, int sessionID)
+  {
+    for (int i = 0; i < sessionIDs.size(); i++)
+    {
+      if (sessionIDs.get(i) == sessionID)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  // The network thread closes it, and reports the disconnect back like any other.
+  @Override public void disconnect(int sessionID)
+  {
+    if (isActive() && !sentMessages.publish(NetworkMessageType.CLOSE, sessionID, null))
+    {
+      println("Server send queue full, could not close session ID " + sessionID + ".");
+    }
+  }
+  
+  public String getOutboundQueueMetrics()
+  {
+    String metrics = "";
+    
+    synchronized(connections)
+    {
+      for (SelectorConnection connection : connections)
+      {
+        metrics += connection.getOutboundQueueMetrics() + "\n";
+      }
+    }
+    
+    return metrics;
+  }
+  
+  @Override public ConnectionMetrics getMetrics(int sessionID)
+  {
+    synchronized(connections)
+    {
+      SelectorConnection connection = getConnection(sessionID);
+      return connection != null ? connection.metrics : null;
+    }
+  }
+  
+  @Override public String getMetricsReport()
+  {
+    String report = "";
+    
+    synchronized(connections)
+    {
+      for (SelectorConnection connection : connections)
+      {
+        report += "Session " + connection.sessionID + ": " + connection.metrics.getReport() + "\n  queue: " + connection.outboundQueue.getMetrics() + "\n";
+      }
+    }
+    
+    return report;
+  }
+  
+  @Override public void handleServerEvent(Server p_pServer, Client p_pClient)
+  {
+    // processing.net events never reach this server; connections are accepted in update().
+  }
+  
+  public IServerCallbackHandler getHandler()
+  {
+    return handler;
+  }
+  
+  private class SelectorConnection
+  {
+    private SocketChannel channel;
+    private SelectionKey key;
+    private NetworkReceiveBuffer receiveBuffer;
+    private OutboundQueue outboundQueue;
+    
+    // -1 until the connection has been admitted; only admitted connections reach the handler.
+    public int sessionID;
+    
+    // Where snapshot datagrams go, or null to keep this connection's snapshots on TCP. Only a hello that carries
+    // datagramKey can set it.
+    public SocketAddress datagramAddress;
+    public int datagramKey;
+    
+    // Set once the client has offered to read SNAPSHOT_COMPRESSION_FORMAT.
+    public boolean compressSnapshots;
+    
+    public ConnectionMetrics metrics;
+    
+    // Set on connections that only exist to deliver one message, such as a legacy redirect.
+    private boolean closeWhenFlushed;
+    
+    
+    public SelectorConnection(SocketChannel _channel) throws IOException
+    {
+      channel = _channel;
+      key = channel.register(selector, SelectionKey.OP_READ, this);
+      receiveBuffer = new NetworkReceiveBuffer(CONNECTION_BUFFER_SIZE);
+      outboundQueue = new OutboundQueue(OUTBOUND_QUEUE_CAPACITY, SLOW_CONSUMER_POLICY);
+      sessionID = -1;
+      datagramAddress = null;
+      datagramKey = 0;
+      compressSnapshots = false;
+      metrics = new ConnectionMetrics();
+      closeWhenFlushed = false;
+    }
+    
+    public InetAddress getRemoteAddress()
+    {
+      return channel.socket().getInetAddress();
+    }
+    
+    public boolean isAdmitted()
+    {
+      return sessionID != -1;
+    }
+    
+    public void read()
+    {
+      try
+      {
+        int length;
+        
+        do
+        {
+          length = receiveBuffer.readFrom(channel);
+          
+          if (length > 0)
+          {
+            metrics.recordBytesReceived(length);
+            handleMessages();
+          }
+        }
+        while (length > 0 && key.isValid());
+        
+        if (length < 0)
+        {
+          close();
+        }
+      }
+      catch (IOException e)
+      {
+        close();
+      }
+    }
+    
+    private void handleMessages()
+    {
+      ByteBuffer message = null;
+      
+      do
+      {
+        message = receiveBuffer.nextMessage();
+        
+        if (message == null)
+        {
+          break;
+        }
+        
+        metrics.recordMessageReceived();
+        
+        if (isControlMessage(message, SESSION_REQUEST_SEQUENCE))
+        {
+          if (!isAdmitted())
+          {
+            admit(this, parseControlMessageValue(message));
+          }
+        }
+        else if (isControlMessage(message, COMPRESSION_OFFER_SEQUENCE))
+        {
+          // Only agree on a format this server writes; otherwise the client just gets plain snapshots.
+          int format = parseControlMessageValue(message);
+          if (snapshotCompressor != null && format == SNAPSHOT_COMPRESSION_FORMAT)
+          {
+            compressSnapshots = true;
+            write(createControlMessage(COMPRESSION_ACCEPT_SEQUENCE, format));
+          }
+        }
+        else if (isAdmitted() && receiveBuffer.getLastFrameType() == FRAME_TYPE_INPUT)
+        {
+          publishReceived(NetworkMessageType.INPUT, sessionID, message);
+        }
+        else if (isAdmitted() && receiveBuffer.getLastFrameType() == FRAME_TYPE_PING)
+        {
+          write(createPongMessage(message));
+        }
+        else if (isAdmitted() && receiveBuffer.getLastFrameType() == FRAME_TYPE_PONG)
+        {
+          metrics.recordRoundTripTime(getRoundTripTime(message));
+        }
+        else if (isAdmitted())
+        {
+          metrics.recordArrival();
+          publishReceived(NetworkMessageType.FLAT_MESSAGE, sessionID, message);
+        }
+      }
+      while (message != null);
+    }
+    
+    // Control frames are never discarded by the slow consumer policy.
+    public void write(byte[] message)
+    {
+      ByteBuffer[] frame = { ByteBuffer.wrap(message) };
+      write(frame, false);
+    }
+    
+    // Broadcast frames are replaceable, and share their memory with every other connection they are written to.
+    public void write(SharedFrame sharedFrame)
+    {
+      write(duplicateFrame(sharedFrame.getBuffers()), true, sharedFrame);
+    }
+    
+    public void write(ByteBuffer[] frame, boolean replaceable)
+    {
+      write(frame, replaceable, null);
+    }
+    
+    private void write(ByteBuffer[] frame, boolean replaceable, SharedFrame sharedFrame)
+    {
+      if (!key.isValid())
+      {
+        return;
+      }
+      
+      if (!outboundQueue.offer(frame, replaceable, sharedFrame))
+      {
+        println("Disconnecting slow client with session ID " + sessionID + ".");
+        close();
+        return;
+      }
+      
+      flush();
+    }
+    
+    public String getOutboundQueueMetrics()
+    {
+      return "Session " + sessionID + ": " + outboundQueue.getMetrics();
+    }
+    
+    // Closes the connection as soon as everything queued on it has been written.
+    public void closeWhenFlushed()
+    {
+      closeWhenFlushed = true;
+      
+      if (outboundQueue.peek() == null)
+      {
+        close();
+      }
+    }
+    
+    // Writes as much as the socket will take without blocking; the remainder waits for OP_WRITE.
+    public void flush()
+    {
+      try
+      {
+        ByteBuffer[] pendingWrite = outboundQueue.peek();
+        
+        while (pendingWrite != null)
+        {
+          metrics.recordBytesSent(channel.write(pendingWrite));
+          
+          if (pendingWrite[pendingWrite.length - 1].hasRemaining())
+          {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            return;
+          }
+          
+          outboundQueue.remove();
+          metrics.recordMessageSent();
+          pendingWrite = outboundQueue.peek();
+        }
+        
+        if (closeWhenFlushed)
+        {
+          close();
+          return;
+        }
+        
+        key.interestOps(SelectionKey.OP_READ);
+      }
+      catch (IOException e)
+      {
+        close();
+      }
+    }
+    
+    public void close()
+    {
+      key.cancel();
+      
+      try
+      {
+        channel.close();
+      }
+      catch (IOException e)
+      {
+      }
+      
+      outboundQueue.close();
+      
+      boolean removed;
+      synchronized(connections)
+      {
+        removed = connections.remove(this);
+      }
+      
+      if (removed && isAdmitted())
+      {
+        publishReceived(NetworkMessageType.DISCONNECTED, sessionID, null);
+      }
+    }
+  }
+}
+
+
+// How a NetworkImpairmentProxy treats traffic in each direction. Delays are in milliseconds and bandwidth in bytes per
+// second, with 0 meaning unlimited.
+public class ImpairmentProfile
+{
+  public int delay;
+  
+  // Each packet is delayed a further random amount up to this.
+  public int jitter;
+  
+  // The chance that a datagram is dropped. TCP cannot lose bytes, so a "lost" segment is instead held back by
+  // TCP_RETRANSMIT_DELAY, stalling everything behind it the way a retransmission would.
+  public float loss;
+  
+  // The chance that a datagram is held back long enough for the ones after it to overtake it.
+  public float reorder;
+  
+  public int bandwidth;
+  
+  public ImpairmentProfile()
+  {
+    this(0, 0, 0.0f, 0.0f, 0);
+  }
+  
+  public ImpairmentProfile(int _delay, int _jitter, float _loss, float _reorder, int _bandwidth)
+  {
+    delay = _delay;
+    jitter = _jitter;
+    loss = _loss;
+    reorder = _reorder;
+    bandwidth = _bandwidth;
+  }
+  
+  public void fromXML(XML xmlProfile)
+  {
+    delay = xmlProfile.getInt("delay", 0);
+    jitter = xmlProfile.getInt("jitter", 0);
+    loss = xmlProfile.getFloat("loss", 0.0f);
+    reorder = xmlProfile.getFloat("reorder", 0.0f);
+    bandwidth = xmlProfile.getInt("bandwidth", 0);
+  }
+  
+  public String toString()
+  {
+    return "delay " + delay + " ms, jitter " + jitter + " ms, loss " + loss + ", reorder " + reorder + ", bandwidth " + bandwidth + " B/s";
+  }
+}
+
+
+public class ImpairmentStep
+{
+  public int time;
+  public ImpairmentProfile profile;
+  
+  public ImpairmentStep(int _time, ImpairmentProfile _profile)
+  {
+    time = _time;
+    profile = _profile;
+  }
+}
+
+
+public class ImpairedPacket
+{
+  public ByteBuffer data;
+  public int deliveryTime;
+  public long order;
+  
+  // Where a datagram goes once it is delivered. Unused for TCP.
+  public SocketAddress address;
+  
+  public ImpairedPacket(ByteBuffer _data, int _deliveryTime, long _order, SocketAddress _address)
+  {
+    data = _data;
+    deliveryTime = _deliveryTime;
+    order = _order;
+    address = _address;
+  }
+}
+
+
+// One direction of one connection through the proxy. TCP links deliver in order, so a held back segment holds back
+// everything after it. Datagram links deliver whatever is due, in delivery time order.
+public class ImpairedLink
+{
+  private NetworkImpairmentProxy proxy;
+  private boolean ordered;
+  private LinkedList<ImpairedPacket> orderedPackets;
+  private PriorityQueue<ImpairedPacket> unorderedPackets;
+  private int linkFreeTime;
+  private int lastDeliveryTime;
+  private long nextOrder;
+  
+  public ImpairedLink(NetworkImpairmentProxy _proxy, boolean _ordered)
+  {
+    proxy = _proxy;
+    ordered = _ordered;
+    orderedPackets = new LinkedList<ImpairedPacket>();
+    unorderedPackets = new PriorityQueue<ImpairedPacket>(16, new Comparator<ImpairedPacket>()
+    {
+      @Override public int compare(ImpairedPacket a, ImpairedPacket b)
+      {
+        if (a.deliveryTime != b.deliveryTime)
+        {
+          return a.deliveryTime - b.deliveryTime;
+        }
+        return Long.compare(a.order, b.order);
+      }
+    });
+    linkFreeTime = 0;
+    lastDeliveryTime = 0;
+    nextOrder = 0;
+  }
+  
+  // Copies the readable bytes of data and schedules them, unless the profile drops them.
+  public void schedule(ByteBuffer data, SocketAddress address)
+  {
+    ImpairmentProfile profile = proxy.getProfile();
+    int currentTime = millis();
+    
+    int deliveryTime = currentTime;
+    if (profile.bandwidth > 0)
+    {
+      linkFreeTime = Math.max(linkFreeTime, currentTime) + (int)(data.remaining() * 1000L / profile.bandwidth);
+      deliveryTime = linkFreeTime;
+    }
+    deliveryTime += profile.delay + proxy.nextJitter(profile.jitter);
+    
+    if (proxy.nextChance(profile.loss))
+    {
+      if (!ordered)
+      {
+        proxy.countDroppedDatagram();
+        return;
+      }
+      
+      deliveryTime += TCP_RETRANSMIT_DELAY;
+    }
+    else if (!ordered && proxy.nextChance(profile.reorder))
+    {
+      proxy.countReorderedDatagram();
+      deliveryTime += Math.max(profile.delay + profile.jitter, MIN_REORDER_DELAY);
+    }
+    
+    ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+    copy.put(data);
+    copy.flip();
+    
+    if (ordered)
+    {
+      deliveryTime = Math.max(deliveryTime, lastDeliveryTime);
+      lastDeliveryTime = deliveryTime;
+      orderedPackets.addLast(new ImpairedPacket(copy, deliveryTime, nextOrder++, address));
+    }
+    else
+    {
+      unorderedPackets.add(new ImpairedPacket(copy, deliveryTime, nextOrder++, address));
+    }
+  }
+  
+  // Returns the next packet that is due without removing it, or null.
+  public ImpairedPacket peekDue()
+  {
+    ImpairedPacket packet = ordered ? orderedPackets.peekFirst() : unorderedPackets.peek();
+    
+    if (packet == null || packet.deliveryTime - millis() > 0)
+    {
+      return null;
+    }
+    
+    return packet;
+  }
+  
+  // Milliseconds until the next packet is due, or limit if nothing is due before then.
+  public int getTimeUntilDue(int limit)
+  {
+    ImpairedPacket packet = ordered ? orderedPackets.peekFirst() : unorderedPackets.peek();
+    
+    if (packet == null)
+    {
+      return limit;
+    }
+    
+    return constrain(packet.deliveryTime - millis(), 0, limit);
+  }
+  
+  public void remove()
+  {
+    if (ordered)
+    {
+      orderedPackets.removeFirst();
+    }
+    else
+    {
+      unorderedPackets.poll();
+    }
+  }
+}
+
+
+// A TCP connection through the proxy: the client's socket, the proxy's own socket to the server, and a link each way.
+public class ImpairedConnection
+{
+  public SocketChannel clientChannel;
+  public SocketChannel serverChannel;
+  public ImpairedLink upstream;
+  public ImpairedLink downstream;
+  
+  public ImpairedConnection(SocketChannel _clientChannel, SocketChannel _serverChannel, NetworkImpairmentProxy proxy)
+  {
+    clientChannel = _clientChannel;
+    serverChannel = _serverChannel;
+    upstream = new ImpairedLink(proxy, true);
+    downstream = new ImpairedLink(proxy, true);
+  }
+}
+
+
+// Each client datagram address gets its own socket to the server, so replies can be matched back to the client.
+public class ImpairedDatagramRoute
+{
+  public SocketAddress clientAddress;
+  public DatagramChannel serverChannel;
+  public ImpairedLink upstream;
+  public ImpairedLink downstream;
+  
+  public ImpairedDatagramRoute(SocketAddress _clientAddress, DatagramChannel _serverChannel, NetworkImpairmentProxy proxy)
+  {
+    clientAddress = _clientAddress;
+    serverChannel = _serverChannel;
+    upstream = new ImpairedLink(proxy, false);
+    downstream = new ImpairedLink(proxy, false);
+  }
+}
+
+
+// A loopback proxy that sits between clients and the server on one machine and impairs the traffic both ways. It
+// listens for TCP and UDP on one port and forwards to the server's, running on its own thread so that its timing does
+// not depend on the frame rate.
+//
+// Every decision comes from one Random seeded up front, and the profile can be changed while running or follow a
+// script of timed steps, so a test can replay the same conditions. How TCP splits the stream into reads still varies
+// from run to run, so TCP timing is only as repeatable as the segments it produces.
+public class NetworkImpairmentProxy
+{
+  private static final int PROXY_BUFFER_SIZE = 65536;
+  
+  private int listenPort;
+  private InetSocketAddress serverAddress;
+  private Random random;
+  
+  private ImpairmentProfile profile;
+  private ArrayList<ImpairmentStep> script;
+  private int nextStep;
+  private int startTime;
+  
+  private volatile Selector selector;
+  private ServerSocketChannel listenChannel;
+  private DatagramChannel datagramChannel;
+  private ByteBuffer readBuffer;
+  private ArrayList<ImpairedConnection> connections;
+  private HashMap<SocketAddress, ImpairedDatagramRoute> datagramRoutes;
+  
+  private Thread thread;
+  private volatile boolean running;
+  private volatile boolean disconnectRequested;
+  
+  private int droppedDatagrams;
+  private int reorderedDatagrams;
+  
+  
+  public NetworkImpairmentProxy(int _listenPort, String serverHost, int serverPort, long seed)
+  {
+    listenPort = _listenPort;
+    serverAddress = new InetSocketAddress(serverHost, serverPort);
+    random = new Random(seed);
+    
+    profile = new ImpairmentProfile();
+    script = new ArrayList<ImpairmentStep>();
+    nextStep = 0;
+    startTime = 0;
+    
+    selector = null;
+    listenChannel = null;
+    datagramChannel = null;
+    readBuffer = ByteBuffer.allocateDirect(PROXY_BUFFER_SIZE);
+    connections = new ArrayList<ImpairedConnection>();
+    datagramRoutes = new HashMap<SocketAddress, ImpairedDatagramRoute>();
+    
+    thread = null;
+    running = false;
+    disconnectRequested = false;
+    
+    droppedDatagrams = 0;
+    reorderedDatagrams = 0;
+  }
+  
+  // Loads a script such as:
+  //   <Impairment seed="7">
+  //     <Step time="0" delay="40" jitter="10" loss="0.01" reorder="0.01" bandwidth="0"/>
+  //     <Step time="5000" delay="150" jitter="50" loss="0.05"/>
+  //   </Impairment>
+  // Step times are milliseconds after begin(). A seed in the script replaces the one given to the constructor.
+  synchronized public void loadScript(String fileName)
+  {
+    XML xmlImpairment = loadXML(fileName);
+    
+    if (xmlImpairment.hasAttribute("seed"))
+    {
+      random = new Random(xmlImpairment.getInt("seed"));
+    }
+    
+    for (XML xmlStep : xmlImpairment.getChildren("Step"))
+    {
+      ImpairmentProfile stepProfile = new ImpairmentProfile();
+      stepProfile.fromXML(xmlStep);
+      addStep(xmlStep.getInt("time"), stepProfile);
+    }
+  }
+  
+  // Steps must be added in time order.
+  synchronized public void addStep(int time, ImpairmentProfile stepProfile)
+  {
+    script.add(new ImpairmentStep(time, stepProfile));
+  }
+  
+  synchronized public void setProfile(ImpairmentProfile _profile)
+  {
+    profile = _profile;
+  }
+  
+  synchronized public ImpairmentProfile getProfile()
+  {
+    return profile;
+  }
+  
+  // Closes every proxied TCP connection on the next pass, as if the network had dropped them.
+  public void disconnectAll()
+  {
+    disconnectRequested = true;
+    
+    Selector current = selector;
+    if (current != null)
+    {
+      current.wakeup();
+    }
+  }
+  
+  public boolean begin()
+  {
+    if (running)
+    {
+      return true;
+    }
+    
+    try
+    {
+      selector = Selector.open();
+      
+      listenChannel = ServerSocketChannel.open();
+      listenChannel.configureBlocking(false);
+      listenChannel.socket().setReuseAddress(true);
+      listenChannel.socket().bind(new InetSocketAddress(listenPort));
+      listenChannel.register(selector, SelectionKey.OP_ACCEPT);
+      
+      datagramChannel = DatagramChannel.open();
+      datagramChannel.configureBlocking(false);
+      datagramChannel.socket().bind(new InetSocketAddress(listenPort));
+      datagramChannel.register(selector, SelectionKey.OP_READ);
+    }
+    catch (IOException e)
+    {
+      println("Impairment proxy failed to start: " + e.getMessage());
+      closeAll();
+      return false;
+    }
+    
+    startTime = millis();
+    running = true;
+    
+    thread = new Thread(new Runnable()
+    {
+      @Override public void run()
+      {
+        while (running)
+        {
+          step();
+        }
+        
+        closeAll();
+      }
+    });
+    
+    thread.setDaemon(true);
+    thread.start();
+    
+    println("Impairment proxy forwarding port " + listenPort + " to " + serverAddress.getPort() + ".");
+    return true;
+  }
+  
+  public void end()
+  {
+    running = false;
+    
+    if (thread != null)
+    {
+      selector.wakeup();
+      
+      try
+      {
+        thread.join();
+      }
+      catch (InterruptedException e)
       {
-        bytes[bytes.length - i - 1] = END_SEQUENCE[END_SEQUENCE.length - i - 1];
       }
       
-      pClient.write(bytes);
+      thread = null;
     }
   }
-}
-
-public void serverEvent(Server p_pServer, Client p_pClient)
-{
-  mainServer.handleServerEvent(p_pServer, p_pClient);
-}
-
-public class MSServer implements IServer
-{
-  private Server pServer;
-  private HashMap<Server, SubServer> subServers;
-  private IServerCallbackHandler handler;
   
-  private int nextSubServerPort;
+  synchronized public int getDroppedDatagrams()
+  {
+    return droppedDatagrams;
+  }
+  
+  synchronized public int getReorderedDatagrams()
+  {
+    return reorderedDatagrams;
+  }
+  
+  synchronized public void countDroppedDatagram()
+  {
+    droppedDatagrams++;
+  }
+  
+  synchronized public void countReorderedDatagram()
+  {
+    reorderedDatagrams++;
+  }
   
+  // Only called from the proxy thread, in packet order, so a seed always produces the same sequence of decisions.
+  public int nextJitter(int jitter)
+  {
+    return jitter > 0 ? random.nextInt(jitter + 1) : 0;
+  }
   
-  public MSServer(IServerCallbackHandler _handler)
+  public boolean nextChance(float chance)
   {
-    pServer = null;
-    subServers = new HashMap<Server, SubServer>();
-    handler = _handler;
-    
-    nextSubServerPort = MAIN_SERVER_PORT + 1;
+    return chance > 0.0f && random.nextFloat() < chance;
   }
   
-  @Override public boolean begin()
+  private void step()
   {
-    if (pServer == null)
+    try
     {
-      pServer = new Server(mainObject, MAIN_SERVER_PORT);
+      selector.select(getWaitTime());
+    }
+    catch (IOException e)
+    {
+      println("Impairment proxy select failed: " + e.getMessage());
+      running = false;
+      return;
+    }
+    
+    applyScript();
+    
+    if (disconnectRequested)
+    {
+      disconnectRequested = false;
+      for (int i = connections.size() - 1; i >= 0; i--)
+      {
+        close(connections.get(i));
+      }
+    }
+    
+    Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+    
+    while (selectedKeys.hasNext())
+    {
+      SelectionKey key = selectedKeys.next();
+      selectedKeys.remove();
       
-      if (isActive())
+      if (!key.isValid())
       {
-        println("Server started.");
+        continue;
       }
-      else
+      
+      if (key.isAcceptable())
       {
-        println("Server failed to start.");
-        pServer = null;
-        return false;
+        accept();
+      }
+      else if (key.channel() == datagramChannel)
+      {
+        receiveClientDatagrams();
+      }
+      else if (key.attachment() instanceof ImpairedDatagramRoute)
+      {
+        receiveServerDatagrams((ImpairedDatagramRoute)key.attachment());
+      }
+      else if (key.attachment() instanceof ImpairedConnection)
+      {
+        ImpairedConnection connection = (ImpairedConnection)key.attachment();
+        
+        if (key.channel() == connection.clientChannel)
+        {
+          forward(connection, connection.clientChannel, connection.upstream);
+        }
+        else
+        {
+          forward(connection, connection.serverChannel, connection.downstream);
+        }
       }
     }
     
-    return true;
+    deliver();
   }
   
-  @Override public void update()
+  // Until a socket is ready or the next held back packet or script step is due. A packet that is already due is held
+  // up by a full socket, which is retried after the shortest wait; select(0) would wait for good.
+  private int getWaitTime()
   {
-    if (isActive())
+    int waitTime = min(NETWORK_THREAD_MAX_WAIT, getTimeUntilNextStep());
+    
+    for (ImpairedConnection connection : connections)
     {
-      for (Map.Entry entry : subServers.entrySet())
+      waitTime = connection.upstream.getTimeUntilDue(waitTime);
+      waitTime = connection.downstream.getTimeUntilDue(waitTime);
+    }
+    
+    for (ImpairedDatagramRoute route : datagramRoutes.values())
+    {
+      waitTime = route.upstream.getTimeUntilDue(waitTime);
+      waitTime = route.downstream.getTimeUntilDue(waitTime);
+    }
+    
+    return max(waitTime, 1);
+  }
+  
+  private synchronized int getTimeUntilNextStep()
+  {
+    if (nextStep >= script.size())
+    {
+      return NETWORK_THREAD_MAX_WAIT;
+    }
+    
+    return max(script.get(nextStep).time - (millis() - startTime), 0);
+  }
+  
+  private synchronized void applyScript()
+  {
+    while (nextStep < script.size() && millis() - startTime >= script.get(nextStep).time)
+    {
+      profile = script.get(nextStep).profile;
+      println("Impairment proxy: " + profile);
+      nextStep++;
+    }
+  }
+  
+  private void accept()
+  {
+    SocketChannel clientChannel = null;
+    SocketChannel serverChannel = null;
+    
+    try
+    {
+      clientChannel = listenChannel.accept();
+      
+      if (clientChannel == null)
       {
-        SubServer subServer = (SubServer)entry.getValue();
-        subServer.update();
+        return;
       }
+      
+      // Loopback connects immediately, so the server side can be connected before going non-blocking.
+      serverChannel = SocketChannel.open(serverAddress);
+      
+      clientChannel.configureBlocking(false);
+      clientChannel.socket().setTcpNoDelay(true);
+      serverChannel.configureBlocking(false);
+      serverChannel.socket().setTcpNoDelay(true);
+      
+      ImpairedConnection connection = new ImpairedConnection(clientChannel, serverChannel, this);
+      clientChannel.register(selector, SelectionKey.OP_READ, connection);
+      serverChannel.register(selector, SelectionKey.OP_READ, connection);
+      connections.add(connection);
+    }
+    catch (IOException e)
+    {
+      println("Impairment proxy failed to connect to the server: " + e.getMessage());
+      closeChannel(clientChannel);
+      closeChannel(serverChannel);
     }
   }
   
-  @Override public void end()
+  private void forward(ImpairedConnection connection, SocketChannel from, ImpairedLink link)
   {
-    if (isActive())
+    try
     {
-      for (Map.Entry entry : subServers.entrySet())
+      readBuffer.clear();
+      int length = from.read(readBuffer);
+      
+      if (length < 0)
       {
-        SubServer subServer = (SubServer)entry.getValue();
-        subServer.stop();
+        close(connection);
+        return;
       }
-      pServer.stop();
-      pServer = null;
+      
+      readBuffer.flip();
+      if (readBuffer.hasRemaining())
+      {
+        link.schedule(readBuffer, null);
+      }
+    }
+    catch (IOException e)
+    {
+      close(connection);
     }
   }
   
-  @Override public boolean isActive()
+  private void receiveClientDatagrams()
   {
-    return pServer != null && pServer.active();
+    try
+    {
+      while (true)
+      {
+        readBuffer.clear();
+        SocketAddress clientAddress = datagramChannel.receive(readBuffer);
+        
+        if (clientAddress == null)
+        {
+          return;
+        }
+        
+        ImpairedDatagramRoute route = datagramRoutes.get(clientAddress);
+        
+        if (route == null)
+        {
+          DatagramChannel serverChannel = DatagramChannel.open();
+          serverChannel.configureBlocking(false);
+          serverChannel.connect(serverAddress);
+          
+          route = new ImpairedDatagramRoute(clientAddress, serverChannel, this);
+          serverChannel.register(selector, SelectionKey.OP_READ, route);
+          datagramRoutes.put(clientAddress, route);
+        }
+        
+        readBuffer.flip();
+        route.upstream.schedule(readBuffer, null);
+      }
+    }
+    catch (IOException e)
+    {
+      println("Impairment proxy failed to receive datagram: " + e.getMessage());
+    }
   }
   
-  @Override public void write(ByteBuffer message)
+  private void receiveServerDatagrams(ImpairedDatagramRoute route)
   {
-    if (isActive())
+    try
     {
-      byte[] bytes = new byte[message.remaining()];
-      message.get(bytes);
-      byte[] completeMessage = attachBeginAndEndSequencesToMessage(bytes);
-      
-      synchronized(this)
+      while (true)
       {
-        for (Map.Entry entry : subServers.entrySet())
+        readBuffer.clear();
+        
+        if (route.serverChannel.receive(readBuffer) == null)
         {
-          SubServer subServer = (SubServer)entry.getValue();
-          subServer.write(completeMessage);
+          return;
         }
+        
+        readBuffer.flip();
+        route.downstream.schedule(readBuffer, route.clientAddress);
       }
     }
+    catch (IOException e)
+    {
+      // The server has no datagram channel; the client falls back to TCP on its own.
+    }
   }
   
-  private byte[] attachBeginAndEndSequencesToMessage(byte[] message)
+  private void deliver()
   {
-    byte[] bytes = new byte[message.length + BEGIN_SEQUENCE.length + END_SEQUENCE.length];
-    
-    for (int i = 0; i < BEGIN_SEQUENCE.length; i++)
+    for (int i = connections.size() - 1; i >= 0; i--)
     {
-      bytes[i] = BEGIN_SEQUENCE[i];
+      ImpairedConnection connection = connections.get(i);
+      
+      try
+      {
+        deliver(connection.upstream, connection.serverChannel);
+        deliver(connection.downstream, connection.clientChannel);
+      }
+      catch (IOException e)
+      {
+        close(connection);
+      }
     }
     
-    for (int i = 0; i < message.length; i++)
+    for (ImpairedDatagramRoute route : datagramRoutes.values())
     {
-      bytes[BEGIN_SEQUENCE.length + i] = message[i];
+      try
+      {
+        ImpairedPacket packet = route.upstream.peekDue();
+        while (packet != null)
+        {
+          route.serverChannel.write(packet.data);
+          route.upstream.remove();
+          packet = route.upstream.peekDue();
+        }
+        
+        packet = route.downstream.peekDue();
+        while (packet != null)
+        {
+          datagramChannel.send(packet.data, packet.address);
+          route.downstream.remove();
+          packet = route.downstream.peekDue();
+        }
+      }
+      catch (IOException e)
+      {
+        // A datagram that cannot be sent is simply lost.
+      }
     }
+  }
+  
+  // Writes due segments until the socket stops taking bytes. What is left waits for the next pass.
+  private void deliver(ImpairedLink link, SocketChannel to) throws IOException
+  {
+    ImpairedPacket packet = link.peekDue();
     
-    for (int i = 0; i < END_SEQUENCE.length; i++)
+    while (packet != null)
     {
-      bytes[bytes.length - i - 1] = END_SEQUENCE[END_SEQUENCE.length - i - 1];
+      to.write(packet.data);
+      
+      if (packet.data.hasRemaining())
+      {
+        return;
+      }
+      
+      link.remove();
+      packet = link.peekDue();
     }
-    
-    return bytes;
   }
   
-  @Override public void handleServerEvent(Server p_pServer, Client p_pClient)
+  private void close(ImpairedConnection connection)
   {
-    if (p_pServer == pServer)
+    closeChannel(connection.clientChannel);
+    closeChannel(connection.serverChannel);
+    connections.remove(connection);
+  }
+  
+  private void closeChannel(Channel channel)
+  {
+    if (channel != null)
     {
-      synchronized(this)
+      try
       {
-        spawnNewSubServer(nextSubServerPort);
-        sendConnectionRedirectMessage(p_pClient);
-        nextSubServerPort++;
+        channel.close();
       }
-    }
-    else
-    {
-      SubServer subServer = subServers.get(p_pServer);
-      if (subServer != null)
+      catch (IOException e)
       {
-        subServer.handleServerEvent(p_pClient);
       }
     }
   }
   
-  private void spawnNewSubServer(int nextSubServerPort)
-  {
-    SubServer subServer = new SubServer(this, nextSubServerPort);
-    subServers.put(subServer.pServer, subServer);
-  }
-  
-  private void sendConnectionRedirectMessage(Client p_pClient)
+  private void closeAll()
   {
-    byte[] connectToMessage = new byte[SUB_SERVER_CONNECT_SEQUENCE.length + 4];
+    for (int i = connections.size() - 1; i >= 0; i--)
+    {
+      close(connections.get(i));
+    }
     
-    for (int i = 0; i < SUB_SERVER_CONNECT_SEQUENCE.length; i++)
+    for (ImpairedDatagramRoute route : datagramRoutes.values())
     {
-      connectToMessage[i] = SUB_SERVER_CONNECT_SEQUENCE[i];
+      closeChannel(route.serverChannel);
     }
+    datagramRoutes.clear();
     
-    byte[] portAsBytes = new byte[] {
-            (byte)(nextSubServerPort >>> 24),
-            (byte)(nextSubServerPort >>> 16),
-            (byte)(nextSubServerPort >>> 8),
-            (byte)nextSubServerPort
-    };
+    closeChannel(listenChannel);
+    closeChannel(datagramChannel);
     
-    connectToMessage[SUB_SERVER_CONNECT_SEQUENCE.length] = portAsBytes[0];
-    connectToMessage[SUB_SERVER_CONNECT_SEQUENCE.length + 1] = portAsBytes[1];
-    connectToMessage[SUB_SERVER_CONNECT_SEQUENCE.length + 2] = portAsBytes[2];
-    connectToMessage[SUB_SERVER_CONNECT_SEQUENCE.length + 3] = portAsBytes[3];
+    if (selector != null)
+    {
+      try
+      {
+        selector.close();
+      }
+      catch (IOException e)
+      {
+      }
+    }
     
-    p_pClient.write(attachBeginAndEndSequencesToMessage(connectToMessage));
+    listenChannel = null;
+    datagramChannel = null;
+    selector = null;
   }
+}
+
+
+// A headless screen for the load generator. It is admitted like any other client, acknowledges snapshots so that the
+// server sends it deltas and changes its paddle input at random, but only reads enough of each snapshot to time it.
+// Latency is taken from the server's timestamp, so it only means something when both clocks agree, such as when the
+// bots run on the same machine as the server.
+public class LoadTestBot implements IClientCallbackHandler
+{
+  private MSClient client;
+  private MetricHistogram snapshotLatencies;
+  private Random random;
   
-  public IServerCallbackHandler getHandler()
+  private int clientID;
+  private int lastAppliedSnapshotTick;
+  private int inputSequence;
+  private int lastInputTime;
+  private long snapshotsReceived;
+  
+  // The latency histogram is shared with the other bots, so that the load generator can report on all of them at once.
+  public LoadTestBot(MetricHistogram _snapshotLatencies, long seed)
   {
-    return handler;
+    client = new MSClient(this, NetworkPollMode.EXTERNAL);
+    snapshotLatencies = _snapshotLatencies;
+    random = new Random(seed);
+    
+    clientID = -1;
+    lastAppliedSnapshotTick = -1;
+    inputSequence = 0;
+    lastInputTime = 0;
+    snapshotsReceived = 0;
   }
   
-  private class SubServer
+  public void connect()
   {
-    private static final int SUB_SERVER_BUFFER_SIZE = 10240;
-    
-    private MSServer mainServer;
-    private Client pClient;
-    private NetworkCircularByteBuffer circularBuffer;
-    
-    public Server pServer;
-    
+    client.connect();
+  }
+  
+  public void disconnect()
+  {
+    client.disconnect();
+  }
+  
+  public MSClient getClient()
+  {
+    return client;
+  }
+  
+  public long getSnapshotsReceived()
+  {
+    return snapshotsReceived;
+  }
+  
+  // Called by the game loop.
+  public void update()
+  {
+    client.update();
     
-    public SubServer(MSServer _mainServer, int subServerPort)
+    if (client.isConnected() && clientID != -1 && millis() - lastInputTime >= 1000 / LOAD_TEST_INPUT_RATE)
     {
-      mainServer = _mainServer;
-      pClient = null;
-      circularBuffer = new NetworkCircularByteBuffer(SUB_SERVER_BUFFER_SIZE);
+      // Either no button or one of the eight, so every paddle direction gets exercised.
+      int button = random.nextInt(9);
       
-      pServer = new Server(mainObject, subServerPort);
+      inputSequence++;
+      client.writeInput(inputSequence, button == 0 ? 0 : 1 << (button - 1));
+      lastInputTime = millis();
     }
+  }
+  
+  @Override public void handleServerMessage(ByteBuffer serverMessage)
+  {
+    FlatMessage flatServerMessage = FlatMessage.getRootAsFlatMessage(serverMessage);
     
-    public void handleServerEvent(Client p_pClient)
+    FlatMessageBodyTable bodyTable = flatServerMessage.bodyTable();
+    byte bodyType = bodyTable.bodyType();
+    
+    if (bodyType == FlatMessageBodyUnion.FlatGameWorld)
     {
-      assert(pClient == null);
-      pClient = p_pClient;
+      FlatGameWorld flatGameWorld = (FlatGameWorld)bodyTable.body(new FlatGameWorld());
       
-      ByteBuffer initMessage = mainServer.getHandler().getNewClientInitializationMessage();
-      if (initMessage != null)
+      snapshotLatencies.record(System.currentTimeMillis() - flatServerMessage.header().timeStamp());
+      snapshotsReceived++;
+      
+      // Acknowledge only what a real client would have been able to apply.
+      if (flatGameWorld.tick() > lastAppliedSnapshotTick && flatGameWorld.baselineTick() <= lastAppliedSnapshotTick)
       {
-        byte[] bytes = new byte[initMessage.remaining()];
-        initMessage.get(bytes);
-        byte[] completeMessage = attachBeginAndEndSequencesToMessage(bytes);
-        
-        write(completeMessage);
+        lastAppliedSnapshotTick = flatGameWorld.tick();
+        sendSnapshotAck();
       }
     }
-    
-    public void update()
+    else if (bodyType == FlatMessageBodyUnion.FlatInitializationMessage)
     {
-      byte[] message = null;
+      FlatInitializationMessage flatInitializationMessage = (FlatInitializationMessage)bodyTable.body(new FlatInitializationMessage());
       
-      do
-      {
-        message = circularBuffer.parseMessageLoop(pClient);
-        
-        if (message != null)
-        {
-          mainServer.getHandler().handleClientMessage(ByteBuffer.wrap(message));
-        }
-      }
-      while (message != null);
+      clientID = flatInitializationMessage.clientID();
+      lastAppliedSnapshotTick = -1;
     }
+  }
+  
+  private void sendSnapshotAck()
+  {
+    FlatBufferBuilder builder = new FlatBufferBuilder(0);
     
-    public void write(byte[] message)
-    { 
-      if (isConnected())
-      {
-        pClient.write(message);
-      }
-    }
+    int flatSnapshotAck = FlatSnapshotAck.createFlatSnapshotAck(builder, lastAppliedSnapshotTick);
     
-    public boolean isConnected()
-    {
-      return pClient != null && pClient.active();
-    }
+    FlatMessageHeader.startFlatMessageHeader(builder);
+    FlatMessageHeader.addTimeStamp(builder, System.currentTimeMillis());
+    FlatMessageHeader.addClientID(builder, clientID);
+    int flatMessageHeader = FlatMessageHeader.endFlatMessageHeader(builder);
     
-    public void stop()
-    {
-      pServer.stop();
-    }
+    FlatMessageBodyTable.startFlatMessageBodyTable(builder);
+    FlatMessageBodyTable.addBodyType(builder, FlatMessageBodyUnion.FlatSnapshotAck);
+    FlatMessageBodyTable.addBody(builder, flatSnapshotAck);
+    int flatMessageBodyTable = FlatMessageBodyTable.endFlatMessageBodyTable(builder);
+    
+    FlatMessage.startFlatMessage(builder);
+    FlatMessage.addHeader(builder, flatMessageHeader);
+    FlatMessage.addBodyTable(builder, flatMessageBodyTable);
+    FlatMessage.finishFlatMessageBuffer(builder, FlatMessage.endFlatMessage(builder));
+    
+    client.write(builder.dataBuffer());
   }
-}
\ No newline at end of file
+}
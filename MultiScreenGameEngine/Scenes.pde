@@ -64,6 +64,10 @@ public interface ISpriteManager
 {
   public void loadAllSprites();
   public ISprite getSprite(String name);
+  
+  // Every sprite in the manifest, whether it has been loaded or not.
+  public ArrayList<String> getSpriteNames();
+  
   public void free();
 }
 
@@ -87,6 +91,10 @@ public interface ISpriteInstance
   
   public int serialize(FlatBufferBuilder builder);
   public void deserialize(FlatSprite flatSprite);
+  
+  // Just the sprite and tint, which game logic may change after spawning. Transforms are taken from the GameObject.
+  public int serializeState(FlatBufferBuilder builder);
+  public void deserializeState(FlatSprite flatSprite);
 }
 
 public interface IModel
@@ -100,6 +108,10 @@ public interface IModelManager
 {
   public void loadAllModels();
   public IModel getModel(String name);
+  
+  // Every model in the manifest, whether it has been loaded or not.
+  public ArrayList<String> getModelNames();
+  
   public void free();
 }
 
@@ -457,6 +469,18 @@ public class SpriteManager implements ISpriteManager
     return null;
   }
   
+  @Override public ArrayList<String> getSpriteNames()
+  {
+    ArrayList<String> spriteNames = new ArrayList<String>();
+    
+    for (XML xmlSprite : manifest.getChildren("Sprite"))
+    {
+      spriteNames.add(xmlSprite.getString("name"));
+    }
+    
+    return spriteNames;
+  }
+  
   private ISprite loadSprite(String name, XML xmlSprite)
   {
     ISprite sprite = new Sprite(name);
@@ -484,7 +508,12 @@ public class SpriteInstance implements ISpriteInstance
   
   public SpriteInstance(String spriteName)
   {
-    sprite = spriteManager.getSprite(spriteName);
+    this(spriteManager.getSprite(spriteName));
+  }
+  
+  public SpriteInstance(ISprite _sprite)
+  {
+    sprite = _sprite;
     
     translation = new PVector(0.0f, 0.0f, 0.0f);
     rotation = new PVector(0.0f, 0.0f, 0.0f);
@@ -569,34 +598,120 @@ public class SpriteInstance implements ISpriteInstance
   
   @Override public int serialize(FlatBufferBuilder builder)
   {
-    int spriteNameOffset = builder.createString(sprite.getName());
+    int spriteID = sessionStrings.getSpriteID(sprite.getName());
+    int spriteNameOffset = spriteID == 0 ? createCachedString(builder, sprite.getName()) : 0;
     
     FlatSprite.startFlatSprite(builder);
-    FlatSprite.addSpriteName(builder, spriteNameOffset);
-    FlatSprite.addTranslation(builder, FlatVec3.createFlatVec3(builder, translation.x, translation.y, translation.z));
-    FlatSprite.addRotation(builder, FlatVec3.createFlatVec3(builder, rotation.x, rotation.y, rotation.z));
+    if (spriteID != 0)
+    {
+      FlatSprite.addSpriteID(builder, spriteID);
+    }
+    else
+    {
+      FlatSprite.addSpriteName(builder, spriteNameOffset);
+    }
+    if (USE_QUANTIZED_TRANSFORMS)
+    {
+      FlatSprite.addQuantizedTranslation(builder, createQuantizedPosition(builder, translation));
+      FlatSprite.addQuantizedRotation(builder, createQuantizedAngles(builder, rotation));
+      FlatSprite.addQuantizedTint(builder, FlatColor.createFlatColor(builder, quantizeColorChannel(tintColor.x), quantizeColorChannel(tintColor.y), quantizeColorChannel(tintColor.z), quantizeColorChannel(alpha)));
+    }
+    else
+    {
+      FlatSprite.addTranslation(builder, FlatVec3.createFlatVec3(builder, translation.x, translation.y, translation.z));
+      FlatSprite.addRotation(builder, FlatVec3.createFlatVec3(builder, rotation.x, rotation.y, rotation.z));
+      FlatSprite.addTint(builder, FlatVec4.createFlatVec4(builder, tintColor.x, tintColor.y, tintColor.z, alpha));
+    }
     FlatSprite.addScale(builder, FlatVec3.createFlatVec3(builder, scale.x, scale.y, scale.z));
-    FlatSprite.addTint(builder, FlatVec4.createFlatVec4(builder, tintColor.x, tintColor.y, tintColor.z, alpha));
     
     return FlatSprite.endFlatSprite(builder);
   }
   
   @Override public void deserialize(FlatSprite flatSprite)
   {
-    sprite = spriteManager.getSprite(flatSprite.spriteName());
+    sprite = sessionStrings.resolveSprite(flatSprite);
     
-    FlatVec3 flatTranslation = flatSprite.translation();
-    translation = new PVector(flatTranslation.x(), flatTranslation.y(), flatTranslation.z());
-    
-    FlatVec3 flatRotation = flatSprite.rotation();
-    rotation = new PVector(flatRotation.x(), flatRotation.y(), flatRotation.z());
+    FlatQuantizedVec3 flatQuantizedTranslation = flatSprite.quantizedTranslation();
+    if (flatQuantizedTranslation != null)
+    {
+      translation.set(dequantizePosition(flatQuantizedTranslation.x()), dequantizePosition(flatQuantizedTranslation.y()), dequantizePosition(flatQuantizedTranslation.z()));
+      
+      FlatQuantizedVec3 flatQuantizedRotation = flatSprite.quantizedRotation();
+      rotation.set(dequantizeAngle(flatQuantizedRotation.x()), dequantizeAngle(flatQuantizedRotation.y()), dequantizeAngle(flatQuantizedRotation.z()));
+      
+      FlatColor flatTint = flatSprite.quantizedTint();
+      updateTint(flatTint.r(), flatTint.g(), flatTint.b());
+      alpha = flatTint.a();
+    }
+    else
+    {
+      FlatVec3 flatTranslation = flatSprite.translation();
+      translation.set(flatTranslation.x(), flatTranslation.y(), flatTranslation.z());
+      
+      FlatVec3 flatRotation = flatSprite.rotation();
+      rotation.set(flatRotation.x(), flatRotation.y(), flatRotation.z());
+      
+      FlatVec4 flatTint = flatSprite.tint();
+      updateTint(flatTint.x(), flatTint.y(), flatTint.z());
+      alpha = flatTint.w();
+    }
     
     FlatVec3 flatScale = flatSprite.scale();
-    scale = new PVector(flatScale.x(), flatScale.y(), flatScale.z());
+    scale.set(flatScale.x(), flatScale.y(), flatScale.z());
+  }
+  
+  @Override public int serializeState(FlatBufferBuilder builder)
+  {
+    int spriteID = sessionStrings.getSpriteID(sprite.getName());
+    int spriteNameOffset = spriteID == 0 ? createCachedString(builder, sprite.getName()) : 0;
+    
+    FlatSprite.startFlatSprite(builder);
+    if (spriteID != 0)
+    {
+      FlatSprite.addSpriteID(builder, spriteID);
+    }
+    else
+    {
+      FlatSprite.addSpriteName(builder, spriteNameOffset);
+    }
+    if (USE_QUANTIZED_TRANSFORMS)
+    {
+      FlatSprite.addQuantizedTint(builder, FlatColor.createFlatColor(builder, quantizeColorChannel(tintColor.x), quantizeColorChannel(tintColor.y), quantizeColorChannel(tintColor.z), quantizeColorChannel(alpha)));
+    }
+    else
+    {
+      FlatSprite.addTint(builder, FlatVec4.createFlatVec4(builder, tintColor.x, tintColor.y, tintColor.z, alpha));
+    }
+    
+    return FlatSprite.endFlatSprite(builder);
+  }
+  
+  @Override public void deserializeState(FlatSprite flatSprite)
+  {
+    sprite = sessionStrings.resolveSprite(flatSprite);
     
-    FlatVec4 flatTint = flatSprite.tint();
-    tintColor = new PVector(flatTint.x(), flatTint.y(), flatTint.z());
-    alpha = flatTint.w();
+    FlatColor flatQuantizedTint = flatSprite.quantizedTint();
+    if (flatQuantizedTint != null)
+    {
+      updateTint(flatQuantizedTint.r(), flatQuantizedTint.g(), flatQuantizedTint.b());
+      alpha = flatQuantizedTint.a();
+    }
+    else
+    {
+      FlatVec4 flatTint = flatSprite.tint();
+      updateTint(flatTint.x(), flatTint.y(), flatTint.z());
+      alpha = flatTint.w();
+    }
+  }
+  
+  // Tints may be shared with game logic through setTint(), so a changed tint gets a new PVector rather than being written
+  // into the old one.
+  private void updateTint(float r, float g, float b)
+  {
+    if (tintColor.x != r || tintColor.y != g || tintColor.z != b)
+    {
+      tintColor = new PVector(r, g, b);
+    }
   }
 }
 
@@ -743,6 +858,18 @@ public class ModelManager implements IModelManager
     return null;
   }
   
+  @Override public ArrayList<String> getModelNames()
+  {
+    ArrayList<String> modelNames = new ArrayList<String>();
+    
+    for (XML xmlModel : manifest.getChildren("Model"))
+    {
+      modelNames.add(xmlModel.getString("name"));
+    }
+    
+    return modelNames;
+  }
+  
   @Override public void free()
   {
     loadedModels.clear();
@@ -759,7 +886,12 @@ public class ModelInstance implements IModelInstance
   
   public ModelInstance(String modelName)
   {
-    model = modelManager.getModel(modelName);
+    this(modelManager.getModel(modelName));
+  }
+  
+  public ModelInstance(IModel _model)
+  {
+    model = _model;
     
     translation = new PVector();
     rotation = new PVector();
@@ -818,10 +950,18 @@ public class ModelInstance implements IModelInstance
   
   @Override public int serialize(FlatBufferBuilder builder)
   {
-    int modelNameOffset = builder.createString(model.getName());
+    int modelID = sessionStrings.getModelID(model.getName());
+    int modelNameOffset = modelID == 0 ? createCachedString(builder, model.getName()) : 0;
     
     FlatModel.startFlatModel(builder);
-    FlatModel.addModelName(builder, modelNameOffset);
+    if (modelID != 0)
+    {
+      FlatModel.addModelID(builder, modelID);
+    }
+    else
+    {
+      FlatModel.addModelName(builder, modelNameOffset);
+    }
     FlatModel.addTranslation(builder, FlatVec3.createFlatVec3(builder, translation.x, translation.y, translation.z));
     FlatModel.addRotation(builder, FlatVec3.createFlatVec3(builder, rotation.x, rotation.y, rotation.z));
     FlatModel.addScale(builder, FlatVec3.createFlatVec3(builder, scale.x, scale.y, scale.z));
@@ -831,16 +971,16 @@ public class ModelInstance implements IModelInstance
   
   @Override public void deserialize(FlatModel flatModel)
   {
-    model = modelManager.getModel(flatModel.modelName());
+    model = sessionStrings.resolveModel(flatModel);
     
     FlatVec3 flatTranslation = flatModel.translation();
-    translation = new PVector(flatTranslation.x(), flatTranslation.y(), flatTranslation.z());
+    translation.set(flatTranslation.x(), flatTranslation.y(), flatTranslation.z());
     
     FlatVec3 flatRotation = flatModel.rotation();
-    rotation = new PVector(flatRotation.x(), flatRotation.y(), flatRotation.z());
+    rotation.set(flatRotation.x(), flatRotation.y(), flatRotation.z());
     
     FlatVec3 flatScale = flatModel.scale();
-    scale = new PVector(flatScale.x(), flatScale.y(), flatScale.z());
+    scale.set(flatScale.x(), flatScale.y(), flatScale.z());
   }
 }
 
@@ -970,23 +1110,105 @@ public class Text implements ITextInstance
 }
 
 
+// Holds scene instances under int handles. A removed instance's slot is reused by the next add, so the number of slots
+// stays at the most instances ever alive at once. The low 16 bits of a handle are its slot and the rest are the slot's
+// generation, which is bumped on every removal so that a stale handle finds nothing rather than the slot's new occupant.
+public class SlotMap<T>
+{
+  private final int SLOT_BITS = 16;
+  private final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+  private final int GENERATION_MASK = 0x7FFF;
+  
+  private ArrayList<T> slots;
+  private int[] generations;
+  private int[] freeSlots;
+  private int freeSlotCount;
+  
+  public SlotMap()
+  {
+    slots = new ArrayList<T>();
+    generations = new int[64];
+    freeSlots = new int[64];
+    freeSlotCount = 0;
+  }
+  
+  public int add(T item)
+  {
+    int slot;
+    if (freeSlotCount > 0)
+    {
+      --freeSlotCount;
+      slot = freeSlots[freeSlotCount];
+      slots.set(slot, item);
+    }
+    else
+    {
+      slot = slots.size();
+      assert(slot <= SLOT_MASK);
+      slots.add(item);
+      if (slot == generations.length)
+      {
+        generations = Arrays.copyOf(generations, generations.length * 2);
+      }
+    }
+    
+    return (generations[slot] << SLOT_BITS) | slot;
+  }
+  
+  public T get(int handle)
+  {
+    int slot = handle & SLOT_MASK;
+    if (handle < 0 || slot >= slots.size() || generations[slot] != (handle >>> SLOT_BITS))
+    {
+      return null;
+    }
+    return slots.get(slot);
+  }
+  
+  public void remove(int handle)
+  {
+    if (get(handle) == null)
+    {
+      return;
+    }
+    
+    int slot = handle & SLOT_MASK;
+    slots.set(slot, null);
+    generations[slot] = (generations[slot] + 1) & GENERATION_MASK;
+    
+    if (freeSlotCount == freeSlots.length)
+    {
+      freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+    }
+    freeSlots[freeSlotCount] = slot;
+    ++freeSlotCount;
+  }
+  
+  // For iterating without allocating. Slots that are free hold null.
+  public int slotCount()
+  {
+    return slots.size();
+  }
+  
+  public T getSlot(int slot)
+  {
+    return slots.get(slot);
+  }
+}
+
 public class Scene implements IScene
 {
   private IOrthographicCamera orthographicCamera;
   private IPerspectiveCamera perspectiveCamera;
-  private HashMap<Integer, ISpriteInstance> spriteInstances;
-  private HashMap<Integer, IModelInstance> modelInstances;
-  private int nextSpriteHandle;
-  private int nextModelHandle;
+  private SlotMap<ISpriteInstance> spriteInstances;
+  private SlotMap<IModelInstance> modelInstances;
   
   public Scene()
   {
     orthographicCamera = new OrthographicCamera();
     perspectiveCamera = new PerspectiveCamera();
-    spriteInstances = new HashMap<Integer, ISpriteInstance>();
-    modelInstances = new HashMap<Integer, IModelInstance>();
-    nextSpriteHandle = 0;
-    nextModelHandle = 0;
+    spriteInstances = new SlotMap<ISpriteInstance>();
+    modelInstances = new SlotMap<IModelInstance>();
   }
   
   @Override public IOrthographicCamera getOrthographicCamera()
@@ -1011,10 +1233,7 @@ public class Scene implements IScene
   
   @Override public int addSpriteInstance(ISpriteInstance sprite)
   {
-    int spriteHandle = nextSpriteHandle;
-    ++nextSpriteHandle;
-    spriteInstances.put(spriteHandle, sprite);
-    return spriteHandle;
+    return spriteInstances.add(sprite);
   }
   
   @Override public ISpriteInstance getSpriteInstance(int handle)
@@ -1029,10 +1248,7 @@ public class Scene implements IScene
   
   @Override public int addModelInstance(IModelInstance model)
   {
-    int modelHandle = nextModelHandle;
-    ++nextModelHandle;
-    modelInstances.put(modelHandle, model);
-    return modelHandle;
+    return modelInstances.add(model);
   }
   
   @Override public IModelInstance getModelInstance(int handle)
@@ -1049,16 +1265,24 @@ public class Scene implements IScene
   {
     orthographicCamera.apply();
     
-    for (Map.Entry entry : spriteInstances.entrySet())
+    for (int i = 0; i < spriteInstances.slotCount(); i++)
     {
-      ((ISpriteInstance)entry.getValue()).render();
+      ISpriteInstance spriteInstance = spriteInstances.getSlot(i);
+      if (spriteInstance != null)
+      {
+        spriteInstance.render();
+      }
     }
     
     //perspectiveCamera.apply();
     
-    //for (Map.Entry entry : modelInstances.entrySet())
+    //for (int i = 0; i < modelInstances.slotCount(); i++)
     //{
-    //  ((IModelInstance)entry.getValue()).render();
+    //  IModelInstance modelInstance = modelInstances.getSlot(i);
+    //  if (modelInstance != null)
+    //  {
+    //    modelInstance.render();
+    //  }
     //}
   }
 }
\ No newline at end of file
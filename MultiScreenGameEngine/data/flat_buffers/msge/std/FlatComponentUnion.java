@@ -9,8 +9,11 @@ public final class FlatComponentUnion {
   public static final byte FlatTranslateOverTimeComponent = 2;
   public static final byte FlatRotateOverTimeComponent = 3;
   public static final byte FlatScaleOverTimeComponent = 4;
+  public static final byte FlatRenderState = 5;
+  public static final byte FlatTranslateOverTimeState = 6;
+  public static final byte FlatScaleOverTimeState = 7;
 
-  private static final String[] names = { "NONE", "FlatRenderComponent", "FlatTranslateOverTimeComponent", "FlatRotateOverTimeComponent", "FlatScaleOverTimeComponent", };
+  private static final String[] names = { "NONE", "FlatRenderComponent", "FlatTranslateOverTimeComponent", "FlatRotateOverTimeComponent", "FlatScaleOverTimeComponent", "FlatRenderState", "FlatTranslateOverTimeState", "FlatScaleOverTimeState", };
 
   public static String name(int e) { return names[e]; }
 };
@@ -25,8 +25,17 @@ public final class FlatGameObject extends Table {
   public FlatComponentTable componentTables(int j) { return componentTables(new FlatComponentTable(), j); }
   public FlatComponentTable componentTables(FlatComponentTable obj, int j) { int o = __offset(14); return o != 0 ? obj.__init(__indirect(__vector(o) + j * 4), bb) : null; }
   public int componentTablesLength() { int o = __offset(14); return o != 0 ? __vector_len(o) : 0; }
+  public int unchangedMask() { int o = __offset(16); return o != 0 ? bb.get(o + bb_pos) & 0xFF : 0; }
+  public msge.std.FlatQuantizedVec3 quantizedTranslation() { return quantizedTranslation(new msge.std.FlatQuantizedVec3()); }
+  public msge.std.FlatQuantizedVec3 quantizedTranslation(msge.std.FlatQuantizedVec3 obj) { int o = __offset(18); return o != 0 ? obj.__init(o + bb_pos, bb) : null; }
+  public msge.std.FlatQuantizedVec3 quantizedRotation() { return quantizedRotation(new msge.std.FlatQuantizedVec3()); }
+  public msge.std.FlatQuantizedVec3 quantizedRotation(msge.std.FlatQuantizedVec3 obj) { int o = __offset(20); return o != 0 ? obj.__init(o + bb_pos, bb) : null; }
+  public int tagID() { int o = __offset(22); return o != 0 ? bb.getInt(o + bb_pos) : 0; }
+  public FlatComponentTable componentStates(int j) { return componentStates(new FlatComponentTable(), j); }
+  public FlatComponentTable componentStates(FlatComponentTable obj, int j) { int o = __offset(24); return o != 0 ? obj.__init(__indirect(__vector(o) + j * 4), bb) : null; }
+  public int componentStatesLength() { int o = __offset(24); return o != 0 ? __vector_len(o) : 0; }
 
-  public static void startFlatGameObject(FlatBufferBuilder builder) { builder.startObject(6); }
+  public static void startFlatGameObject(FlatBufferBuilder builder) { builder.startObject(11); }
   public static void addUid(FlatBufferBuilder builder, int uid) { builder.addInt(0, uid, 0); }
   public static void addTag(FlatBufferBuilder builder, int tagOffset) { builder.addOffset(1, tagOffset, 0); }
   public static void addTranslation(FlatBufferBuilder builder, int translationOffset) { builder.addStruct(2, translationOffset, 0); }
@@ -35,6 +44,13 @@ public final class FlatGameObject extends Table {
   public static void addComponentTables(FlatBufferBuilder builder, int componentTablesOffset) { builder.addOffset(5, componentTablesOffset, 0); }
   public static int createComponentTablesVector(FlatBufferBuilder builder, int[] data) { builder.startVector(4, data.length, 4); for (int i = data.length - 1; i >= 0; i--) builder.addOffset(data[i]); return builder.endVector(); }
   public static void startComponentTablesVector(FlatBufferBuilder builder, int numElems) { builder.startVector(4, numElems, 4); }
+  public static void addUnchangedMask(FlatBufferBuilder builder, int unchangedMask) { builder.addByte(6, (byte)unchangedMask, 0); }
+  public static void addQuantizedTranslation(FlatBufferBuilder builder, int quantizedTranslationOffset) { builder.addStruct(7, quantizedTranslationOffset, 0); }
+  public static void addQuantizedRotation(FlatBufferBuilder builder, int quantizedRotationOffset) { builder.addStruct(8, quantizedRotationOffset, 0); }
+  public static void addTagID(FlatBufferBuilder builder, int tagID) { builder.addInt(9, tagID, 0); }
+  public static void addComponentStates(FlatBufferBuilder builder, int componentStatesOffset) { builder.addOffset(10, componentStatesOffset, 0); }
+  public static int createComponentStatesVector(FlatBufferBuilder builder, int[] data) { builder.startVector(4, data.length, 4); for (int i = data.length - 1; i >= 0; i--) builder.addOffset(data[i]); return builder.endVector(); }
+  public static void startComponentStatesVector(FlatBufferBuilder builder, int numElems) { builder.startVector(4, numElems, 4); }
   public static int endFlatGameObject(FlatBufferBuilder builder) {
     int o = builder.endObject();
     return o;
@@ -16,18 +16,34 @@ public final class FlatGameWorld extends Table {
   public FlatGameObject gameObjects(int j) { return gameObjects(new FlatGameObject(), j); }
   public FlatGameObject gameObjects(FlatGameObject obj, int j) { int o = __offset(4); return o != 0 ? obj.__init(__indirect(__vector(o) + j * 4), bb) : null; }
   public int gameObjectsLength() { int o = __offset(4); return o != 0 ? __vector_len(o) : 0; }
+  public int tick() { int o = __offset(6); return o != 0 ? bb.getInt(o + bb_pos) : 0; }
+  public int baselineTick() { int o = __offset(8); return o != 0 ? bb.getInt(o + bb_pos) : -1; }
+  public int removedUids(int j) { int o = __offset(10); return o != 0 ? bb.getInt(__vector(o) + j * 4) : 0; }
+  public int removedUidsLength() { int o = __offset(10); return o != 0 ? __vector_len(o) : 0; }
+  public ByteBuffer removedUidsAsByteBuffer() { return __vector_as_bytebuffer(10, 4); }
 
   public static int createFlatGameWorld(FlatBufferBuilder builder,
-      int gameObjectsOffset) {
-    builder.startObject(1);
+      int gameObjectsOffset,
+      int tick,
+      int baselineTick,
+      int removedUidsOffset) {
+    builder.startObject(4);
+    FlatGameWorld.addRemovedUids(builder, removedUidsOffset);
+    FlatGameWorld.addBaselineTick(builder, baselineTick);
+    FlatGameWorld.addTick(builder, tick);
     FlatGameWorld.addGameObjects(builder, gameObjectsOffset);
     return FlatGameWorld.endFlatGameWorld(builder);
   }
 
-  public static void startFlatGameWorld(FlatBufferBuilder builder) { builder.startObject(1); }
+  public static void startFlatGameWorld(FlatBufferBuilder builder) { builder.startObject(4); }
   public static void addGameObjects(FlatBufferBuilder builder, int gameObjectsOffset) { builder.addOffset(0, gameObjectsOffset, 0); }
   public static int createGameObjectsVector(FlatBufferBuilder builder, int[] data) { builder.startVector(4, data.length, 4); for (int i = data.length - 1; i >= 0; i--) builder.addOffset(data[i]); return builder.endVector(); }
   public static void startGameObjectsVector(FlatBufferBuilder builder, int numElems) { builder.startVector(4, numElems, 4); }
+  public static void addTick(FlatBufferBuilder builder, int tick) { builder.addInt(1, tick, 0); }
+  public static void addBaselineTick(FlatBufferBuilder builder, int baselineTick) { builder.addInt(2, baselineTick, -1); }
+  public static void addRemovedUids(FlatBufferBuilder builder, int removedUidsOffset) { builder.addOffset(3, removedUidsOffset, 0); }
+  public static int createRemovedUidsVector(FlatBufferBuilder builder, int[] data) { builder.startVector(4, data.length, 4); for (int i = data.length - 1; i >= 0; i--) builder.addInt(data[i]); return builder.endVector(); }
+  public static void startRemovedUidsVector(FlatBufferBuilder builder, int numElems) { builder.startVector(4, numElems, 4); }
   public static int endFlatGameWorld(FlatBufferBuilder builder) {
     int o = builder.endObject();
     return o;
@@ -14,16 +14,53 @@ public final class FlatInitializationMessage extends Table {
   public FlatInitializationMessage __init(int _i, ByteBuffer _bb) { bb_pos = _i; bb = _bb; return this; }
 
   public int clientID() { int o = __offset(4); return o != 0 ? bb.getInt(o + bb_pos) : 0; }
+  public FlatControlledPaddle controlledPaddles(int j) { return controlledPaddles(new FlatControlledPaddle(), j); }
+  public FlatControlledPaddle controlledPaddles(FlatControlledPaddle obj, int j) { int o = __offset(6); return o != 0 ? obj.__init(__indirect(__vector(o) + j * 4), bb) : null; }
+  public int controlledPaddlesLength() { int o = __offset(6); return o != 0 ? __vector_len(o) : 0; }
+  public int resumeToken() { int o = __offset(8); return o != 0 ? bb.getInt(o + bb_pos) : 0; }
+  public boolean resumed() { int o = __offset(10); return o != 0 ? 0!=bb.get(o + bb_pos) : false; }
+  public String tags(int j) { int o = __offset(12); return o != 0 ? __string(__vector(o) + j * 4) : null; }
+  public int tagsLength() { int o = __offset(12); return o != 0 ? __vector_len(o) : 0; }
+  public String spriteNames(int j) { int o = __offset(14); return o != 0 ? __string(__vector(o) + j * 4) : null; }
+  public int spriteNamesLength() { int o = __offset(14); return o != 0 ? __vector_len(o) : 0; }
+  public String modelNames(int j) { int o = __offset(16); return o != 0 ? __string(__vector(o) + j * 4) : null; }
+  public int modelNamesLength() { int o = __offset(16); return o != 0 ? __vector_len(o) : 0; }
 
   public static int createFlatInitializationMessage(FlatBufferBuilder builder,
-      int clientID) {
-    builder.startObject(1);
+      int clientID,
+      int controlledPaddlesOffset,
+      int resumeToken,
+      boolean resumed,
+      int tagsOffset,
+      int spriteNamesOffset,
+      int modelNamesOffset) {
+    builder.startObject(7);
+    FlatInitializationMessage.addModelNames(builder, modelNamesOffset);
+    FlatInitializationMessage.addSpriteNames(builder, spriteNamesOffset);
+    FlatInitializationMessage.addTags(builder, tagsOffset);
+    FlatInitializationMessage.addResumeToken(builder, resumeToken);
+    FlatInitializationMessage.addControlledPaddles(builder, controlledPaddlesOffset);
     FlatInitializationMessage.addClientID(builder, clientID);
+    FlatInitializationMessage.addResumed(builder, resumed);
     return FlatInitializationMessage.endFlatInitializationMessage(builder);
   }
 
-  public static void startFlatInitializationMessage(FlatBufferBuilder builder) { builder.startObject(1); }
+  public static void startFlatInitializationMessage(FlatBufferBuilder builder) { builder.startObject(7); }
   public static void addClientID(FlatBufferBuilder builder, int clientID) { builder.addInt(0, clientID, 0); }
+  public static void addControlledPaddles(FlatBufferBuilder builder, int controlledPaddlesOffset) { builder.addOffset(1, controlledPaddlesOffset, 0); }
+  public static int createControlledPaddlesVector(FlatBufferBuilder builder, int[] data) { builder.startVector(4, data.length, 4); for (int i = data.length - 1; i >= 0; i--) builder.addOffset(data[i]); return builder.endVector(); }
+  public static void startControlledPaddlesVector(FlatBufferBuilder builder, int numElems) { builder.startVector(4, numElems, 4); }
+  public static void addResumeToken(FlatBufferBuilder builder, int resumeToken) { builder.addInt(2, resumeToken, 0); }
+  public static void addResumed(FlatBufferBuilder builder, boolean resumed) { builder.addBoolean(3, resumed, false); }
+  public static void addTags(FlatBufferBuilder builder, int tagsOffset) { builder.addOffset(4, tagsOffset, 0); }
+  public static int createTagsVector(FlatBufferBuilder builder, int[] data) { builder.startVector(4, data.length, 4); for (int i = data.length - 1; i >= 0; i--) builder.addOffset(data[i]); return builder.endVector(); }
+  public static void startTagsVector(FlatBufferBuilder builder, int numElems) { builder.startVector(4, numElems, 4); }
+  public static void addSpriteNames(FlatBufferBuilder builder, int spriteNamesOffset) { builder.addOffset(5, spriteNamesOffset, 0); }
+  public static int createSpriteNamesVector(FlatBufferBuilder builder, int[] data) { builder.startVector(4, data.length, 4); for (int i = data.length - 1; i >= 0; i--) builder.addOffset(data[i]); return builder.endVector(); }
+  public static void startSpriteNamesVector(FlatBufferBuilder builder, int numElems) { builder.startVector(4, numElems, 4); }
+  public static void addModelNames(FlatBufferBuilder builder, int modelNamesOffset) { builder.addOffset(6, modelNamesOffset, 0); }
+  public static int createModelNamesVector(FlatBufferBuilder builder, int[] data) { builder.startVector(4, data.length, 4); for (int i = data.length - 1; i >= 0; i--) builder.addOffset(data[i]); return builder.endVector(); }
+  public static void startModelNamesVector(FlatBufferBuilder builder, int numElems) { builder.startVector(4, numElems, 4); }
   public static int endFlatInitializationMessage(FlatBufferBuilder builder) {
     int o = builder.endObject();
     return o;
@@ -17,19 +17,26 @@ public final class FlatMessage extends Table {
   public FlatMessageHeader header(FlatMessageHeader obj) { int o = __offset(4); return o != 0 ? obj.__init(__indirect(o + bb_pos), bb) : null; }
   public FlatMessageBodyTable bodyTable() { return bodyTable(new FlatMessageBodyTable()); }
   public FlatMessageBodyTable bodyTable(FlatMessageBodyTable obj) { int o = __offset(6); return o != 0 ? obj.__init(__indirect(o + bb_pos), bb) : null; }
+  public FlatInputSequence inputSequences(int j) { return inputSequences(new FlatInputSequence(), j); }
+  public FlatInputSequence inputSequences(FlatInputSequence obj, int j) { int o = __offset(8); return o != 0 ? obj.__init(__vector(o) + j * 12, bb) : null; }
+  public int inputSequencesLength() { int o = __offset(8); return o != 0 ? __vector_len(o) : 0; }
 
   public static int createFlatMessage(FlatBufferBuilder builder,
       int headerOffset,
-      int bodyTableOffset) {
-    builder.startObject(2);
+      int bodyTableOffset,
+      int inputSequencesOffset) {
+    builder.startObject(3);
+    FlatMessage.addInputSequences(builder, inputSequencesOffset);
     FlatMessage.addBodyTable(builder, bodyTableOffset);
     FlatMessage.addHeader(builder, headerOffset);
     return FlatMessage.endFlatMessage(builder);
   }
 
-  public static void startFlatMessage(FlatBufferBuilder builder) { builder.startObject(2); }
+  public static void startFlatMessage(FlatBufferBuilder builder) { builder.startObject(3); }
   public static void addHeader(FlatBufferBuilder builder, int headerOffset) { builder.addOffset(0, headerOffset, 0); }
   public static void addBodyTable(FlatBufferBuilder builder, int bodyTableOffset) { builder.addOffset(1, bodyTableOffset, 0); }
+  public static void addInputSequences(FlatBufferBuilder builder, int inputSequencesOffset) { builder.addOffset(2, inputSequencesOffset, 0); }
+  public static void startInputSequencesVector(FlatBufferBuilder builder, int numElems) { builder.startVector(12, numElems, 4); }
   public static int endFlatMessage(FlatBufferBuilder builder) {
     int o = builder.endObject();
     return o;
@@ -8,8 +8,10 @@ public final class FlatMessageBodyUnion {
   public static final byte FlatInitializationMessage = 1;
   public static final byte FlatGameWorld = 2;
   public static final byte FlatPaddleControllerState = 3;
+  public static final byte FlatSnapshotAck = 4;
+  public static final byte FlatClientView = 5;
 
-  private static final String[] names = { "NONE", "FlatInitializationMessage", "FlatGameWorld", "FlatPaddleControllerState", };
+  private static final String[] names = { "NONE", "FlatInitializationMessage", "FlatGameWorld", "FlatPaddleControllerState", "FlatSnapshotAck", "FlatClientView", };
 
   public static String name(int e) { return names[e]; }
 };
@@ -21,12 +21,14 @@ public final class FlatModel extends Table {
   public msge.std.FlatVec3 rotation(msge.std.FlatVec3 obj) { int o = __offset(8); return o != 0 ? obj.__init(o + bb_pos, bb) : null; }
   public msge.std.FlatVec3 scale() { return scale(new msge.std.FlatVec3()); }
   public msge.std.FlatVec3 scale(msge.std.FlatVec3 obj) { int o = __offset(10); return o != 0 ? obj.__init(o + bb_pos, bb) : null; }
+  public int modelID() { int o = __offset(12); return o != 0 ? bb.getInt(o + bb_pos) : 0; }
 
-  public static void startFlatModel(FlatBufferBuilder builder) { builder.startObject(4); }
+  public static void startFlatModel(FlatBufferBuilder builder) { builder.startObject(5); }
   public static void addModelName(FlatBufferBuilder builder, int modelNameOffset) { builder.addOffset(0, modelNameOffset, 0); }
   public static void addTranslation(FlatBufferBuilder builder, int translationOffset) { builder.addStruct(1, translationOffset, 0); }
   public static void addRotation(FlatBufferBuilder builder, int rotationOffset) { builder.addStruct(2, rotationOffset, 0); }
   public static void addScale(FlatBufferBuilder builder, int scaleOffset) { builder.addStruct(3, scaleOffset, 0); }
+  public static void addModelID(FlatBufferBuilder builder, int modelID) { builder.addInt(4, modelID, 0); }
   public static int endFlatModel(FlatBufferBuilder builder) {
     int o = builder.endObject();
     return o;
@@ -21,6 +21,7 @@ public final class FlatPaddleControllerState extends Table {
   public boolean aButtonDown() { int o = __offset(14); return o != 0 ? 0!=bb.get(o + bb_pos) : false; }
   public boolean sButtonDown() { int o = __offset(16); return o != 0 ? 0!=bb.get(o + bb_pos) : false; }
   public boolean dButtonDown() { int o = __offset(18); return o != 0 ? 0!=bb.get(o + bb_pos) : false; }
+  public int sequence() { int o = __offset(20); return o != 0 ? bb.getInt(o + bb_pos) : 0; }
 
   public static int createFlatPaddleControllerState(FlatBufferBuilder builder,
       boolean leftButtonDown,
@@ -30,8 +31,10 @@ public final class FlatPaddleControllerState extends Table {
       boolean wButtonDown,
       boolean aButtonDown,
       boolean sButtonDown,
-      boolean dButtonDown) {
-    builder.startObject(8);
+      boolean dButtonDown,
+      int sequence) {
+    builder.startObject(9);
+    FlatPaddleControllerState.addSequence(builder, sequence);
     FlatPaddleControllerState.addDButtonDown(builder, dButtonDown);
     FlatPaddleControllerState.addSButtonDown(builder, sButtonDown);
     FlatPaddleControllerState.addAButtonDown(builder, aButtonDown);
@@ -43,7 +46,7 @@ public final class FlatPaddleControllerState extends Table {
     return FlatPaddleControllerState.endFlatPaddleControllerState(builder);
   }
 
-  public static void startFlatPaddleControllerState(FlatBufferBuilder builder) { builder.startObject(8); }
+  public static void startFlatPaddleControllerState(FlatBufferBuilder builder) { builder.startObject(9); }
   public static void addLeftButtonDown(FlatBufferBuilder builder, boolean leftButtonDown) { builder.addBoolean(0, leftButtonDown, false); }
   public static void addRightButtonDown(FlatBufferBuilder builder, boolean rightButtonDown) { builder.addBoolean(1, rightButtonDown, false); }
   public static void addUpButtonDown(FlatBufferBuilder builder, boolean upButtonDown) { builder.addBoolean(2, upButtonDown, false); }
@@ -52,6 +55,7 @@ public final class FlatPaddleControllerState extends Table {
   public static void addAButtonDown(FlatBufferBuilder builder, boolean aButtonDown) { builder.addBoolean(5, aButtonDown, false); }
   public static void addSButtonDown(FlatBufferBuilder builder, boolean sButtonDown) { builder.addBoolean(6, sButtonDown, false); }
   public static void addDButtonDown(FlatBufferBuilder builder, boolean dButtonDown) { builder.addBoolean(7, dButtonDown, false); }
+  public static void addSequence(FlatBufferBuilder builder, int sequence) { builder.addInt(8, sequence, 0); }
   public static int endFlatPaddleControllerState(FlatBufferBuilder builder) {
     int o = builder.endObject();
     return o;
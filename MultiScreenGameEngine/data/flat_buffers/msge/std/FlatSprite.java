@@ -23,13 +23,24 @@ public final class FlatSprite extends Table {
   public msge.std.FlatVec3 scale(msge.std.FlatVec3 obj) { int o = __offset(10); return o != 0 ? obj.__init(o + bb_pos, bb) : null; }
   public msge.std.FlatVec4 tint() { return tint(new msge.std.FlatVec4()); }
   public msge.std.FlatVec4 tint(msge.std.FlatVec4 obj) { int o = __offset(12); return o != 0 ? obj.__init(o + bb_pos, bb) : null; }
+  public msge.std.FlatQuantizedVec3 quantizedTranslation() { return quantizedTranslation(new msge.std.FlatQuantizedVec3()); }
+  public msge.std.FlatQuantizedVec3 quantizedTranslation(msge.std.FlatQuantizedVec3 obj) { int o = __offset(14); return o != 0 ? obj.__init(o + bb_pos, bb) : null; }
+  public msge.std.FlatQuantizedVec3 quantizedRotation() { return quantizedRotation(new msge.std.FlatQuantizedVec3()); }
+  public msge.std.FlatQuantizedVec3 quantizedRotation(msge.std.FlatQuantizedVec3 obj) { int o = __offset(16); return o != 0 ? obj.__init(o + bb_pos, bb) : null; }
+  public msge.std.FlatColor quantizedTint() { return quantizedTint(new msge.std.FlatColor()); }
+  public msge.std.FlatColor quantizedTint(msge.std.FlatColor obj) { int o = __offset(18); return o != 0 ? obj.__init(o + bb_pos, bb) : null; }
+  public int spriteID() { int o = __offset(20); return o != 0 ? bb.getInt(o + bb_pos) : 0; }
 
-  public static void startFlatSprite(FlatBufferBuilder builder) { builder.startObject(5); }
+  public static void startFlatSprite(FlatBufferBuilder builder) { builder.startObject(9); }
   public static void addSpriteName(FlatBufferBuilder builder, int spriteNameOffset) { builder.addOffset(0, spriteNameOffset, 0); }
   public static void addTranslation(FlatBufferBuilder builder, int translationOffset) { builder.addStruct(1, translationOffset, 0); }
   public static void addRotation(FlatBufferBuilder builder, int rotationOffset) { builder.addStruct(2, rotationOffset, 0); }
   public static void addScale(FlatBufferBuilder builder, int scaleOffset) { builder.addStruct(3, scaleOffset, 0); }
   public static void addTint(FlatBufferBuilder builder, int tintOffset) { builder.addStruct(4, tintOffset, 0); }
+  public static void addQuantizedTranslation(FlatBufferBuilder builder, int quantizedTranslationOffset) { builder.addStruct(5, quantizedTranslationOffset, 0); }
+  public static void addQuantizedRotation(FlatBufferBuilder builder, int quantizedRotationOffset) { builder.addStruct(6, quantizedRotationOffset, 0); }
+  public static void addQuantizedTint(FlatBufferBuilder builder, int quantizedTintOffset) { builder.addStruct(7, quantizedTintOffset, 0); }
+  public static void addSpriteID(FlatBufferBuilder builder, int spriteID) { builder.addInt(8, spriteID, 0); }
   public static int endFlatSprite(FlatBufferBuilder builder) {
     int o = builder.endObject();
     return o;